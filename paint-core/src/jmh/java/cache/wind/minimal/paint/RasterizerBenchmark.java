@@ -0,0 +1,72 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Rendering a full-size drawing headlessly, on one thread and on several, to
+ * see how it scales with cores.
+ */
+@State(Scope.Thread)
+public class RasterizerBenchmark {
+    private static final int WIDTH = 3240;
+    private static final int HEIGHT = 5760;
+    private static final int STROKES = 2000;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ForkJoinPool mPool;
+    private StrokeRasterizer mRasterizer;
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() {
+        mPool = new ForkJoinPool(threads);
+        mRasterizer = new StrokeRasterizer(mPool);
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+        int[] brushes = new int[]{
+                mBrushes.intern(0xFF000000, 6, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                        BrushTable.TIP_PATH),
+                mBrushes.intern(0x802196F3, 40, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                        BrushTable.TIP_PATH),
+                mBrushes.intern(0xFF000000, 30, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_CLEAR,
+                        BrushTable.TIP_PATH)
+        };
+        Random random = new Random(STROKES);
+        float[] points = new float[100];
+        for (int i = 0; i < STROKES; i++) {
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            for (int j = 0; j < points.length; j += 2) {
+                x += random.nextFloat() * 20 - 10;
+                y += random.nextFloat() * 20 - 10;
+                points[j] = x;
+                points[j + 1] = y;
+            }
+            mLog.add(brushes[i % brushes.length], points, points.length);
+        }
+        mPixels = new int[WIDTH * HEIGHT];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() {
+        mRasterizer.render(mLog, mBrushes, 1, mPixels, WIDTH, HEIGHT);
+        return mPixels;
+    }
+}
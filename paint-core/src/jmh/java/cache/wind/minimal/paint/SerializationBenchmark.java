@@ -0,0 +1,74 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Saving a drawing and loading it back, chunk by chunk as the view does.
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private static final int WIDTH = 3240;
+    private static final int HEIGHT = 5760;
+    private static final int STROKES = 5000;
+
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+    private File mFile;
+    private int[] mBrushMap;
+
+    @Setup
+    public void setUp() throws IOException {
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+        mBrushes.intern(0xFF000000, 12, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_PATH);
+        mBrushes.intern(0xFFFF0000, 40, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_SOFT);
+        Random random = new Random(STROKES);
+        float[] points = new float[200];
+        for (int i = 0; i < STROKES; i++) {
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            for (int j = 0; j < points.length; j += 2) {
+                x += random.nextFloat() * 8 - 4;
+                y += random.nextFloat() * 8 - 4;
+                points[j] = x;
+                points[j + 1] = y;
+            }
+            mLog.add(i % 2, points, points.length);
+        }
+        mFile = File.createTempFile("benchmark", PaintDocument.EXTENSION);
+        PaintDocument.write(mFile, mLog, mBrushes, WIDTH, HEIGHT);
+        mBrushMap = new int[]{0, 1};
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        PaintDocument.write(mFile, mLog, mBrushes, WIDTH, HEIGHT);
+        return mFile.length();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        PaintDocument document = PaintDocument.open(mFile);
+        StrokeLog log = new StrokeLog();
+        int strokes = 0;
+        for (int chunk = 0; chunk < document.getChunkCount(); chunk++) {
+            strokes += document.readChunk(chunk, log, mBrushMap);
+        }
+        return strokes;
+    }
+}
@@ -0,0 +1,61 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Committing a finished stroke: simplifying its samples, logging it and
+ * indexing its bounds, as the view does on ACTION_UP.
+ */
+@State(Scope.Thread)
+public class StrokeCommitBenchmark {
+    private static final int WIDTH = 3240;
+    private static final int HEIGHT = 5760;
+    private static final int POINTS = 600;
+
+    private StrokeSimplifier mSimplifier;
+    private StrokeLog mLog;
+    private StrokeIndex mIndex;
+    private float[] mSamples;
+    private float[] mPoints;
+
+    @Setup
+    public void setUp() {
+        mSimplifier = new StrokeSimplifier();
+        mSamples = new float[POINTS * 2];
+        for (int i = 0; i < POINTS; i++) {
+            mSamples[i * 2] = 200 + i * 4 + (float) Math.sin(i / 3.0) * 2;
+            mSamples[i * 2 + 1] = 1000 + (float) Math.sin(i / 40.0) * 300;
+        }
+        mPoints = new float[mSamples.length];
+    }
+
+    @Setup(Level.Iteration)
+    public void clearDrawing() {
+        mLog = new StrokeLog();
+        mIndex = new StrokeIndex(WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public int commitStroke() {
+        System.arraycopy(mSamples, 0, mPoints, 0, mSamples.length);
+        int count = mSimplifier.simplify(mPoints, mPoints.length, 1);
+
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i += 2) {
+            left = Math.min(left, mPoints[i]);
+            top = Math.min(top, mPoints[i + 1]);
+            right = Math.max(right, mPoints[i]);
+            bottom = Math.max(bottom, mPoints[i + 1]);
+        }
+        mLog.add(0, mPoints, count, POINTS);
+        mIndex.add(left, top, right, bottom);
+        return count;
+    }
+}
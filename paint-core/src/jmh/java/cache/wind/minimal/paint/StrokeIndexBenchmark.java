@@ -0,0 +1,80 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Finding the strokes around a spot of a big drawing, with the grid index
+ * against checking the bounds of every stroke.
+ */
+@State(Scope.Thread)
+public class StrokeIndexBenchmark {
+    private static final int SIZE = 4096;
+    private static final int QUERIES = 256;
+    private static final float QUERY_SIZE = 100;
+
+    @Param({"1000", "10000"})
+    public int strokes;
+
+    private StrokeIndex mIndex;
+    private float[] mBounds;
+    private float[] mQueries;
+    private int mQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(strokes);
+        mIndex = new StrokeIndex(SIZE, SIZE);
+        mBounds = new float[strokes * 4];
+        for (int i = 0; i < strokes; i++) {
+            // Mostly short strokes, with the odd one across the drawing
+            float width = random.nextInt(50) == 0 ? SIZE : 10 + random.nextFloat() * 200;
+            float height = 10 + random.nextFloat() * 200;
+            float left = random.nextFloat() * SIZE - 100;
+            float top = random.nextFloat() * SIZE - 100;
+            mBounds[i * 4] = left;
+            mBounds[i * 4 + 1] = top;
+            mBounds[i * 4 + 2] = left + width;
+            mBounds[i * 4 + 3] = top + height;
+            mIndex.add(left, top, left + width, top + height);
+        }
+        mQueries = new float[QUERIES * 2];
+        for (int i = 0; i < mQueries.length; i++) {
+            mQueries[i] = random.nextFloat() * SIZE;
+        }
+    }
+
+    private int nextQuery() {
+        mQuery = (mQuery + 2) % mQueries.length;
+        return mQuery;
+    }
+
+    @Benchmark
+    public int query() {
+        int i = nextQuery();
+        return mIndex.queryRect(mQueries[i], mQueries[i + 1], mQueries[i] + QUERY_SIZE,
+                mQueries[i + 1] + QUERY_SIZE, strokes);
+    }
+
+    @Benchmark
+    public int scan() {
+        int i = nextQuery();
+        float left = mQueries[i];
+        float top = mQueries[i + 1];
+        float right = left + QUERY_SIZE;
+        float bottom = top + QUERY_SIZE;
+        int count = 0;
+        for (int stroke = 0; stroke < strokes; stroke++) {
+            if (mBounds[stroke * 4] <= right && mBounds[stroke * 4 + 1] <= bottom
+                    && mBounds[stroke * 4 + 2] >= left && mBounds[stroke * 4 + 3] >= top) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
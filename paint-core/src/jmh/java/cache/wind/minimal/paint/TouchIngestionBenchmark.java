@@ -0,0 +1,50 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Touch samples going through the buffer the view feeds them to, a frame's
+ * worth of coalesced samples at a time.
+ */
+@State(Scope.Thread)
+public class TouchIngestionBenchmark {
+    private static final int SAMPLES = 4096;
+    // Samples per frame with a 240Hz digitizer at 60fps
+    private static final int BATCH = 4;
+
+    private TouchSampleBuffer mBuffer;
+    private float[] mX;
+    private float[] mY;
+
+    @Setup
+    public void setUp() {
+        mBuffer = new TouchSampleBuffer();
+        mX = new float[SAMPLES];
+        mY = new float[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            mX[i] = 500 + 400 * (float) Math.cos(i / 100.0) + (i % 3);
+            mY[i] = 500 + 400 * (float) Math.sin(i / 70.0) - (i % 5);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public float pushAndProcess() {
+        mBuffer.reset(mX[0], mY[0], 0);
+        float sum = 0;
+        for (int i = 1; i < SAMPLES; i += BATCH) {
+            for (int j = i; j < i + BATCH && j < SAMPLES; j++) {
+                mBuffer.push(mX[j], mY[j], j);
+            }
+            int accepted = mBuffer.process(4, 0.7f);
+            for (int j = 0; j < accepted; j++) {
+                sum += mBuffer.getAcceptedX(j) + mBuffer.getAcceptedY(j);
+            }
+        }
+        return sum;
+    }
+}
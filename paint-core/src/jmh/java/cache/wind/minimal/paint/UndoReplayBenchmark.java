@@ -0,0 +1,60 @@
+package cache.wind.minimal.paint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * The bookkeeping of undoing a stroke in a big drawing: stepping the log
+ * back, finding the visible strokes it overlapped, which the renderer then
+ * redraws, and stepping forward again.
+ */
+@State(Scope.Thread)
+public class UndoReplayBenchmark {
+    private static final int WIDTH = 3240;
+    private static final int HEIGHT = 5760;
+
+    @Param({"1000", "10000"})
+    public int strokes;
+
+    private StrokeLog mLog;
+    private StrokeIndex mIndex;
+
+    @Setup
+    public void setUp() {
+        mLog = new StrokeLog();
+        mIndex = new StrokeIndex(WIDTH, HEIGHT);
+        Random random = new Random(strokes);
+        float[] points = new float[64];
+        for (int i = 0; i < strokes; i++) {
+            float x = random.nextFloat() * (WIDTH - 400);
+            float y = random.nextFloat() * (HEIGHT - 400);
+            for (int j = 0; j < points.length; j += 2) {
+                points[j] = x + j * 6;
+                points[j + 1] = y + random.nextFloat() * 400;
+            }
+            mLog.add(0, points, points.length);
+            mIndex.add(x, y, x + points.length * 3, y + 400);
+        }
+    }
+
+    @Benchmark
+    public int undoAndRedo() {
+        mLog.undo();
+        int stroke = mLog.size();
+        int found = mIndex.queryRect(mIndex.getLeft(stroke), mIndex.getTop(stroke),
+                mIndex.getRight(stroke), mIndex.getBottom(stroke), stroke);
+        int visible = 0;
+        for (int i = 0; i < found; i++) {
+            if (mLog.isVisible(mIndex.getResult(i))) {
+                visible++;
+            }
+        }
+        mLog.redo();
+        return visible;
+    }
+}
@@ -0,0 +1,112 @@
+package cache.wind.minimal.paint;
+
+/**
+ * The distinct brushes strokes have been drawn with. Strokes refer to a brush
+ * by its index, and drawing again with the same settings reuses the entry, so
+ * a drawing normally only holds a handful of them.
+ */
+class BrushTable {
+    public static final int NO_MASK_FILTER = -1;
+
+    public static final int BLEND_NORMAL = 0;
+    public static final int BLEND_CLEAR = 1;
+
+    // Strokes are either stroked as a path or stamped with a StampBrush tip
+    public static final int TIP_PATH = 0;
+    public static final int TIP_HARD = 1;
+    public static final int TIP_SOFT = 2;
+    public static final int TIP_TEXTURED = 3;
+
+    private int[] mColors;
+    private float[] mWidths;
+    private int[] mMaskFilters;
+    private int[] mBlendModes;
+    private int[] mTips;
+    private int mSize;
+
+    BrushTable() {
+        mColors = new int[8];
+        mWidths = new float[8];
+        mMaskFilters = new int[8];
+        mBlendModes = new int[8];
+        mTips = new int[8];
+    }
+
+    BrushTable(BrushTable other) {
+        mColors = other.mColors.clone();
+        mWidths = other.mWidths.clone();
+        mMaskFilters = other.mMaskFilters.clone();
+        mBlendModes = other.mBlendModes.clone();
+        mTips = other.mTips.clone();
+        mSize = other.mSize;
+    }
+
+    /**
+     * @param maskFilter index of the mask filter in the caller's own list of
+     *                   filters, or {@link #NO_MASK_FILTER}
+     * @param tip        {@link #TIP_PATH}, or the tip the strokes are stamped with
+     * @return the index of the brush with these settings, added if needed
+     */
+    public int intern(int color, float width, int maskFilter, int blendMode, int tip) {
+        for (int i = 0; i < mSize; i++) {
+            if (mColors[i] == color && mWidths[i] == width && mMaskFilters[i] == maskFilter
+                    && mBlendModes[i] == blendMode && mTips[i] == tip) {
+                return i;
+            }
+        }
+        if (mSize == mColors.length) {
+            int capacity = mSize * 2;
+            mColors = grow(mColors, capacity);
+            mWidths = grow(mWidths, capacity);
+            mMaskFilters = grow(mMaskFilters, capacity);
+            mBlendModes = grow(mBlendModes, capacity);
+            mTips = grow(mTips, capacity);
+        }
+        mColors[mSize] = color;
+        mWidths[mSize] = width;
+        mMaskFilters[mSize] = maskFilter;
+        mBlendModes[mSize] = blendMode;
+        mTips[mSize] = tip;
+        return mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getColor(int brush) {
+        return mColors[brush];
+    }
+
+    public float getWidth(int brush) {
+        return mWidths[brush];
+    }
+
+    public int getMaskFilter(int brush) {
+        return mMaskFilters[brush];
+    }
+
+    public int getBlendMode(int brush) {
+        return mBlendModes[brush];
+    }
+
+    public int getTip(int brush) {
+        return mTips[brush];
+    }
+
+    public long getMemoryUsage() {
+        return 4L * 5 * mColors.length;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
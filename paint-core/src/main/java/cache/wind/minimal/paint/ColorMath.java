@@ -0,0 +1,97 @@
+package cache.wind.minimal.paint;
+
+/**
+ * Color arithmetic of the color picker, on packed ARGB colors like
+ * {@code android.graphics.Color} uses, without depending on it.
+ */
+class ColorMath {
+    private ColorMath() {
+    }
+
+    public static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * @param unit where to pick between the first color, at 0, and the last
+     *             one, at 1, the others being evenly spaced in between
+     * @return the color at {@code unit} along {@code colors}, each channel
+     * linearly interpolated between the two nearest colors
+     */
+    public static int interpColor(int[] colors, float unit) {
+        if (unit <= 0) {
+            return colors[0];
+        }
+        if (unit >= 1) {
+            return colors[colors.length - 1];
+        }
+
+        float p = unit * (colors.length - 1);
+        int i = (int) p;
+        p -= i;
+
+        // now p is just the fractional part [0...1) and i is the index
+        int c0 = colors[i];
+        int c1 = colors[i + 1];
+        int a = ave(alpha(c0), alpha(c1), p);
+        int r = ave(red(c0), red(c1), p);
+        int g = ave(green(c0), green(c1), p);
+        int b = ave(blue(c0), blue(c1), p);
+
+        return argb(a, r, g, b);
+    }
+
+    /**
+     * @return {@code color} with its hue turned by {@code rad} radians,
+     * rotating its chroma around the luma axis in YUV space
+     */
+    public static int rotateColor(int color, float rad) {
+        int r = red(color);
+        int g = green(color);
+        int b = blue(color);
+
+        // The same transforms as ColorMatrix.setRGB2YUV() and setYUV2RGB()
+        float y = 0.299f * r + 0.587f * g + 0.114f * b;
+        float u = -0.16874f * r - 0.33126f * g + 0.5f * b;
+        float v = 0.5f * r - 0.41869f * g - 0.08131f * b;
+        float cos = (float) Math.cos(rad);
+        float sin = (float) Math.sin(rad);
+        float rotatedU = cos * u + sin * v;
+        float rotatedV = cos * v - sin * u;
+
+        int ir = Math.round(y + 1.402f * rotatedV);
+        int ig = Math.round(y - 0.34414f * rotatedU - 0.71414f * rotatedV);
+        int ib = Math.round(y + 1.772f * rotatedU);
+
+        return argb(alpha(color), pinToByte(ir), pinToByte(ig), pinToByte(ib));
+    }
+
+    private static int pinToByte(int n) {
+        if (n < 0) {
+            n = 0;
+        } else if (n > 255) {
+            n = 255;
+        }
+        return n;
+    }
+
+    private static int ave(int s, int d, float p) {
+        return s + Math.round(p * (d - s));
+    }
+}
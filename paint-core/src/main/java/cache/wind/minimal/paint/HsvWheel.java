@@ -0,0 +1,154 @@
+package cache.wind.minimal.paint;
+
+/**
+ * Hue, saturation and value colors, laid out as a wheel with the hue going
+ * clockwise around it from red on the right, and the saturation growing from
+ * white at the center to the full hue at the rim.
+ * <p>
+ * The fully saturated hues and the angles a hue is picked from come from
+ * tables built once, so turning a touch into a color never allocates nor
+ * calls a trigonometric function.
+ */
+class HsvWheel {
+    // Every fully saturated color with 8 bit channels, 256 per sixth of the wheel
+    static final int HUE_STEPS = 6 * 256;
+    private static final int ATAN_STEPS = 1024;
+
+    private static final int[] HUE_COLORS = new int[HUE_STEPS];
+    // atan of every step from 0 to 1, in degrees
+    private static final float[] ATAN_DEGREES = new float[ATAN_STEPS + 1];
+
+    static {
+        for (int i = 0; i < HUE_STEPS; i++) {
+            int sixth = i / 256;
+            int rise = i % 256;
+            int fall = 255 - rise;
+            switch (sixth) {
+                case 0:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, 255, rise, 0);
+                    break;
+                case 1:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, fall, 255, 0);
+                    break;
+                case 2:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, 0, 255, rise);
+                    break;
+                case 3:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, 0, fall, 255);
+                    break;
+                case 4:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, rise, 0, 255);
+                    break;
+                default:
+                    HUE_COLORS[i] = ColorMath.argb(0xFF, 255, 0, fall);
+                    break;
+            }
+        }
+        for (int i = 0; i <= ATAN_STEPS; i++) {
+            ATAN_DEGREES[i] = (float) Math.toDegrees(Math.atan((double) i / ATAN_STEPS));
+        }
+    }
+
+    private HsvWheel() {
+    }
+
+    /**
+     * @return the hue, in degrees from 0 to 360, at {@code dx, dy} from the
+     * center of the wheel, with y growing downwards
+     */
+    public static float getHue(float dx, float dy) {
+        float ax = Math.abs(dx);
+        float ay = Math.abs(dy);
+        if (ax == 0 && ay == 0) {
+            return 0;
+        }
+        // The angle from the nearest axis, within an eighth of a turn
+        float angle = ay <= ax ? atan(ay / ax) : 90 - atan(ax / ay);
+        if (dx < 0) {
+            angle = 180 - angle;
+        }
+        if (dy < 0) {
+            angle = 360 - angle;
+        }
+        return angle >= 360 ? 0 : angle;
+    }
+
+    private static float atan(float ratio) {
+        float position = ratio * ATAN_STEPS;
+        int i = (int) position;
+        if (i >= ATAN_STEPS) {
+            return ATAN_DEGREES[ATAN_STEPS];
+        }
+        float fraction = position - i;
+        return ATAN_DEGREES[i] + (ATAN_DEGREES[i + 1] - ATAN_DEGREES[i]) * fraction;
+    }
+
+    /**
+     * @param hue        in degrees, from 0 to 360
+     * @param saturation from 0 for gray to 1 for the full hue
+     * @param value      from 0 for black to 1 for the brightest
+     */
+    public static int toColor(int alpha, float hue, float saturation, float value) {
+        int step = (int) (hue * HUE_STEPS / 360 + 0.5f) % HUE_STEPS;
+        if (step < 0) {
+            step += HUE_STEPS;
+        }
+        int color = HUE_COLORS[step];
+        return ColorMath.argb(alpha, toChannel(ColorMath.red(color), saturation, value),
+                toChannel(ColorMath.green(color), saturation, value),
+                toChannel(ColorMath.blue(color), saturation, value));
+    }
+
+    private static int toChannel(int hueChannel, float saturation, float value) {
+        return (int) (value * (255 - saturation * (255 - hueChannel)) + 0.5f);
+    }
+
+    /**
+     * Fills {@code hsv} with the hue in degrees, the saturation and the value
+     * of {@code color}, ignoring its alpha; grays get a hue of 0.
+     */
+    public static void toHsv(int color, float[] hsv) {
+        int r = ColorMath.red(color);
+        int g = ColorMath.green(color);
+        int b = ColorMath.blue(color);
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        int range = max - min;
+        float hue;
+        if (range == 0) {
+            hue = 0;
+        } else if (max == r) {
+            hue = 60f * (g - b) / range;
+        } else if (max == g) {
+            hue = 120 + 60f * (b - r) / range;
+        } else {
+            hue = 240 + 60f * (r - g) / range;
+        }
+        hsv[0] = hue < 0 ? hue + 360 : hue;
+        hsv[1] = max == 0 ? 0 : (float) range / max;
+        hsv[2] = max / 255f;
+    }
+
+    /**
+     * Draws the wheel at full value in {@code pixels}, a square {@code size}
+     * pixels wide, as non-premultiplied colors; the rim is antialiased, and
+     * the corners left transparent.
+     */
+    public static void render(int[] pixels, int size) {
+        float radius = size / 2f;
+        for (int y = 0; y < size; y++) {
+            float dy = y + 0.5f - radius;
+            for (int x = 0; x < size; x++) {
+                float dx = x + 0.5f - radius;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                float coverage = Math.min(1, radius - distance + 0.5f);
+                if (coverage <= 0) {
+                    pixels[y * size + x] = 0;
+                    continue;
+                }
+                pixels[y * size + x] = toColor((int) (coverage * 255 + 0.5f), getHue(dx, dy),
+                        Math.min(1, distance / radius), 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package cache.wind.minimal.paint;
+
+/**
+ * The bytes each part of a drawing holds in memory, each against a budget of
+ * its own.
+ * <p>
+ * The parts measure themselves and report here, from whatever thread owns
+ * them; a listener hears of every part that goes over its budget, once per
+ * crossing, so it can evict or compact something. Every method may be called
+ * from any thread.
+ */
+class MemoryBudgets {
+    // The tiles of the drawing, and older ones still on screen
+    public static final int TILES = 0;
+    // Copies of the tiles kept to replay less on undo
+    public static final int CHECKPOINTS = 1;
+    // Tiles kept to undo deleting every stroke at once
+    public static final int CLEAR_HISTORY = 2;
+    // Strokes with a mask filter, kept rasterized
+    public static final int STROKE_BITMAPS = 3;
+    // Brush dabs, and the layer stamped strokes are drawn on
+    public static final int DABS = 4;
+    // The strokes and brushes of the drawing, not counting undone ones
+    public static final int STROKE_HISTORY = 5;
+    // The undone strokes that could be redone
+    public static final int REDO_HISTORY = 6;
+    // The renderer's own copy of the history, and its spatial index
+    public static final int RENDER_HISTORY = 7;
+    public static final int CATEGORY_COUNT = 8;
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final String[] NAMES = {"tiles", "checkpoints", "clear_history",
+            "stroke_bitmaps", "dabs", "stroke_history", "redo_history", "render_history"};
+
+    public interface OnBudgetExceededListener {
+        /**
+         * Called on the thread that reported {@code usage}, without any lock
+         * held, when {@code category} goes over its budget.
+         */
+        void onBudgetExceeded(int category, long usage, long budget);
+    }
+
+    private final long[] mUsage;
+    private final long[] mBudgets;
+    private final boolean[] mExceeded;
+    private OnBudgetExceededListener mListener;
+
+    MemoryBudgets() {
+        mUsage = new long[CATEGORY_COUNT];
+        mBudgets = new long[CATEGORY_COUNT];
+        mExceeded = new boolean[CATEGORY_COUNT];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            mBudgets[i] = UNLIMITED;
+        }
+    }
+
+    public synchronized void setOnBudgetExceededListener(OnBudgetExceededListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records that {@code category} now holds {@code bytes}.
+     *
+     * @return true if that is over its budget
+     */
+    public boolean update(int category, long bytes) {
+        OnBudgetExceededListener listener;
+        long budget;
+        synchronized (this) {
+            mUsage[category] = bytes;
+            budget = mBudgets[category];
+            listener = checkCrossing(category);
+        }
+        if (listener != null) {
+            listener.onBudgetExceeded(category, bytes, budget);
+        }
+        return bytes > budget;
+    }
+
+    /**
+     * @param bytes {@link #UNLIMITED} for no budget; a part already over the
+     *              new budget is reported right away
+     */
+    public void setBudget(int category, long bytes) {
+        OnBudgetExceededListener listener;
+        long usage;
+        synchronized (this) {
+            mBudgets[category] = bytes;
+            usage = mUsage[category];
+            listener = checkCrossing(category);
+        }
+        if (listener != null) {
+            listener.onBudgetExceeded(category, usage, bytes);
+        }
+    }
+
+    /**
+     * @return the listener to tell, if {@code category} just went over budget
+     */
+    private OnBudgetExceededListener checkCrossing(int category) {
+        boolean exceeded = mUsage[category] > mBudgets[category];
+        boolean crossed = exceeded && !mExceeded[category];
+        mExceeded[category] = exceeded;
+        return crossed ? mListener : null;
+    }
+
+    public synchronized long getUsage(int category) {
+        return mUsage[category];
+    }
+
+    public synchronized long getBudget(int category) {
+        return mBudgets[category];
+    }
+
+    public synchronized boolean isOverBudget(int category) {
+        return mUsage[category] > mBudgets[category];
+    }
+
+    public synchronized long getTotalUsage() {
+        long total = 0;
+        for (long bytes : mUsage) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    public static String getName(int category) {
+        return NAMES[category];
+    }
+
+    /**
+     * Appends the usage of every category in one line, like
+     * {@code tiles=12.3MB checkpoints=4.0MB/32.0MB}, with the budget after
+     * the usage of the categories that have one.
+     */
+    public synchronized void appendReport(StringBuilder report) {
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            if (i > 0) {
+                report.append(' ');
+            }
+            report.append(NAMES[i]).append('=');
+            appendMegabytes(report, mUsage[i]);
+            if (mBudgets[i] != UNLIMITED) {
+                report.append('/');
+                appendMegabytes(report, mBudgets[i]);
+            }
+        }
+        report.append(" total=");
+        appendMegabytes(report, getTotalUsage());
+    }
+
+    /**
+     * Appends {@code bytes} in megabytes with one decimal, rounded up so that
+     * anything held shows.
+     */
+    static void appendMegabytes(StringBuilder builder, long bytes) {
+        long tenths = (bytes * 10 + 1024 * 1024 - 1) / (1024 * 1024);
+        builder.append(tenths / 10).append('.').append(tenths % 10).append("MB");
+    }
+}
@@ -0,0 +1,358 @@
+package cache.wind.minimal.paint;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The {@code .mpaint} document format, holding the stroke history of a
+ * drawing and the brushes it uses, undone strokes included.
+ * <p>
+ * The file starts with a fixed header and the brush table, followed by the
+ * file offsets of the chunks the strokes are grouped in. Each chunk can be
+ * decoded on its own: a stroke is its brush, its point counts and its points
+ * in 1/16 pixel steps, each point stored as the varint difference from the
+ * previous one. Brushes are stored plus one, 0 marking a deletion, whose
+ * points are the indices of the strokes it removes, each stored as the
+ * varint difference from the previous one. Opening a document maps the file and
+ * reads only the header; chunks are decoded when asked for, so a long
+ * history can be drawn a chunk at a time.
+ * <p>
+ * All numbers in the header are big-endian.
+ */
+class PaintDocument {
+    public static final String EXTENSION = ".mpaint";
+
+    static final int MAGIC = 0x4D504E54; // "MPNT"
+    static final int VERSION = 1;
+    static final int STROKES_PER_CHUNK = 256;
+
+    // Points are stored in fixed point with this many steps per pixel
+    private static final float POINT_SCALE = 16;
+    private static final int HEADER_SIZE = 36;
+    private static final int BRUSH_SIZE = 20;
+
+    private final ByteBuffer mBuffer;
+    private final int mVersion;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStrokeCount;
+    private final int mUndoPosition;
+    private final int mBrushCount;
+    private final int mChunkCount;
+    private final int mStrokesPerChunk;
+    private final long[] mChunkOffsets;
+
+    private PaintDocument(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        try {
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a " + EXTENSION + " document");
+            }
+            mVersion = buffer.getInt(4);
+            if (mVersion != VERSION) {
+                throw new IOException("Unsupported document version " + mVersion);
+            }
+            mWidth = buffer.getInt(8);
+            mHeight = buffer.getInt(12);
+            mStrokeCount = buffer.getInt(16);
+            mUndoPosition = buffer.getInt(20);
+            mBrushCount = buffer.getInt(24);
+            mChunkCount = buffer.getInt(28);
+            mStrokesPerChunk = buffer.getInt(32);
+            if (mStrokeCount < 0 || mUndoPosition < 0 || mUndoPosition > mStrokeCount
+                    || mBrushCount < 0 || mStrokesPerChunk <= 0
+                    || mChunkCount != (mStrokeCount + mStrokesPerChunk - 1) / mStrokesPerChunk) {
+                throw new IOException("Corrupt document header");
+            }
+
+            // Checked before reading, since the counts could be anything
+            long dataStart = HEADER_SIZE + (long) BRUSH_SIZE * mBrushCount + 8L * (mChunkCount + 1);
+            if (dataStart > buffer.limit()) {
+                throw new IOException("Truncated document");
+            }
+            int index = getIndexOffset();
+            mChunkOffsets = new long[mChunkCount + 1];
+            for (int i = 0; i <= mChunkCount; i++) {
+                mChunkOffsets[i] = buffer.getLong(index + 8 * i);
+                if (mChunkOffsets[i] < 0 || mChunkOffsets[i] > buffer.limit()
+                        || (i == 0 && mChunkOffsets[i] != dataStart)
+                        || (i > 0 && mChunkOffsets[i] < mChunkOffsets[i - 1])) {
+                    throw new IOException("Corrupt chunk index");
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated document", e);
+        }
+    }
+
+    /**
+     * Maps {@code file} and checks its header; the strokes themselves are
+     * only read by {@link #readChunk(int, StrokeLog, int[])}.
+     */
+    public static PaintDocument open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            // The mapping stays valid after the channel is closed
+            return new PaintDocument(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the width of the drawing the strokes were drawn on
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the number of strokes in the document, undone ones included
+     */
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    /**
+     * @return the number of strokes that were not undone, which come first
+     */
+    public int getUndoPosition() {
+        return mUndoPosition;
+    }
+
+    public int getBrushCount() {
+        return mBrushCount;
+    }
+
+    public int getBrushColor(int brush) {
+        return mBuffer.getInt(getBrushOffset(brush));
+    }
+
+    public float getBrushWidth(int brush) {
+        return mBuffer.getFloat(getBrushOffset(brush) + 4);
+    }
+
+    public int getBrushMaskFilter(int brush) {
+        return mBuffer.getInt(getBrushOffset(brush) + 8);
+    }
+
+    public int getBrushBlendMode(int brush) {
+        return mBuffer.getInt(getBrushOffset(brush) + 12);
+    }
+
+    public int getBrushTip(int brush) {
+        return mBuffer.getInt(getBrushOffset(brush) + 16);
+    }
+
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * @return the index of the first stroke in {@code chunk}
+     */
+    public int getChunkStart(int chunk) {
+        return chunk * mStrokesPerChunk;
+    }
+
+    /**
+     * Decodes the strokes of {@code chunk} and adds them to {@code log}.
+     * Deletions can only be read into a log holding the strokes they remove,
+     * which the chunks before them add.
+     *
+     * @param brushMap the brush index to log each stroke with, by its brush
+     *                 index in the document
+     * @return the number of strokes added
+     */
+    public int readChunk(int chunk, StrokeLog log, int[] brushMap) throws IOException {
+        int strokes = Math.min(mStrokesPerChunk, mStrokeCount - getChunkStart(chunk));
+        ByteBuffer input = mBuffer.duplicate();
+        float[] points = new float[256];
+        int[] deleted = null;
+        try {
+            input.limit((int) mChunkOffsets[chunk + 1]);
+            input.position((int) mChunkOffsets[chunk]);
+            int x = 0;
+            int y = 0;
+            for (int stroke = 0; stroke < strokes; stroke++) {
+                int brush = readVarint(input) - 1;
+                int sampledCount = readVarint(input);
+                int pointCount = readVarint(input);
+                if (brush < StrokeLog.DELETION || brush >= mBrushCount
+                        || pointCount <= 0 || pointCount > input.remaining()) {
+                    throw new IOException("Corrupt stroke in chunk " + chunk);
+                }
+                if (brush == StrokeLog.DELETION) {
+                    if (deleted == null || deleted.length < pointCount) {
+                        deleted = new int[pointCount];
+                    }
+                    int deletedStroke = 0;
+                    for (int i = 0; i < pointCount; i++) {
+                        deletedStroke += decodeZigZag(readVarint(input));
+                        if (deletedStroke < 0 || deletedStroke >= log.getStrokeCount()
+                                || !log.isVisible(deletedStroke)) {
+                            throw new IOException("Corrupt deletion in chunk " + chunk);
+                        }
+                        deleted[i] = deletedStroke;
+                    }
+                    log.addDeletion(deleted, pointCount);
+                    continue;
+                }
+                if (points.length < 2 * pointCount) {
+                    points = new float[Math.max(2 * pointCount, 2 * points.length)];
+                }
+                for (int i = 0; i < 2 * pointCount; i += 2) {
+                    x += decodeZigZag(readVarint(input));
+                    y += decodeZigZag(readVarint(input));
+                    points[i] = x / POINT_SCALE;
+                    points[i + 1] = y / POINT_SCALE;
+                }
+                log.add(brushMap[brush], points, 2 * pointCount, sampledCount);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated chunk " + chunk, e);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt chunk " + chunk, e);
+        }
+        return strokes;
+    }
+
+    /**
+     * Writes every stroke of {@code log}, undone ones included, along with
+     * {@code brushes}. The document is written next to {@code file} first and
+     * only replaces it once complete.
+     */
+    public static void write(File file, StrokeLog log, BrushTable brushes, int width, int height)
+            throws IOException {
+        int strokeCount = log.getStrokeCount();
+        int chunkCount = (strokeCount + STROKES_PER_CHUNK - 1) / STROKES_PER_CHUNK;
+
+        // Chunks are encoded first since the index ahead of them needs their sizes
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        long[] offsets = new long[chunkCount + 1];
+        long dataStart = HEADER_SIZE + (long) BRUSH_SIZE * brushes.size() + 8L * (chunkCount + 1);
+        float[] points = log.getPoints();
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            offsets[chunk] = dataStart + chunks.size();
+            int x = 0;
+            int y = 0;
+            int end = Math.min(strokeCount, (chunk + 1) * STROKES_PER_CHUNK);
+            for (int stroke = chunk * STROKES_PER_CHUNK; stroke < end; stroke++) {
+                if (log.isDeletion(stroke)) {
+                    writeVarint(chunks, 0);
+                    writeVarint(chunks, 0);
+                    writeVarint(chunks, log.getDeletedCount(stroke));
+                    int previous = 0;
+                    for (int i = 0; i < log.getDeletedCount(stroke); i++) {
+                        int deleted = log.getDeletedStroke(stroke, i);
+                        writeVarint(chunks, encodeZigZag(deleted - previous));
+                        previous = deleted;
+                    }
+                    continue;
+                }
+                writeVarint(chunks, log.getBrush(stroke) + 1);
+                writeVarint(chunks, log.getSampledPointCount(stroke));
+                writeVarint(chunks, log.getPointCount(stroke));
+                for (int i = log.getStart(stroke); i < log.getEnd(stroke); i += 2) {
+                    int pointX = Math.round(points[i] * POINT_SCALE);
+                    int pointY = Math.round(points[i + 1] * POINT_SCALE);
+                    writeVarint(chunks, encodeZigZag(pointX - x));
+                    writeVarint(chunks, encodeZigZag(pointY - y));
+                    x = pointX;
+                    y = pointY;
+                }
+            }
+        }
+        offsets[chunkCount] = dataStart + chunks.size();
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(width);
+            output.writeInt(height);
+            output.writeInt(strokeCount);
+            output.writeInt(log.size());
+            output.writeInt(brushes.size());
+            output.writeInt(chunkCount);
+            output.writeInt(STROKES_PER_CHUNK);
+            for (int i = 0; i < brushes.size(); i++) {
+                output.writeInt(brushes.getColor(i));
+                output.writeFloat(brushes.getWidth(i));
+                output.writeInt(brushes.getMaskFilter(i));
+                output.writeInt(brushes.getBlendMode(i));
+                output.writeInt(brushes.getTip(i));
+            }
+            for (long offset : offsets) {
+                output.writeLong(offset);
+            }
+            chunks.writeTo(output);
+            output.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not write " + file.getName());
+        }
+    }
+
+    private int getIndexOffset() {
+        return getBrushOffset(mBrushCount);
+    }
+
+    private int getBrushOffset(int brush) {
+        return HEADER_SIZE + BRUSH_SIZE * brush;
+    }
+
+    static void writeVarint(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    static int readVarint(ByteBuffer input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Maps small negative and positive numbers alike to small varints.
+     */
+    static int encodeZigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int decodeZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,75 @@
+package cache.wind.minimal.paint;
+
+import java.util.Arrays;
+
+/**
+ * Hands out a fixed number of slots to touch pointers, so that each finger
+ * drawing at the same time gets a stroke of its own, and finds the slot of a
+ * pointer from its id.
+ */
+class PointerSlots {
+    public static final int NO_SLOT = -1;
+    private static final int NO_POINTER = -1;
+
+    // The pointer in each slot, or NO_POINTER
+    private final int[] mPointers;
+    // The slot of each pointer id, or NO_SLOT
+    private int[] mSlots;
+
+    /**
+     * @param pointerIds how many pointer ids to expect; larger ones still work
+     */
+    PointerSlots(int slots, int pointerIds) {
+        mPointers = new int[slots];
+        Arrays.fill(mPointers, NO_POINTER);
+        mSlots = new int[pointerIds];
+        Arrays.fill(mSlots, NO_SLOT);
+    }
+
+    public int getSlotCount() {
+        return mPointers.length;
+    }
+
+    /**
+     * @return the slot of {@code pointer}, or {@link #NO_SLOT}
+     */
+    public int findSlot(int pointer) {
+        return pointer < mSlots.length ? mSlots[pointer] : NO_SLOT;
+    }
+
+    /**
+     * Gives {@code pointer} the first free slot.
+     *
+     * @return the slot, or {@link #NO_SLOT} if they are all taken
+     */
+    public int acquire(int pointer) {
+        for (int slot = 0; slot < mPointers.length; slot++) {
+            if (mPointers[slot] == NO_POINTER) {
+                if (pointer >= mSlots.length) {
+                    int length = mSlots.length;
+                    mSlots = Arrays.copyOf(mSlots, pointer + 1);
+                    Arrays.fill(mSlots, length, mSlots.length, NO_SLOT);
+                }
+                mPointers[slot] = pointer;
+                mSlots[pointer] = slot;
+                return slot;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Frees {@code slot} for another pointer.
+     */
+    public void release(int slot) {
+        int pointer = mPointers[slot];
+        if (pointer != NO_POINTER) {
+            mSlots[pointer] = NO_SLOT;
+            mPointers[slot] = NO_POINTER;
+        }
+    }
+
+    public boolean isFree(int slot) {
+        return mPointers[slot] == NO_POINTER;
+    }
+}
@@ -0,0 +1,68 @@
+package cache.wind.minimal.paint;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread,
+ * without locks: each side only ever writes its own index, and publishes it
+ * after the slot it covers.
+ */
+class SpscQueue<T> {
+    private final AtomicReferenceArray<T> mSlots;
+    private final int mMask;
+    // Index of the next element to take; only written by the consumer
+    private final AtomicLong mHead;
+    // Index of the next element to put; only written by the producer
+    private final AtomicLong mTail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mSlots = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+        mHead = new AtomicLong();
+        mTail = new AtomicLong();
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false, leaving the queue untouched, if it is full
+     */
+    public boolean offer(T element) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        mSlots.lazySet((int) tail & mMask, element);
+        // A full volatile store, not lazySet: a producer that then reads a
+        // volatile flag the consumer raises before checking for elements
+        // can't miss that check and leave the consumer asleep
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return the oldest element, or null if the queue is empty
+     */
+    public T poll() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return null;
+        }
+        int slot = (int) head & mMask;
+        T element = mSlots.get(slot);
+        mSlots.lazySet(slot, null);
+        mHead.lazySet(head + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+}
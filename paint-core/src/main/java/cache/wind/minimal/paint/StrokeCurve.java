@@ -0,0 +1,47 @@
+package cache.wind.minimal.paint;
+
+/**
+ * The curve a stroke is drawn along, through its sampled points. Each point
+ * after the first is the control point of a quad running from the middle of
+ * the previous pair of points to the middle of the next pair, and the curve
+ * ends with a line to the last point, which rounds off the corners of the
+ * sampled polyline. Live strokes, committed ones and headless renders all
+ * trace it from here, so they draw the same thing.
+ */
+class StrokeCurve {
+    /**
+     * Receives the curve; {@code android.graphics.Path} has these methods.
+     */
+    interface Sink {
+        void moveTo(float x, float y);
+
+        void quadTo(float cx, float cy, float x, float y);
+
+        void lineTo(float x, float y);
+    }
+
+    private StrokeCurve() {
+    }
+
+    /**
+     * Traces the curve through the x, y pairs of {@code points} from
+     * {@code start} to {@code end}.
+     */
+    public static void trace(float[] points, int start, int end, Sink sink) {
+        sink.moveTo(points[start], points[start + 1]);
+        for (int i = start + 2; i < end; i += 2) {
+            float lastX = points[i - 2];
+            float lastY = points[i - 1];
+            sink.quadTo(lastX, lastY, midpoint(lastX, points[i]), midpoint(lastY, points[i + 1]));
+        }
+        sink.lineTo(points[end - 2], points[end - 1]);
+    }
+
+    /**
+     * @return where the quad controlled by {@code last} ends along either
+     * axis, once the point after it is known to be at {@code next}
+     */
+    public static float midpoint(float last, float next) {
+        return (next + last) / 2;
+    }
+}
@@ -0,0 +1,125 @@
+package cache.wind.minimal.paint;
+
+import java.util.Arrays;
+
+/**
+ * Finds the visible strokes of a {@link StrokeLog} that a moving eraser
+ * touches, by their distance to the segments between their points.
+ * <p>
+ * Candidates come from a {@link StrokeIndex} kept in step with the log: new
+ * entries are picked up before each test, but dropping undone entries or
+ * clearing the log has to be reported with {@link #truncate(int)} and
+ * {@link #clear()}.
+ */
+class StrokeHitTester {
+    private final StrokeIndex mIndex;
+    private int[] mHits;
+    private int mHitCount;
+
+    StrokeHitTester(int width, int height) {
+        mIndex = new StrokeIndex(width, height);
+        mHits = new int[16];
+    }
+
+    public void truncate(int count) {
+        mIndex.truncate(count);
+    }
+
+    public void clear() {
+        mIndex.clear();
+    }
+
+    /**
+     * Finds the strokes within {@code radius} of the eraser moving from
+     * {@code ax, ay} to {@code bx, by}, counting each stroke's own width; read
+     * them with {@link #getHits()}.
+     *
+     * @return how many strokes were hit
+     */
+    public int hitTest(StrokeLog log, BrushTable brushes, float ax, float ay, float bx, float by,
+                       float radius) {
+        sync(log, brushes);
+        mHitCount = 0;
+        int candidates = mIndex.queryRect(Math.min(ax, bx) - radius, Math.min(ay, by) - radius,
+                Math.max(ax, bx) + radius, Math.max(ay, by) + radius, log.size());
+        float[] points = log.getPoints();
+        for (int c = 0; c < candidates; c++) {
+            int stroke = mIndex.getResult(c);
+            if (!log.isVisible(stroke)) {
+                continue;
+            }
+            float reach = radius + brushes.getWidth(log.getBrush(stroke)) / 2;
+            int start = log.getStart(stroke);
+            int end = log.getEnd(stroke);
+            boolean hit = StrokeSimplifier.segmentDistance(points[start], points[start + 1], ax, ay, bx, by) <= reach;
+            for (int i = start + 2; i < end && !hit; i += 2) {
+                hit = segmentsDistance(ax, ay, bx, by,
+                        points[i - 2], points[i - 1], points[i], points[i + 1]) <= reach;
+            }
+            if (hit) {
+                if (mHitCount == mHits.length) {
+                    mHits = Arrays.copyOf(mHits, mHitCount * 2);
+                }
+                mHits[mHitCount++] = stroke;
+            }
+        }
+        return mHitCount;
+    }
+
+    /**
+     * @return the strokes found by the last test, in drawing order; only valid
+     * until the next test
+     */
+    public int[] getHits() {
+        return mHits;
+    }
+
+    private void sync(StrokeLog log, BrushTable brushes) {
+        float[] points = log.getPoints();
+        for (int entry = mIndex.getStrokeCount(); entry < log.getStrokeCount(); entry++) {
+            if (log.isDeletion(entry)) {
+                mIndex.addEmpty();
+                continue;
+            }
+            int start = log.getStart(entry);
+            int end = log.getEnd(entry);
+            float left = points[start];
+            float top = points[start + 1];
+            float right = left;
+            float bottom = top;
+            for (int i = start + 2; i < end; i += 2) {
+                left = Math.min(left, points[i]);
+                right = Math.max(right, points[i]);
+                top = Math.min(top, points[i + 1]);
+                bottom = Math.max(bottom, points[i + 1]);
+            }
+            float halfWidth = brushes.getWidth(log.getBrush(entry)) / 2;
+            mIndex.add(left - halfWidth, top - halfWidth, right + halfWidth, bottom + halfWidth);
+        }
+    }
+
+    /**
+     * @return the shortest distance between segment a-b and segment c-d
+     */
+    static float segmentsDistance(float ax, float ay, float bx, float by,
+                                  float cx, float cy, float dx, float dy) {
+        // Crossing segments have c and d on either side of a-b, and the other way around
+        float abC = cross(bx - ax, by - ay, cx - ax, cy - ay);
+        float abD = cross(bx - ax, by - ay, dx - ax, dy - ay);
+        float cdA = cross(dx - cx, dy - cy, ax - cx, ay - cy);
+        float cdB = cross(dx - cx, dy - cy, bx - cx, by - cy);
+        if (((abC > 0 && abD < 0) || (abC < 0 && abD > 0))
+                && ((cdA > 0 && cdB < 0) || (cdA < 0 && cdB > 0))) {
+            return 0;
+        }
+        return Math.min(
+                Math.min(StrokeSimplifier.segmentDistance(ax, ay, cx, cy, dx, dy),
+                        StrokeSimplifier.segmentDistance(bx, by, cx, cy, dx, dy)),
+                Math.min(StrokeSimplifier.segmentDistance(cx, cy, ax, ay, bx, by),
+                        StrokeSimplifier.segmentDistance(dx, dy, ax, ay, bx, by)));
+    }
+
+    private static float cross(float x1, float y1, float x2, float y2) {
+        return x1 * y2 - y1 * x2;
+    }
+}
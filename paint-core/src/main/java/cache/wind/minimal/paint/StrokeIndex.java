@@ -0,0 +1,241 @@
+package cache.wind.minimal.paint;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the drawing that knows which strokes may touch each
+ * cell, from their bounds padded by how far their paint reaches.
+ * <p>
+ * Strokes are numbered like in their {@link StrokeLog} and must be added in
+ * that order, undone ones included; queries take the number of strokes that
+ * are currently drawn and ignore the others. Each cell lists its strokes in
+ * ascending order, so query results come out in drawing order.
+ */
+class StrokeIndex {
+    public static final int DEFAULT_CELL_SIZE = 256;
+
+    private final int mCellSize;
+    private final int mColumns;
+    private final int mRows;
+    private final int[][] mCells;
+    private final int[] mCellCounts;
+
+    // left, top, right, bottom of every stroke
+    private float[] mBounds;
+    private int mStrokeCount;
+
+    // Query results, and the query that last returned each stroke
+    private int[] mResults;
+    private int mResultCount;
+    private int[] mStamps;
+    private int mStamp;
+
+    StrokeIndex(int width, int height) {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    StrokeIndex(int width, int height, int cellSize) {
+        mCellSize = cellSize;
+        mColumns = Math.max(1, (width + cellSize - 1) / cellSize);
+        mRows = Math.max(1, (height + cellSize - 1) / cellSize);
+        mCells = new int[mColumns * mRows][];
+        mCellCounts = new int[mColumns * mRows];
+        mBounds = new float[256];
+        mResults = new int[64];
+        mStamps = new int[64];
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    /**
+     * Adds the next stroke, covering {@code left, top, right, bottom}.
+     */
+    public void add(float left, float top, float right, float bottom) {
+        int stroke = mStrokeCount;
+        if (stroke * 4 == mBounds.length) {
+            mBounds = Arrays.copyOf(mBounds, mBounds.length * 2);
+            mStamps = Arrays.copyOf(mStamps, mBounds.length / 4);
+        }
+        mBounds[stroke * 4] = left;
+        mBounds[stroke * 4 + 1] = top;
+        mBounds[stroke * 4 + 2] = right;
+        mBounds[stroke * 4 + 3] = bottom;
+        mStrokeCount++;
+
+        int firstColumn = column(left);
+        int lastColumn = column(right);
+        int lastRow = row(bottom);
+        for (int row = row(top); row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                int[] strokes = mCells[cell];
+                int count = mCellCounts[cell];
+                if (strokes == null) {
+                    strokes = mCells[cell] = new int[8];
+                } else if (count == strokes.length) {
+                    strokes = mCells[cell] = Arrays.copyOf(strokes, count * 2);
+                }
+                strokes[count] = stroke;
+                mCellCounts[cell] = count + 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the next entry of the log as one that no query finds, for entries
+     * that aren't strokes.
+     */
+    public void addEmpty() {
+        // Inverted bounds intersect nothing and span no cells
+        add(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Drops every stroke from the {@code count}th on; to be called when the
+     * strokes that could have been redone are thrown away.
+     */
+    public void truncate(int count) {
+        for (int stroke = mStrokeCount - 1; stroke >= count; stroke--) {
+            int firstColumn = column(getLeft(stroke));
+            int lastColumn = column(getRight(stroke));
+            int lastRow = row(getBottom(stroke));
+            for (int row = row(getTop(stroke)); row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int cell = row * mColumns + column;
+                    // Later strokes are already gone, so this one is last
+                    mCellCounts[cell]--;
+                }
+            }
+        }
+        mStrokeCount = Math.min(mStrokeCount, count);
+    }
+
+    public void clear() {
+        Arrays.fill(mCellCounts, 0);
+        mStrokeCount = 0;
+    }
+
+    public float getLeft(int stroke) {
+        return mBounds[stroke * 4];
+    }
+
+    public float getTop(int stroke) {
+        return mBounds[stroke * 4 + 1];
+    }
+
+    public float getRight(int stroke) {
+        return mBounds[stroke * 4 + 2];
+    }
+
+    public float getBottom(int stroke) {
+        return mBounds[stroke * 4 + 3];
+    }
+
+    /**
+     * Finds the strokes below {@code limit} whose bounds intersect the given
+     * rectangle; read them with {@link #getResult(int)}.
+     *
+     * @return how many strokes were found
+     */
+    public int queryRect(float left, float top, float right, float bottom, int limit) {
+        mResultCount = 0;
+        if (++mStamp == 0) {
+            Arrays.fill(mStamps, 0);
+            mStamp = 1;
+        }
+        int firstColumn = column(left);
+        int lastColumn = column(right);
+        int lastRow = row(bottom);
+        boolean sorted = firstColumn == lastColumn && row(top) == lastRow;
+        for (int row = row(top); row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                int[] strokes = mCells[cell];
+                int count = mCellCounts[cell];
+                for (int i = 0; i < count; i++) {
+                    int stroke = strokes[i];
+                    if (stroke >= limit) {
+                        break;
+                    }
+                    if (mStamps[stroke] != mStamp && intersects(stroke, left, top, right, bottom)) {
+                        mStamps[stroke] = mStamp;
+                        addResult(stroke);
+                    }
+                }
+            }
+        }
+        // Results from a single cell are already in order
+        if (!sorted) {
+            Arrays.sort(mResults, 0, mResultCount);
+        }
+        return mResultCount;
+    }
+
+    /**
+     * Finds the strokes below {@code limit} whose bounds contain the point;
+     * read them with {@link #getResult(int)}.
+     *
+     * @return how many strokes were found
+     */
+    public int queryPoint(float x, float y, int limit) {
+        mResultCount = 0;
+        int cell = row(y) * mColumns + column(x);
+        int[] strokes = mCells[cell];
+        int count = mCellCounts[cell];
+        for (int i = 0; i < count; i++) {
+            int stroke = strokes[i];
+            if (stroke >= limit) {
+                break;
+            }
+            if (intersects(stroke, x, y, x, y)) {
+                addResult(stroke);
+            }
+        }
+        return mResultCount;
+    }
+
+    /**
+     * @return the {@code i}th stroke found by the last query, in drawing order
+     */
+    public int getResult(int i) {
+        return mResults[i];
+    }
+
+    /**
+     * @return the bytes held by the index's arrays, including spare capacity
+     */
+    public long getMemoryUsage() {
+        long ints = mCellCounts.length + mBounds.length + mResults.length + mStamps.length;
+        for (int[] cell : mCells) {
+            if (cell != null) {
+                ints += cell.length;
+            }
+        }
+        return 4 * ints;
+    }
+
+    private boolean intersects(int stroke, float left, float top, float right, float bottom) {
+        int i = stroke * 4;
+        return mBounds[i] <= right && mBounds[i + 1] <= bottom
+                && mBounds[i + 2] >= left && mBounds[i + 3] >= top;
+    }
+
+    private void addResult(int stroke) {
+        if (mResultCount == mResults.length) {
+            mResults = Arrays.copyOf(mResults, mResultCount * 2);
+        }
+        mResults[mResultCount++] = stroke;
+    }
+
+    // Anything outside the drawing falls in the cells along its edges
+    private int column(float x) {
+        return Math.max(0, Math.min(mColumns - 1, (int) Math.floor(x / mCellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(mRows - 1, (int) Math.floor(y / mCellSize)));
+    }
+}
@@ -0,0 +1,287 @@
+package cache.wind.minimal.paint;
+
+/**
+ * The committed strokes of a drawing, kept in flat primitive arrays: the
+ * sampled points of every stroke one after the other as x, y pairs, plus the
+ * offset of each stroke's first point and the index of its brush in a
+ * {@link BrushTable}.
+ * <p>
+ * Points are the touch samples that passed the touch tolerance; the smoothed
+ * curve is rebuilt from them by drawing a quad from each point to the middle
+ * of the next segment, exactly like the live stroke was drawn. Strokes may have
+ * been simplified before being added; the log remembers how many points they
+ * had before that.
+ * <p>
+ * Undone strokes stay in the log after {@link #size()} until they are redone
+ * or a new stroke replaces them.
+ * <p>
+ * Besides strokes, the log holds deletions, which remove earlier strokes from
+ * the drawing and are undone and redone like strokes are. A deletion has
+ * {@link #DELETION} as its brush and the indices of the strokes it removes as
+ * its points, one per float, which is exact for the first 2^24 strokes.
+ */
+class StrokeLog {
+    public static final int DELETION = -1;
+
+    private float[] mPoints;
+    private int[] mStarts;
+    private int[] mBrushes;
+    private int[] mSampledCounts;
+    // One more than the index of the deletion that removed each stroke, or 0
+    private int[] mDeletedBy;
+    private int mStrokeCount;
+    private int mSize;
+
+    StrokeLog() {
+        mPoints = new float[1024];
+        mStarts = new int[64];
+        mBrushes = new int[64];
+        mSampledCounts = new int[64];
+        mDeletedBy = new int[64];
+    }
+
+    /**
+     * Copies {@code other}, undone strokes included, without its spare
+     * capacity; the copy can be read on another thread.
+     */
+    StrokeLog(StrokeLog other) {
+        int strokes = other.mStrokeCount;
+        int length = strokes == 0 ? 0 : other.getEnd(strokes - 1);
+        mPoints = new float[Math.max(2, length)];
+        System.arraycopy(other.mPoints, 0, mPoints, 0, length);
+        mStarts = new int[strokes + 2];
+        System.arraycopy(other.mStarts, 0, mStarts, 0, strokes + 1);
+        mBrushes = new int[strokes + 1];
+        System.arraycopy(other.mBrushes, 0, mBrushes, 0, strokes);
+        mSampledCounts = new int[strokes + 1];
+        System.arraycopy(other.mSampledCounts, 0, mSampledCounts, 0, strokes);
+        mDeletedBy = new int[strokes + 1];
+        System.arraycopy(other.mDeletedBy, 0, mDeletedBy, 0, strokes);
+        mStrokeCount = strokes;
+        mSize = other.mSize;
+    }
+
+    public void add(int brush, float[] points, int count) {
+        add(brush, points, count, count / 2);
+    }
+
+    /**
+     * Appends a stroke after the current ones, dropping any undone strokes.
+     *
+     * @param points x, y pairs
+     * @param count        number of floats to read from {@code points}
+     * @param sampledCount number of points the stroke had before it was
+     *                     simplified
+     */
+    public void add(int brush, float[] points, int count, int sampledCount) {
+        discardRedo();
+
+        int start = mStrokeCount == 0 ? 0 : getEnd(mStrokeCount - 1);
+        if (start + count > mPoints.length) {
+            float[] grown = new float[Math.max(start + count, mPoints.length * 2)];
+            System.arraycopy(mPoints, 0, grown, 0, start);
+            mPoints = grown;
+        }
+        if (mStrokeCount + 1 >= mStarts.length) {
+            int capacity = mStarts.length * 2;
+            int[] starts = new int[capacity];
+            System.arraycopy(mStarts, 0, starts, 0, mStrokeCount + 1);
+            mStarts = starts;
+            int[] brushes = new int[capacity];
+            System.arraycopy(mBrushes, 0, brushes, 0, mStrokeCount);
+            mBrushes = brushes;
+            int[] sampledCounts = new int[capacity];
+            System.arraycopy(mSampledCounts, 0, sampledCounts, 0, mStrokeCount);
+            mSampledCounts = sampledCounts;
+            int[] deletedBy = new int[capacity];
+            System.arraycopy(mDeletedBy, 0, deletedBy, 0, mStrokeCount);
+            mDeletedBy = deletedBy;
+        }
+
+        System.arraycopy(points, 0, mPoints, start, count);
+        mStarts[mStrokeCount] = start;
+        mStarts[mStrokeCount + 1] = start + count;
+        mBrushes[mStrokeCount] = brush;
+        mSampledCounts[mStrokeCount] = sampledCount;
+        mDeletedBy[mStrokeCount] = 0;
+        mStrokeCount++;
+        mSize = mStrokeCount;
+    }
+
+    /**
+     * Appends a deletion of the given strokes after the current entries,
+     * dropping any undone ones.
+     *
+     * @param strokes indices of visible strokes
+     */
+    public void addDeletion(int[] strokes, int count) {
+        add(DELETION, toPoints(strokes, count), count, 0);
+        markDeleted(mStrokeCount - 1, true);
+    }
+
+    /**
+     * Adds strokes to the deletion that is the last entry of the log, and
+     * not undone, as if they had been part of it from the start.
+     */
+    public void extendDeletion(int[] strokes, int count) {
+        int entry = mStrokeCount - 1;
+        int start = getStart(entry);
+        int length = getEnd(entry) - start;
+        float[] points = new float[length + count];
+        System.arraycopy(mPoints, start, points, 0, length);
+        System.arraycopy(toPoints(strokes, count), 0, points, length, count);
+        // Rewritten in place, since nothing follows it
+        mStrokeCount--;
+        mSize--;
+        add(DELETION, points, points.length, 0);
+        markDeleted(entry, true);
+    }
+
+    private static float[] toPoints(int[] strokes, int count) {
+        float[] points = new float[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = strokes[i];
+        }
+        return points;
+    }
+
+    private void markDeleted(int entry, boolean deleted) {
+        for (int i = getStart(entry); i < getEnd(entry); i++) {
+            mDeletedBy[(int) mPoints[i]] = deleted ? entry + 1 : 0;
+        }
+    }
+
+    /**
+     * @return the number of strokes in the drawing, not counting undone ones
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the number of strokes in the log, undone ones included
+     */
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    public boolean canUndo() {
+        return mSize > 0;
+    }
+
+    public boolean canRedo() {
+        return mSize < mStrokeCount;
+    }
+
+    public void undo() {
+        mSize--;
+        if (isDeletion(mSize)) {
+            markDeleted(mSize, false);
+        }
+    }
+
+    public void redo() {
+        if (isDeletion(mSize)) {
+            markDeleted(mSize, true);
+        }
+        mSize++;
+    }
+
+    public void discardRedo() {
+        mStrokeCount = mSize;
+    }
+
+    public void clear() {
+        mStrokeCount = 0;
+        mSize = 0;
+    }
+
+    public int getBrush(int stroke) {
+        return mBrushes[stroke];
+    }
+
+    public boolean isDeletion(int entry) {
+        return mBrushes[entry] == DELETION;
+    }
+
+    /**
+     * @return the number of strokes the deletion at {@code entry} removes
+     */
+    public int getDeletedCount(int entry) {
+        return getEnd(entry) - getStart(entry);
+    }
+
+    /**
+     * @return the {@code i}th stroke the deletion at {@code entry} removes
+     */
+    public int getDeletedStroke(int entry, int i) {
+        return (int) mPoints[getStart(entry) + i];
+    }
+
+    /**
+     * @return the index of the deletion that removed {@code stroke} from the
+     * drawing, or -1 if the stroke is still there or was undone
+     */
+    public int getDeletedBy(int stroke) {
+        return mDeletedBy[stroke] - 1;
+    }
+
+    /**
+     * @return true if {@code stroke} is a stroke, not undone or deleted
+     */
+    public boolean isVisible(int stroke) {
+        return stroke < mSize && mBrushes[stroke] != DELETION && mDeletedBy[stroke] == 0;
+    }
+
+    /**
+     * @return the array holding the points of every stroke; only valid until
+     * the next stroke is added
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * @return the offset in {@link #getPoints()} of the stroke's first x
+     */
+    public int getStart(int stroke) {
+        return mStarts[stroke];
+    }
+
+    /**
+     * @return the offset in {@link #getPoints()} just past the stroke's last y
+     */
+    public int getEnd(int stroke) {
+        return mStarts[stroke + 1];
+    }
+
+    public int getPointCount(int stroke) {
+        return (getEnd(stroke) - getStart(stroke)) / 2;
+    }
+
+    /**
+     * @return the number of points the stroke had before it was simplified
+     */
+    public int getSampledPointCount(int stroke) {
+        return mSampledCounts[stroke];
+    }
+
+    /**
+     * @return the bytes held by the log's arrays, including spare capacity
+     */
+    public long getMemoryUsage() {
+        return 4L * (mPoints.length + mStarts.length + mBrushes.length + mSampledCounts.length
+                + mDeletedBy.length);
+    }
+
+    /**
+     * @return the part of {@link #getMemoryUsage()} taken by undone entries,
+     * which {@link #discardRedo()} would let be reused
+     */
+    public long getRedoMemoryUsage() {
+        if (mSize == mStrokeCount) {
+            return 0;
+        }
+        return 4L * (getEnd(mStrokeCount - 1) - getStart(mSize) + 4 * (mStrokeCount - mSize));
+    }
+}
@@ -0,0 +1,309 @@
+package cache.wind.minimal.paint;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders the visible strokes of a {@link StrokeLog} into ARGB pixels without
+ * Android, for thumbnails and prints made off the device.
+ * <p>
+ * Strokes are rebuilt like the view draws them, a quad from each point to the
+ * middle of the next segment, and stroked with round caps and joins. The
+ * curves are flattened, and each pixel is covered by how far its center lies
+ * inside the nearest segment, which anti-aliases the edges over about a
+ * pixel. A stroke covers each pixel once however often it crosses itself,
+ * like a stroked path does. Brushes with {@link BrushTable#BLEND_CLEAR} erase;
+ * mask filters are not applied and stamped tips are stroked like paths.
+ * <p>
+ * Rows are split into bands rendered in parallel on a {@link ForkJoinPool};
+ * each band draws every stroke in order, so the result does not depend on
+ * how many threads there are.
+ */
+class StrokeRasterizer {
+    // Rows below which a band is not split further
+    private static final int BAND_ROWS = 16;
+    // How far flattened curves may stray from the true ones, in pixels
+    private static final float FLATNESS = 0.1f;
+
+    private final ForkJoinPool mPool;
+
+    /**
+     * Renders on a pool of its own, with a thread per core.
+     */
+    StrokeRasterizer() {
+        this(new ForkJoinPool());
+    }
+
+    /**
+     * @param pool the pool to render on; shutting it down is up to the caller
+     */
+    StrokeRasterizer(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Draws the visible strokes of {@code log} over {@code pixels}.
+     *
+     * @param scale  how many pixels a unit of the drawing maps to
+     * @param pixels non-premultiplied ARGB colors, row after row, as
+     *               {@code Bitmap.getPixels()} returns them; filled with the
+     *               background by the caller
+     */
+    public void render(StrokeLog log, BrushTable brushes, float scale, int[] pixels, int width,
+                       int height) {
+        Stroke[] strokes = flatten(log, brushes, scale);
+        mPool.invoke(new Band(strokes, pixels, width, 0, height));
+    }
+
+    private static class Stroke {
+        // The flattened curve in pixels, as x, y pairs
+        final float[] points;
+        final int pointCount;
+        final float radius;
+        final int color;
+        final boolean clear;
+        // Pixels the stroke may cover, right and bottom excluded
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        Stroke(float[] points, int pointCount, float radius, int color, boolean clear) {
+            this.points = points;
+            this.pointCount = pointCount;
+            this.radius = radius;
+            this.color = color;
+            this.clear = clear;
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (int i = 0; i < pointCount * 2; i += 2) {
+                minX = Math.min(minX, points[i]);
+                minY = Math.min(minY, points[i + 1]);
+                maxX = Math.max(maxX, points[i]);
+                maxY = Math.max(maxY, points[i + 1]);
+            }
+            // Coverage reaches half a pixel past the edge
+            float reach = radius + 0.5f;
+            left = (int) Math.floor(minX - reach);
+            top = (int) Math.floor(minY - reach);
+            right = (int) Math.ceil(maxX + reach);
+            bottom = (int) Math.ceil(maxY + reach);
+        }
+    }
+
+    private static Stroke[] flatten(StrokeLog log, BrushTable brushes, float scale) {
+        int count = 0;
+        Stroke[] strokes = new Stroke[log.size()];
+        float[] points = log.getPoints();
+        for (int stroke = 0; stroke < log.size(); stroke++) {
+            if (!log.isVisible(stroke)) {
+                continue;
+            }
+            int start = log.getStart(stroke);
+            int end = log.getEnd(stroke);
+            Flattener curve = new Flattener(scale, end - start);
+            StrokeCurve.trace(points, start, end, curve);
+
+            int brush = log.getBrush(stroke);
+            strokes[count++] = new Stroke(curve.points, curve.count,
+                    brushes.getWidth(brush) * scale / 2, brushes.getColor(brush),
+                    brushes.getBlendMode(brush) == BrushTable.BLEND_CLEAR);
+        }
+        Stroke[] shrunk = new Stroke[count];
+        System.arraycopy(strokes, 0, shrunk, 0, count);
+        return shrunk;
+    }
+
+    /**
+     * Turns a path into a polyline in pixels.
+     */
+    private static class Flattener implements StrokeCurve.Sink {
+        final float scale;
+        float[] points;
+        int count;
+
+        Flattener(float scale, int capacity) {
+            this.scale = scale;
+            points = new float[Math.max(4, capacity * 2)];
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            add(x * scale, y * scale);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            add(x * scale, y * scale);
+        }
+
+        @Override
+        public void quadTo(float cx, float cy, float x, float y) {
+            float x0 = points[count * 2 - 2];
+            float y0 = points[count * 2 - 1];
+            cx *= scale;
+            cy *= scale;
+            x *= scale;
+            y *= scale;
+            // A quad strays from its chord by at most a quarter of this
+            float dx = x0 - 2 * cx + x;
+            float dy = y0 - 2 * cy + y;
+            float deviation = (float) Math.sqrt(dx * dx + dy * dy) / 4;
+            int segments = Math.max(1, (int) Math.ceil(Math.sqrt(deviation / FLATNESS)));
+            for (int i = 1; i <= segments; i++) {
+                float t = (float) i / segments;
+                float u = 1 - t;
+                add(u * u * x0 + 2 * u * t * cx + t * t * x, u * u * y0 + 2 * u * t * cy + t * t * y);
+            }
+        }
+
+        private void add(float x, float y) {
+            if (count * 2 == points.length) {
+                float[] grown = new float[points.length * 2];
+                System.arraycopy(points, 0, grown, 0, points.length);
+                points = grown;
+            }
+            points[count * 2] = x;
+            points[count * 2 + 1] = y;
+            count++;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Band extends RecursiveAction {
+        private final Stroke[] mStrokes;
+        private final int[] mPixels;
+        private final int mWidth;
+        private final int mTop;
+        private final int mBottom;
+
+        Band(Stroke[] strokes, int[] pixels, int width, int top, int bottom) {
+            mStrokes = strokes;
+            mPixels = pixels;
+            mWidth = width;
+            mTop = top;
+            mBottom = bottom;
+        }
+
+        @Override
+        protected void compute() {
+            if (mBottom - mTop > BAND_ROWS) {
+                int middle = (mTop + mBottom) >>> 1;
+                invokeAll(new Band(mStrokes, mPixels, mWidth, mTop, middle),
+                        new Band(mStrokes, mPixels, mWidth, middle, mBottom));
+                return;
+            }
+            // The coverage of the current stroke over the band, cleared as it is drawn
+            float[] coverage = new float[mWidth * (mBottom - mTop)];
+            for (Stroke stroke : mStrokes) {
+                int left = Math.max(0, stroke.left);
+                int right = Math.min(mWidth, stroke.right);
+                int top = Math.max(mTop, stroke.top);
+                int bottom = Math.min(mBottom, stroke.bottom);
+                if (left < right && top < bottom) {
+                    cover(stroke, coverage, left, right);
+                    composite(stroke, coverage, left, top, right, bottom);
+                }
+            }
+        }
+
+        private void cover(Stroke stroke, float[] coverage, int clipLeft, int clipRight) {
+            float[] points = stroke.points;
+            float reach = stroke.radius + 0.5f;
+            float reachSquared = reach * reach;
+            // Pixels this close to the segment are fully covered
+            float solidSquared = reach > 1 ? (reach - 1) * (reach - 1) : -1;
+            // A single point is a segment of no length, stroked as a dot
+            int last = Math.max(2, stroke.pointCount * 2 - 2);
+            for (int i = 0; i < last; i += 2) {
+                float ax = points[i];
+                float ay = points[i + 1];
+                float bx = stroke.pointCount > 1 ? points[i + 2] : ax;
+                float by = stroke.pointCount > 1 ? points[i + 3] : ay;
+                int top = Math.max(mTop, (int) Math.floor(Math.min(ay, by) - reach));
+                int bottom = Math.min(mBottom, (int) Math.ceil(Math.max(ay, by) + reach));
+                float minX = Math.min(ax, bx) - reach;
+                float maxX = Math.max(ax, bx) + reach;
+                float dx = bx - ax;
+                float dy = by - ay;
+                float lengthSquared = dx * dx + dy * dy;
+                float inverseLength = lengthSquared == 0 ? 0 : 1 / lengthSquared;
+                // Half the width, along a row, of the band around the segment's line
+                float slab = dy != 0 ? reach * (float) Math.sqrt(lengthSquared) / Math.abs(dy)
+                        : Float.MAX_VALUE;
+                boolean slanted = slab < maxX - minX;
+                for (int y = top; y < bottom; y++) {
+                    float py = y + 0.5f - ay;
+                    float from = minX;
+                    float to = maxX;
+                    if (slanted) {
+                        // Where the row crosses the segment's line
+                        float cross = ax + py * dx / dy;
+                        from = Math.max(from, cross - slab);
+                        to = Math.min(to, cross + slab);
+                    }
+                    int left = Math.max(clipLeft, (int) Math.floor(from - 0.5f));
+                    int right = Math.min(clipRight, (int) Math.ceil(to - 0.5f) + 1);
+                    int row = (y - mTop) * mWidth;
+                    for (int x = left; x < right; x++) {
+                        if (coverage[row + x] >= 1) {
+                            continue;
+                        }
+                        float px = x + 0.5f - ax;
+                        float t = Math.max(0, Math.min(1, (px * dx + py * dy) * inverseLength));
+                        float ox = px - t * dx;
+                        float oy = py - t * dy;
+                        float distanceSquared = ox * ox + oy * oy;
+                        if (distanceSquared >= reachSquared) {
+                            continue;
+                        }
+                        float c = distanceSquared <= solidSquared ? 1
+                                : Math.min(1, reach - (float) Math.sqrt(distanceSquared));
+                        if (c > coverage[row + x]) {
+                            coverage[row + x] = c;
+                        }
+                    }
+                }
+            }
+        }
+
+        private void composite(Stroke stroke, float[] coverage, int left, int top, int right,
+                               int bottom) {
+            int color = stroke.color;
+            float alpha = (color >>> 24) / 255f;
+            int red = (color >> 16) & 0xFF;
+            int green = (color >> 8) & 0xFF;
+            int blue = color & 0xFF;
+            for (int y = top; y < bottom; y++) {
+                int row = (y - mTop) * mWidth;
+                int offset = y * mWidth;
+                for (int x = left; x < right; x++) {
+                    float c = coverage[row + x];
+                    if (c <= 0) {
+                        continue;
+                    }
+                    coverage[row + x] = 0;
+                    int dst = mPixels[offset + x];
+                    float dstAlpha = (dst >>> 24) / 255f;
+                    if (stroke.clear) {
+                        int a = Math.round(dstAlpha * (1 - c) * 255);
+                        mPixels[offset + x] = a == 0 ? 0 : (a << 24) | (dst & 0xFFFFFF);
+                        continue;
+                    }
+                    float src = alpha * c;
+                    float kept = dstAlpha * (1 - src);
+                    float out = src + kept;
+                    if (out <= 0) {
+                        continue;
+                    }
+                    int r = Math.round((red * src + ((dst >> 16) & 0xFF) * kept) / out);
+                    int g = Math.round((green * src + ((dst >> 8) & 0xFF) * kept) / out);
+                    int b = Math.round((blue * src + (dst & 0xFF) * kept) / out);
+                    mPixels[offset + x] = (Math.round(out * 255) << 24) | (r << 16) | (g << 8) | b;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package cache.wind.minimal.paint;
+
+/**
+ * Drops the points of a stroke that lie close to the line through their
+ * neighbours, using the Ramer-Douglas-Peucker algorithm: every dropped point
+ * stays within the tolerance of the segment joining the kept points around it.
+ * <p>
+ * The working arrays are kept between calls, so simplifying strokes no longer
+ * than the longest one so far allocates nothing.
+ */
+class StrokeSimplifier {
+    private boolean[] mKeep;
+    // Pairs of point indices still to split
+    private int[] mStack;
+
+    StrokeSimplifier() {
+        mKeep = new boolean[128];
+        mStack = new int[64];
+    }
+
+    /**
+     * Simplifies the stroke in place; its first and last points are always kept.
+     *
+     * @param points    x, y pairs
+     * @param count     number of floats used in {@code points}
+     * @param tolerance how far a dropped point may be from the simplified
+     *                  stroke; 0 only drops points lying exactly on it
+     * @return the number of floats used in {@code points} afterwards
+     */
+    public int simplify(float[] points, int count, float tolerance) {
+        int pointCount = count / 2;
+        if (pointCount < 3) {
+            return count;
+        }
+        if (mKeep.length < pointCount) {
+            mKeep = new boolean[Math.max(pointCount, mKeep.length * 2)];
+        }
+        for (int i = 0; i < pointCount; i++) {
+            mKeep[i] = false;
+        }
+        mKeep[0] = true;
+        mKeep[pointCount - 1] = true;
+
+        int top = push(0, 0, pointCount - 1);
+        while (top > 0) {
+            int last = mStack[--top];
+            int first = mStack[--top];
+            float ax = points[2 * first];
+            float ay = points[2 * first + 1];
+            float bx = points[2 * last];
+            float by = points[2 * last + 1];
+
+            int farthest = -1;
+            float farthestDistance = tolerance;
+            for (int i = first + 1; i < last; i++) {
+                float distance = segmentDistance(points[2 * i], points[2 * i + 1], ax, ay, bx, by);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest >= 0) {
+                mKeep[farthest] = true;
+                if (farthest - first > 1) {
+                    top = push(top, first, farthest);
+                }
+                if (last - farthest > 1) {
+                    top = push(top, farthest, last);
+                }
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (mKeep[i]) {
+                points[kept++] = points[2 * i];
+                points[kept++] = points[2 * i + 1];
+            }
+        }
+        return kept;
+    }
+
+    private int push(int top, int first, int last) {
+        if (top + 2 > mStack.length) {
+            int[] grown = new int[mStack.length * 2];
+            System.arraycopy(mStack, 0, grown, 0, top);
+            mStack = grown;
+        }
+        mStack[top] = first;
+        mStack[top + 1] = last;
+        return top + 2;
+    }
+
+    /**
+     * @return the distance from point p to the segment from a to b
+     */
+    static float segmentDistance(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        }
+        float x = ax + t * dx - px;
+        float y = ay + t * dy - py;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+}
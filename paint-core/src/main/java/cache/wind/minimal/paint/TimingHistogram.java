@@ -0,0 +1,124 @@
+package cache.wind.minimal.paint;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts durations in fixed buckets, so recording one never allocates and
+ * percentiles can be read at any time.
+ * <p>
+ * Durations are kept in microseconds: exactly below 32, and above that in
+ * sixteen buckets per power of two, so a percentile is never more than about
+ * 6% above the true value. Durations past two minutes all land in the
+ * last bucket. Every histogram has the same buckets, so dumps of different
+ * builds can be compared line by line.
+ * <p>
+ * A histogram is written by one thread; another may read it, at the cost of
+ * seeing a recording half done.
+ */
+class TimingHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // The highest bit of the longest duration told apart, about two minutes
+    private static final int MAX_MAGNITUDE = 26;
+    static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] mCounts;
+    private long mCount;
+    private long mTotalMicros;
+    private long mMaxMicros;
+
+    TimingHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts[getBucket(micros)]++;
+        mCount++;
+        mTotalMicros += micros;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+    }
+
+    public void clear() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mTotalMicros = 0;
+        mMaxMicros = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalMicros * 1000 / mCount;
+    }
+
+    public long getMaxNanos() {
+        return mMaxMicros * 1000;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the upper end of the bucket holding the given percentile of the
+     * recorded durations, or 0 if there are none
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(getUpperMicros(i), mMaxMicros) * 1000;
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Writes a summary line followed by the upper end in microseconds and the
+     * count of every bucket that has any.
+     */
+    public void write(PrintWriter writer, String name) {
+        writer.println("# " + name + " count=" + mCount
+                + " mean_us=" + getMeanNanos() / 1000
+                + " p50_us=" + getPercentileNanos(50) / 1000
+                + " p95_us=" + getPercentileNanos(95) / 1000
+                + " p99_us=" + getPercentileNanos(99) / 1000
+                + " max_us=" + mMaxMicros);
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] != 0) {
+                writer.println(getUpperMicros(i) + "\t" + mCounts[i]);
+            }
+        }
+    }
+
+    static int getBucket(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (shift > MAX_MAGNITUDE - SUB_BUCKET_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        return shift * SUB_BUCKETS + (int) (micros >> shift);
+    }
+
+    /**
+     * @return the largest duration, in microseconds, that falls in
+     * {@code bucket}
+     */
+    static long getUpperMicros(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
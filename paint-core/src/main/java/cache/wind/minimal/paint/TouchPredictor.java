@@ -0,0 +1,119 @@
+package cache.wind.minimal.paint;
+
+/**
+ * Guesses where a pointer will be a little after its latest sample, from the
+ * velocity and acceleration of its recent samples, so the ink can be drawn up
+ * to where the finger is rather than where it was.
+ * <p>
+ * The position of the last few samples over time is fitted with a parabola
+ * by least squares, which evens out the jitter of single samples, and the
+ * fit is extrapolated from the latest sample. The acceleration term never
+ * moves the prediction further than the velocity term does, so a finger
+ * stopping or turning sharply is overshot by little. Nothing is allocated.
+ */
+class TouchPredictor {
+    public static final float DEFAULT_HORIZON_MILLIS = 16;
+    // Samples older than this say little about where the finger goes next
+    private static final long WINDOW_MILLIS = 40;
+    private static final int MAX_SAMPLES = 8;
+
+    private float mHorizon;
+
+    TouchPredictor() {
+        mHorizon = DEFAULT_HORIZON_MILLIS;
+    }
+
+    /**
+     * @param millis how far past the latest sample to predict
+     */
+    public void setHorizon(float millis) {
+        mHorizon = millis;
+    }
+
+    public float getHorizon() {
+        return mHorizon;
+    }
+
+    /**
+     * Predicts where the pointer of {@code samples} is {@link #getHorizon()}
+     * after its latest raw sample.
+     *
+     * @param predicted gets the x and y of the prediction
+     * @return false if the samples are too few or too close in time to tell
+     */
+    public boolean predict(TouchSampleBuffer samples, float[] predicted) {
+        int count = Math.min(samples.size(), MAX_SAMPLES);
+        if (count < 2) {
+            return false;
+        }
+        long latest = samples.getTime(0);
+        // Sums of the powers of time, and of x and y times powers of time
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        double sx = 0, stx = 0, sttx = 0;
+        double sy = 0, sty = 0, stty = 0;
+        for (int age = 0; age < count; age++) {
+            long time = samples.getTime(age);
+            if (latest - time > WINDOW_MILLIS) {
+                break;
+            }
+            double t = time - latest;
+            double tt = t * t;
+            double x = samples.getX(age);
+            double y = samples.getY(age);
+            s0++;
+            s1 += t;
+            s2 += tt;
+            s3 += tt * t;
+            s4 += tt * tt;
+            sx += x;
+            stx += t * x;
+            sttx += tt * x;
+            sy += y;
+            sty += t * y;
+            stty += tt * y;
+        }
+
+        double velocityX;
+        double velocityY;
+        // Half the acceleration, the c of the fit
+        double bendX = 0;
+        double bendY = 0;
+        // Normal equations of the parabola a + b t + c t^2, solved by Cramer's rule
+        double determinant = s0 * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s2 * s3)
+                + s2 * (s1 * s3 - s2 * s2);
+        if (s0 >= 3 && determinant > 1e-9 * s0 * s2 * s4) {
+            velocityX = (s0 * (stx * s4 - sttx * s3) - sx * (s1 * s4 - s2 * s3)
+                    + s2 * (s1 * sttx - s2 * stx)) / determinant;
+            velocityY = (s0 * (sty * s4 - stty * s3) - sy * (s1 * s4 - s2 * s3)
+                    + s2 * (s1 * stty - s2 * sty)) / determinant;
+            bendX = (s0 * (s2 * sttx - s3 * stx) - s1 * (s1 * sttx - s2 * stx)
+                    + sx * (s1 * s3 - s2 * s2)) / determinant;
+            bendY = (s0 * (s2 * stty - s3 * sty) - s1 * (s1 * stty - s2 * sty)
+                    + sy * (s1 * s3 - s2 * s2)) / determinant;
+        } else {
+            // A line is all that the samples can tell
+            double linear = s0 * s2 - s1 * s1;
+            if (s0 < 2 || linear <= 1e-9 * s0 * s2) {
+                return false;
+            }
+            velocityX = (s0 * stx - s1 * sx) / linear;
+            velocityY = (s0 * sty - s1 * sy) / linear;
+        }
+
+        double h = mHorizon;
+        double moveX = velocityX * h;
+        double moveY = velocityY * h;
+        double turnX = bendX * h * h;
+        double turnY = bendY * h * h;
+        double move = moveX * moveX + moveY * moveY;
+        double turn = turnX * turnX + turnY * turnY;
+        if (turn > move) {
+            double scale = Math.sqrt(move / turn);
+            turnX *= scale;
+            turnY *= scale;
+        }
+        predicted[0] = (float) (samples.getX(0) + moveX + turnX);
+        predicted[1] = (float) (samples.getY(0) + moveY + turnY);
+        return true;
+    }
+}
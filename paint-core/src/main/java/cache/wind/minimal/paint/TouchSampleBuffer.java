@@ -0,0 +1,136 @@
+package cache.wind.minimal.paint;
+
+/**
+ * The recent touch samples of one pointer, in a fixed-size ring. Samples are
+ * pushed as they come out of a MotionEvent, historical ones included, and then
+ * processed as a batch: each one is smoothed with an exponential moving
+ * average and kept only if it moved far enough from the last kept sample.
+ * <p>
+ * Nothing is allocated after construction.
+ */
+class TouchSampleBuffer {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int mMask;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mTime;
+    private final float[] mAcceptedX;
+    private final float[] mAcceptedY;
+
+    // Samples are numbered since the last reset; index & mMask is their slot
+    private int mHead;
+    private int mProcessed;
+    private int mAcceptedCount;
+
+    private float mSmoothX;
+    private float mSmoothY;
+    private float mLastX;
+    private float mLastY;
+
+    TouchSampleBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    TouchSampleBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mMask = size - 1;
+        mX = new float[size];
+        mY = new float[size];
+        mTime = new long[size];
+        mAcceptedX = new float[size];
+        mAcceptedY = new float[size];
+    }
+
+    /**
+     * Starts a new stroke at the given sample, which counts as kept.
+     */
+    public void reset(float x, float y, long time) {
+        mHead = 0;
+        mProcessed = 0;
+        mAcceptedCount = 0;
+        mSmoothX = x;
+        mSmoothY = y;
+        mLastX = x;
+        mLastY = y;
+        push(x, y, time);
+        mProcessed = mHead;
+    }
+
+    /**
+     * @return false, leaving the buffer untouched, if it is full of samples
+     * that were not processed yet
+     */
+    public boolean push(float x, float y, long time) {
+        if (mHead - mProcessed > mMask) {
+            return false;
+        }
+        int slot = mHead & mMask;
+        mX[slot] = x;
+        mY[slot] = y;
+        mTime[slot] = time;
+        mHead++;
+        return true;
+    }
+
+    /**
+     * Smooths and filters every sample pushed since the last call.
+     *
+     * @param tolerance distance along either axis a sample must move away
+     *                  from the last kept one to be kept
+     * @param smoothing weight of a new sample in the moving average, from
+     *                  just above 0 for heavy smoothing to 1 for none
+     * @return the number of kept samples, readable with
+     * {@link #getAcceptedX(int)} and {@link #getAcceptedY(int)} until the
+     * next call
+     */
+    public int process(float tolerance, float smoothing) {
+        mAcceptedCount = 0;
+        for (; mProcessed < mHead; mProcessed++) {
+            int slot = mProcessed & mMask;
+            mSmoothX += smoothing * (mX[slot] - mSmoothX);
+            mSmoothY += smoothing * (mY[slot] - mSmoothY);
+            if (Math.abs(mSmoothX - mLastX) >= tolerance || Math.abs(mSmoothY - mLastY) >= tolerance) {
+                mLastX = mSmoothX;
+                mLastY = mSmoothY;
+                mAcceptedX[mAcceptedCount] = mSmoothX;
+                mAcceptedY[mAcceptedCount] = mSmoothY;
+                mAcceptedCount++;
+            }
+        }
+        return mAcceptedCount;
+    }
+
+    public float getAcceptedX(int index) {
+        return mAcceptedX[index];
+    }
+
+    public float getAcceptedY(int index) {
+        return mAcceptedY[index];
+    }
+
+    /**
+     * @return how many raw samples are still in the ring, at most its capacity
+     */
+    public int size() {
+        return Math.min(mHead, mMask + 1);
+    }
+
+    /**
+     * @param age 0 for the latest raw sample, 1 for the one before, and so on
+     */
+    public float getX(int age) {
+        return mX[(mHead - 1 - age) & mMask];
+    }
+
+    public float getY(int age) {
+        return mY[(mHead - 1 - age) & mMask];
+    }
+
+    public long getTime(int age) {
+        return mTime[(mHead - 1 - age) & mMask];
+    }
+}
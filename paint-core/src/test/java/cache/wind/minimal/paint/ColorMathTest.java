@@ -0,0 +1,40 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+public class ColorMathTest extends TestCase {
+    private static final int[] COLORS = new int[]{
+            0xFFFF0000, 0xFFFF00FF, 0xFF0000FF, 0xFF00FFFF, 0xFF00FF00, 0xFFFFFF00, 0xFFFF0000
+    };
+
+    public void testInterpColorEnds() {
+        assertEquals(COLORS[0], ColorMath.interpColor(COLORS, -1));
+        assertEquals(COLORS[0], ColorMath.interpColor(COLORS, 0));
+        assertEquals(COLORS[6], ColorMath.interpColor(COLORS, 1));
+        assertEquals(COLORS[6], ColorMath.interpColor(COLORS, 2));
+    }
+
+    public void testInterpColorBetweenStops() {
+        // Each stop is a sixth apart
+        assertEquals(COLORS[2], ColorMath.interpColor(COLORS, 2 / 6f));
+        assertEquals(0xFFFF0080, ColorMath.interpColor(COLORS, 0.5f / 6));
+        assertEquals(0x80404040, ColorMath.interpColor(new int[]{0x00000000, 0xFF808080}, 0.5f));
+    }
+
+    public void testRotateColor() {
+        // Gray has no chroma to turn
+        assertEquals(0xFF808080, ColorMath.rotateColor(0xFF808080, 1));
+        assertEquals(0x40FF0000, ColorMath.rotateColor(0x40FF0000, 0));
+
+        int color = 0xFF3366CC;
+        int turned = ColorMath.rotateColor(ColorMath.rotateColor(color, 1), -1);
+        assertTrue(Math.abs(ColorMath.red(color) - ColorMath.red(turned)) <= 1);
+        assertTrue(Math.abs(ColorMath.green(color) - ColorMath.green(turned)) <= 1);
+        assertTrue(Math.abs(ColorMath.blue(color) - ColorMath.blue(turned)) <= 1);
+
+        // Half a turn gives the opposite hue
+        int opposite = ColorMath.rotateColor(0xFF0000FF, (float) Math.PI);
+        assertTrue(ColorMath.blue(opposite) < ColorMath.red(opposite));
+        assertTrue(ColorMath.blue(opposite) < ColorMath.green(opposite));
+    }
+}
@@ -0,0 +1,65 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+public class HsvWheelTest extends TestCase {
+    public void testHueMatchesAtan() {
+        for (int i = 0; i < 3600; i++) {
+            double radians = Math.toRadians(i / 10.0);
+            float dx = (float) (100 * Math.cos(radians));
+            float dy = (float) (100 * Math.sin(radians));
+            float hue = HsvWheel.getHue(dx, dy);
+            double expected = (Math.toDegrees(Math.atan2(dy, dx)) + 360) % 360;
+            double error = Math.abs(hue - expected);
+            assertTrue(i + ": " + hue, Math.min(error, 360 - error) < 0.01);
+            assertTrue(hue >= 0 && hue < 360);
+        }
+        assertEquals(0f, HsvWheel.getHue(0, 0));
+        // Clockwise on screen, with y growing downwards
+        assertEquals(90f, HsvWheel.getHue(0, 5), 0.001f);
+        assertEquals(270f, HsvWheel.getHue(0, -5), 0.001f);
+    }
+
+    public void testToColor() {
+        assertEquals(0xFFFF0000, HsvWheel.toColor(0xFF, 0, 1, 1));
+        assertEquals(0xFFFFFF00, HsvWheel.toColor(0xFF, 60, 1, 1));
+        assertEquals(0xFF00FF00, HsvWheel.toColor(0xFF, 120, 1, 1));
+        assertEquals(0xFF0000FF, HsvWheel.toColor(0xFF, 240, 1, 1));
+        assertEquals(0xFFFF0000, HsvWheel.toColor(0xFF, 360, 1, 1));
+        assertEquals(0x80FFFFFF, HsvWheel.toColor(0x80, 200, 0, 1));
+        assertEquals(0xFF000000, HsvWheel.toColor(0xFF, 200, 1, 0));
+        assertEquals(0xFF808080, HsvWheel.toColor(0xFF, 30, 0, 128 / 255f));
+    }
+
+    public void testRoundTrip() {
+        float[] hsv = new float[3];
+        int[] colors = {0xFFFF0000, 0xFF3366CC, 0xFF123456, 0xFFFEDCBA, 0xFF808080, 0xFF000000,
+                0xFFFFFFFF, 0xFF00FF80, 0xFFFF00FF};
+        for (int color : colors) {
+            HsvWheel.toHsv(color, hsv);
+            int back = HsvWheel.toColor(0xFF, hsv[0], hsv[1], hsv[2]);
+            // Hues come in 1536 steps, so a channel can be off by one
+            assertTrue(Integer.toHexString(back), Math.abs(ColorMath.red(color) - ColorMath.red(back)) <= 1);
+            assertTrue(Integer.toHexString(back), Math.abs(ColorMath.green(color) - ColorMath.green(back)) <= 1);
+            assertTrue(Integer.toHexString(back), Math.abs(ColorMath.blue(color) - ColorMath.blue(back)) <= 1);
+        }
+    }
+
+    public void testRender() {
+        int size = 101;
+        int[] pixels = new int[size * size];
+        HsvWheel.render(pixels, size);
+        // White in the center, transparent in the corners, full hues at the rim
+        assertEquals(0xFFFFFFFF, pixels[50 * size + 50]);
+        assertEquals(0, pixels[0]);
+        assertEquals(0, pixels[size * size - 1]);
+        int right = pixels[50 * size + size - 2];
+        assertEquals(0xFF, ColorMath.alpha(right));
+        assertEquals(255, ColorMath.red(right));
+        assertTrue(ColorMath.green(right) < 10 && ColorMath.blue(right) < 10);
+        int bottom = pixels[(size - 2) * size + 50];
+        // Hue 90, between yellow and green
+        assertTrue(ColorMath.green(bottom) == 255 && ColorMath.red(bottom) > 100
+                && ColorMath.blue(bottom) < 10);
+    }
+}
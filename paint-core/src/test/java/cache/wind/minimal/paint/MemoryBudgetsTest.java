@@ -0,0 +1,80 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MemoryBudgetsTest extends TestCase {
+    private MemoryBudgets mBudgets;
+    private List<Integer> mExceeded;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBudgets = new MemoryBudgets();
+        mExceeded = new ArrayList<>();
+        mBudgets.setOnBudgetExceededListener(new MemoryBudgets.OnBudgetExceededListener() {
+            @Override
+            public void onBudgetExceeded(int category, long usage, long budget) {
+                assertTrue(usage > budget);
+                mExceeded.add(category);
+            }
+        });
+    }
+
+    public void testReportsEachCrossingOnce() {
+        mBudgets.setBudget(MemoryBudgets.REDO_HISTORY, 1000);
+        assertFalse(mBudgets.update(MemoryBudgets.REDO_HISTORY, 1000));
+        assertTrue(mExceeded.isEmpty());
+
+        assertTrue(mBudgets.update(MemoryBudgets.REDO_HISTORY, 1001));
+        assertTrue(mBudgets.update(MemoryBudgets.REDO_HISTORY, 2000));
+        assertEquals(1, mExceeded.size());
+        assertEquals(MemoryBudgets.REDO_HISTORY, (int) mExceeded.get(0));
+
+        // Back within budget, then over again
+        mBudgets.update(MemoryBudgets.REDO_HISTORY, 0);
+        mBudgets.update(MemoryBudgets.REDO_HISTORY, 1500);
+        assertEquals(2, mExceeded.size());
+    }
+
+    public void testLoweringBudgetReports() {
+        mBudgets.update(MemoryBudgets.TILES, 5000);
+        assertTrue(mExceeded.isEmpty());
+        mBudgets.setBudget(MemoryBudgets.TILES, 4000);
+        assertEquals(1, mExceeded.size());
+        assertTrue(mBudgets.isOverBudget(MemoryBudgets.TILES));
+        mBudgets.setBudget(MemoryBudgets.TILES, MemoryBudgets.UNLIMITED);
+        assertFalse(mBudgets.isOverBudget(MemoryBudgets.TILES));
+    }
+
+    public void testReport() {
+        mBudgets.update(MemoryBudgets.TILES, 3 * 1024 * 1024);
+        mBudgets.update(MemoryBudgets.DABS, 1);
+        mBudgets.setBudget(MemoryBudgets.CHECKPOINTS, 32 * 1024 * 1024);
+        assertEquals(3 * 1024 * 1024 + 1, mBudgets.getTotalUsage());
+
+        StringBuilder report = new StringBuilder();
+        mBudgets.appendReport(report);
+        String line = report.toString();
+        assertTrue(line, line.startsWith("tiles=3.0MB checkpoints=0.0MB/32.0MB "));
+        assertTrue(line, line.contains(" dabs=0.1MB "));
+        assertTrue(line, line.endsWith(" total=3.1MB"));
+    }
+
+    public void testStrokeLogRedoMemory() {
+        StrokeLog log = new StrokeLog();
+        float[] points = new float[100];
+        log.add(0, points, 100);
+        log.add(0, points, 40);
+        assertEquals(0, log.getRedoMemoryUsage());
+        log.undo();
+        assertEquals(4 * (40 + 4), log.getRedoMemoryUsage());
+        log.undo();
+        assertEquals(4 * (140 + 8), log.getRedoMemoryUsage());
+        assertTrue(log.getRedoMemoryUsage() < log.getMemoryUsage());
+        log.discardRedo();
+        assertEquals(0, log.getRedoMemoryUsage());
+    }
+}
@@ -0,0 +1,253 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PaintDocumentTest extends TestCase {
+    // Half a step of the format's fixed point
+    private static final float PRECISION = 1 / 32f;
+
+    private File mFile;
+    private Random mRandom;
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("document", PaintDocument.EXTENSION);
+        mRandom = new Random(7);
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+        mBrushes.intern(0xFFFF0000, 10, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_PATH);
+        mBrushes.intern(0x80123456, 2.5f, 1, BrushTable.BLEND_NORMAL, BrushTable.TIP_PATH);
+        mBrushes.intern(0xFF000000, 40, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_CLEAR,
+                BrushTable.TIP_PATH);
+        mBrushes.intern(0xFF00FF00, 24, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_SOFT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private void addRandomStrokes(int strokes) {
+        float[] points = new float[2000];
+        for (int stroke = 0; stroke < strokes; stroke++) {
+            int count = 2 * (1 + mRandom.nextInt(points.length / 2));
+            float x = mRandom.nextFloat() * 3000 - 100;
+            float y = mRandom.nextFloat() * 5000 - 100;
+            for (int i = 0; i < count; i += 2) {
+                x += mRandom.nextFloat() * 20 - 10;
+                y += mRandom.nextFloat() * 20 - 10;
+                points[i] = x;
+                points[i + 1] = y;
+            }
+            mLog.add(mRandom.nextInt(mBrushes.size()), points, count, count / 2 + mRandom.nextInt(100));
+        }
+    }
+
+    private StrokeLog readAll(PaintDocument document) throws IOException {
+        StrokeLog log = new StrokeLog();
+        int[] brushMap = new int[document.getBrushCount()];
+        for (int i = 0; i < brushMap.length; i++) {
+            brushMap[i] = i;
+        }
+        for (int chunk = 0; chunk < document.getChunkCount(); chunk++) {
+            document.readChunk(chunk, log, brushMap);
+        }
+        return log;
+    }
+
+    private void assertSameStroke(StrokeLog expected, int expectedStroke, StrokeLog actual, int actualStroke) {
+        assertEquals(expected.getBrush(expectedStroke), actual.getBrush(actualStroke));
+        if (expected.isDeletion(expectedStroke)) {
+            assertEquals(expected.getDeletedCount(expectedStroke), actual.getDeletedCount(actualStroke));
+            for (int i = 0; i < expected.getDeletedCount(expectedStroke); i++) {
+                assertEquals(expected.getDeletedStroke(expectedStroke, i), actual.getDeletedStroke(actualStroke, i));
+            }
+            return;
+        }
+        assertEquals(expected.getSampledPointCount(expectedStroke), actual.getSampledPointCount(actualStroke));
+        assertEquals(expected.getPointCount(expectedStroke), actual.getPointCount(actualStroke));
+        int offset = actual.getStart(actualStroke) - expected.getStart(expectedStroke);
+        for (int i = expected.getStart(expectedStroke); i < expected.getEnd(expectedStroke); i++) {
+            assertEquals(expected.getPoints()[i], actual.getPoints()[i + offset], PRECISION);
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        addRandomStrokes(1000);
+        for (int i = 0; i < 10; i++) {
+            mLog.undo();
+        }
+        PaintDocument.write(mFile, mLog, mBrushes, 1440, 2560);
+
+        PaintDocument document = PaintDocument.open(mFile);
+        assertEquals(PaintDocument.VERSION, document.getVersion());
+        assertEquals(1440, document.getWidth());
+        assertEquals(2560, document.getHeight());
+        assertEquals(1000, document.getStrokeCount());
+        assertEquals(990, document.getUndoPosition());
+        assertEquals(mBrushes.size(), document.getBrushCount());
+        for (int i = 0; i < mBrushes.size(); i++) {
+            assertEquals(mBrushes.getColor(i), document.getBrushColor(i));
+            assertEquals(mBrushes.getWidth(i), document.getBrushWidth(i));
+            assertEquals(mBrushes.getMaskFilter(i), document.getBrushMaskFilter(i));
+            assertEquals(mBrushes.getBlendMode(i), document.getBrushBlendMode(i));
+            assertEquals(mBrushes.getTip(i), document.getBrushTip(i));
+        }
+
+        StrokeLog log = readAll(document);
+        assertEquals(mLog.getStrokeCount(), log.getStrokeCount());
+        for (int stroke = 0; stroke < log.getStrokeCount(); stroke++) {
+            assertSameStroke(mLog, stroke, log, stroke);
+        }
+    }
+
+    public void testRoundTripWithDeletions() throws IOException {
+        addRandomStrokes(300);
+        for (int deletion = 0; deletion < 20; deletion++) {
+            int[] strokes = new int[1 + mRandom.nextInt(5)];
+            int count = 0;
+            for (int i = 0; i < strokes.length; i++) {
+                int stroke = mRandom.nextInt(mLog.size());
+                if (mLog.isVisible(stroke) && Arrays.binarySearch(strokes, 0, count, stroke) < 0) {
+                    strokes[count++] = stroke;
+                    Arrays.sort(strokes, 0, count);
+                }
+            }
+            mLog.addDeletion(strokes, count);
+            addRandomStrokes(10);
+        }
+        mLog.undo();
+        mLog.undo();
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+
+        StrokeLog log = readAll(PaintDocument.open(mFile));
+        assertEquals(mLog.getStrokeCount(), log.getStrokeCount());
+        while (log.size() > mLog.size()) {
+            log.undo();
+        }
+        for (int stroke = 0; stroke < log.getStrokeCount(); stroke++) {
+            assertSameStroke(mLog, stroke, log, stroke);
+            assertEquals(mLog.isVisible(stroke), log.isVisible(stroke));
+        }
+    }
+
+    public void testRewritingReadDocumentGivesSameBytes() throws IOException {
+        addRandomStrokes(600);
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        byte[] first = readBytes(mFile);
+
+        PaintDocument.write(mFile, readAll(PaintDocument.open(mFile)), mBrushes, 100, 100);
+        assertTrue(Arrays.equals(first, readBytes(mFile)));
+    }
+
+    public void testChunksDecodeOnTheirOwn() throws IOException {
+        addRandomStrokes(3 * PaintDocument.STROKES_PER_CHUNK + 5);
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        PaintDocument document = PaintDocument.open(mFile);
+        assertEquals(4, document.getChunkCount());
+
+        StrokeLog log = new StrokeLog();
+        int[] brushMap = {0, 1, 2, 3};
+        assertEquals(5, document.readChunk(3, log, brushMap));
+        assertEquals(PaintDocument.STROKES_PER_CHUNK, document.readChunk(1, log, brushMap));
+        assertSameStroke(mLog, document.getChunkStart(3), log, 0);
+        assertSameStroke(mLog, document.getChunkStart(1), log, 5);
+    }
+
+    public void testEmptyDocument() throws IOException {
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        PaintDocument document = PaintDocument.open(mFile);
+        assertEquals(0, document.getStrokeCount());
+        assertEquals(0, document.getChunkCount());
+    }
+
+    public void testCompactEncoding() throws IOException {
+        addRandomStrokes(200);
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        int floats = mLog.getEnd(mLog.getStrokeCount() - 1);
+        // Small deltas take two bytes a coordinate instead of four
+        assertTrue(mFile.length() < 4L * floats * 3 / 4);
+    }
+
+    public void testRejectsNewerVersion() throws IOException {
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt(PaintDocument.VERSION + 1);
+        file.close();
+        try {
+            PaintDocument.open(mFile);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testRejectsTruncatedDocument() throws IOException {
+        addRandomStrokes(300);
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        long length = mFile.length();
+        for (long size : new long[]{0, 10, 60, length / 2, length - 1}) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            file.setLength(size);
+            file.close();
+            try {
+                readAll(PaintDocument.open(mFile));
+                fail("read a document cut at " + size + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    public void testRejectsCorruptChunkIndex() throws IOException {
+        addRandomStrokes(300);
+        PaintDocument.write(mFile, mLog, mBrushes, 100, 100);
+        // The first offset follows the header and the brush table
+        long index = 36 + 20 * mBrushes.size();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(index);
+        long first = file.readLong();
+        file.close();
+        // Negative, back in the header, and one byte into the first chunk
+        for (long offset : new long[]{-1, 0, 10, first + 1}) {
+            file = new RandomAccessFile(mFile, "rw");
+            file.seek(index);
+            file.writeLong(offset);
+            file.close();
+            try {
+                readAll(PaintDocument.open(mFile));
+                fail("read a document whose first chunk starts at " + offset);
+            } catch (IOException expected) {
+            }
+        }
+
+        file = new RandomAccessFile(mFile, "rw");
+        file.seek(index);
+        file.writeLong(first);
+        file.close();
+        StrokeLog log = readAll(PaintDocument.open(mFile));
+        assertEquals(mLog.getStrokeCount(), log.getStrokeCount());
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+public class PointerSlotsTest extends TestCase {
+    public void testAcquireAndRelease() {
+        PointerSlots slots = new PointerSlots(2, 4);
+        assertEquals(0, slots.acquire(3));
+        assertEquals(1, slots.acquire(0));
+        assertEquals(PointerSlots.NO_SLOT, slots.acquire(1));
+        assertEquals(0, slots.findSlot(3));
+        assertEquals(1, slots.findSlot(0));
+        assertEquals(PointerSlots.NO_SLOT, slots.findSlot(1));
+
+        slots.release(0);
+        assertTrue(slots.isFree(0));
+        assertEquals(PointerSlots.NO_SLOT, slots.findSlot(3));
+        assertEquals(0, slots.acquire(1));
+        assertEquals(0, slots.findSlot(1));
+        assertFalse(slots.isFree(1));
+    }
+
+    public void testLargePointerIds() {
+        PointerSlots slots = new PointerSlots(2, 4);
+        assertEquals(PointerSlots.NO_SLOT, slots.findSlot(40));
+        assertEquals(0, slots.acquire(40));
+        assertEquals(0, slots.findSlot(40));
+        assertEquals(PointerSlots.NO_SLOT, slots.findSlot(39));
+        slots.release(0);
+        assertEquals(PointerSlots.NO_SLOT, slots.findSlot(40));
+    }
+}
@@ -0,0 +1,49 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+public class SpscQueueTest extends TestCase {
+    public void testFullQueueRejects() {
+        SpscQueue<Integer> queue = new SpscQueue<>(3);
+        // Rounded up to four slots
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testConsumerSeesProducerOrder() throws Exception {
+        final int count = 200000;
+        final SpscQueue<Integer> queue = new SpscQueue<>(64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        int expected = 0;
+        while (expected < count) {
+            Integer element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected++, element.intValue());
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,36 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+public class StrokeCurveTest extends TestCase {
+    private final StringBuilder mTrace = new StringBuilder();
+
+    private final StrokeCurve.Sink mSink = new StrokeCurve.Sink() {
+        @Override
+        public void moveTo(float x, float y) {
+            mTrace.append("M").append(x).append(',').append(y).append(' ');
+        }
+
+        @Override
+        public void quadTo(float cx, float cy, float x, float y) {
+            mTrace.append("Q").append(cx).append(',').append(cy).append(' ')
+                    .append(x).append(',').append(y).append(' ');
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            mTrace.append("L").append(x).append(',').append(y).append(' ');
+        }
+    };
+
+    public void testTrace() {
+        float[] points = {-1, -1, 0, 0, 10, 0, 10, 10, -1};
+        StrokeCurve.trace(points, 2, 8, mSink);
+        assertEquals("M0.0,0.0 Q0.0,0.0 5.0,0.0 Q10.0,0.0 10.0,5.0 L10.0,10.0 ", mTrace.toString());
+    }
+
+    public void testSinglePoint() {
+        StrokeCurve.trace(new float[]{3, 4}, 0, 2, mSink);
+        assertEquals("M3.0,4.0 L3.0,4.0 ", mTrace.toString());
+    }
+}
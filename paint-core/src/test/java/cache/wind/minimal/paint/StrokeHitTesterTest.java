@@ -0,0 +1,129 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StrokeHitTesterTest extends TestCase {
+    private static final int SIZE = 2000;
+
+    private Random mRandom;
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+    private StrokeHitTester mHitTester;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(15);
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+        mBrushes.intern(0xFF000000, 4, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_PATH);
+        mBrushes.intern(0xFFFF0000, 30, BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL,
+                BrushTable.TIP_PATH);
+        mHitTester = new StrokeHitTester(SIZE, SIZE);
+    }
+
+    private void addRandomStrokes(int strokes) {
+        for (int stroke = 0; stroke < strokes; stroke++) {
+            float[] points = new float[2 * (1 + mRandom.nextInt(30))];
+            points[0] = mRandom.nextFloat() * SIZE;
+            points[1] = mRandom.nextFloat() * SIZE;
+            for (int i = 2; i < points.length; i++) {
+                points[i] = points[i - 2] + (mRandom.nextFloat() - 0.5f) * 30;
+            }
+            mLog.add(mRandom.nextInt(mBrushes.size()), points, points.length);
+        }
+    }
+
+    private List<Integer> hitTest(float ax, float ay, float bx, float by, float radius) {
+        int count = mHitTester.hitTest(mLog, mBrushes, ax, ay, bx, by, radius);
+        List<Integer> hits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hits.add(mHitTester.getHits()[i]);
+        }
+        return hits;
+    }
+
+    private List<Integer> scan(float ax, float ay, float bx, float by, float radius) {
+        List<Integer> hits = new ArrayList<>();
+        float[] points = mLog.getPoints();
+        for (int stroke = 0; stroke < mLog.size(); stroke++) {
+            if (!mLog.isVisible(stroke)) {
+                continue;
+            }
+            float reach = radius + mBrushes.getWidth(mLog.getBrush(stroke)) / 2;
+            int start = mLog.getStart(stroke);
+            float distance = StrokeSimplifier.segmentDistance(points[start], points[start + 1], ax, ay, bx, by);
+            for (int i = start + 2; i < mLog.getEnd(stroke); i += 2) {
+                distance = Math.min(distance, StrokeHitTester.segmentsDistance(ax, ay, bx, by,
+                        points[i - 2], points[i - 1], points[i], points[i + 1]));
+            }
+            if (distance <= reach) {
+                hits.add(stroke);
+            }
+        }
+        return hits;
+    }
+
+    public void testSegmentsDistance() {
+        // Crossing
+        assertEquals(0, StrokeHitTester.segmentsDistance(0, 0, 10, 10, 0, 10, 10, 0), 1e-5f);
+        // Parallel, 5 apart
+        assertEquals(5, StrokeHitTester.segmentsDistance(0, 0, 10, 0, 0, 5, 10, 5), 1e-5f);
+        // End to end
+        assertEquals(5, StrokeHitTester.segmentsDistance(0, 0, 10, 0, 13, 4, 20, 4), 1e-5f);
+        // A point against a segment
+        assertEquals(3, StrokeHitTester.segmentsDistance(5, 3, 5, 3, 0, 0, 10, 0), 1e-5f);
+    }
+
+    public void testHitsMatchScan() {
+        addRandomStrokes(2000);
+        for (int i = 0; i < 300; i++) {
+            float ax = mRandom.nextFloat() * SIZE;
+            float ay = mRandom.nextFloat() * SIZE;
+            float bx = ax + (mRandom.nextFloat() - 0.5f) * 40;
+            float by = ay + (mRandom.nextFloat() - 0.5f) * 40;
+            assertEquals(scan(ax, ay, bx, by, 8), hitTest(ax, ay, bx, by, 8));
+        }
+    }
+
+    public void testDeletedStrokesAreNotHitAgain() {
+        float[] line = {100, 100, 200, 100};
+        mLog.add(0, line, line.length);
+        mLog.add(1, line, line.length);
+        assertEquals(2, hitTest(150, 90, 150, 110, 1).size());
+
+        int[] strokes = {0};
+        mLog.addDeletion(strokes, 1);
+        assertEquals(1, hitTest(150, 90, 150, 110, 1).size());
+        strokes[0] = 1;
+        mLog.extendDeletion(strokes, 1);
+        assertEquals(0, hitTest(150, 90, 150, 110, 1).size());
+        assertEquals(2, mLog.getDeletedCount(2));
+
+        // Undoing the deletion brings both back in one step
+        mLog.undo();
+        assertEquals(2, hitTest(150, 90, 150, 110, 1).size());
+        mLog.redo();
+        assertEquals(0, hitTest(150, 90, 150, 110, 1).size());
+        assertEquals(2, mLog.getDeletedBy(0));
+    }
+
+    public void testTruncateForgetsDroppedStrokes() {
+        float[] line = {100, 100, 200, 100};
+        mLog.add(0, line, line.length);
+        assertEquals(1, hitTest(150, 100, 150, 100, 1).size());
+        mLog.undo();
+        mLog.discardRedo();
+        mHitTester.truncate(mLog.size());
+
+        float[] other = {100, 500, 200, 500};
+        mLog.add(0, other, other.length);
+        assertEquals(0, hitTest(150, 100, 150, 100, 1).size());
+        assertEquals(1, hitTest(150, 500, 150, 500, 1).size());
+    }
+}
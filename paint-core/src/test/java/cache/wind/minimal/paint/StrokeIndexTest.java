@@ -0,0 +1,95 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StrokeIndexTest extends TestCase {
+    private static final int SIZE = 4096;
+    private static final int STROKES = 10000;
+
+    private Random mRandom;
+    private StrokeIndex mIndex;
+    private float[] mBounds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(14);
+        mIndex = new StrokeIndex(SIZE, SIZE);
+        mBounds = new float[STROKES * 4];
+        for (int i = 0; i < STROKES; i++) {
+            // Mostly short strokes, with the odd one across the drawing
+            float width = mRandom.nextInt(50) == 0 ? SIZE : 10 + mRandom.nextFloat() * 200;
+            float height = 10 + mRandom.nextFloat() * 200;
+            float left = mRandom.nextFloat() * SIZE - 100;
+            float top = mRandom.nextFloat() * SIZE - 100;
+            addStroke(i, left, top, left + width, top + height);
+        }
+    }
+
+    private void addStroke(int stroke, float left, float top, float right, float bottom) {
+        mBounds[stroke * 4] = left;
+        mBounds[stroke * 4 + 1] = top;
+        mBounds[stroke * 4 + 2] = right;
+        mBounds[stroke * 4 + 3] = bottom;
+        mIndex.add(left, top, right, bottom);
+    }
+
+    private List<Integer> scan(float left, float top, float right, float bottom, int limit) {
+        List<Integer> strokes = new ArrayList<>();
+        for (int i = 0; i < limit; i++) {
+            if (mBounds[i * 4] <= right && mBounds[i * 4 + 1] <= bottom
+                    && mBounds[i * 4 + 2] >= left && mBounds[i * 4 + 3] >= top) {
+                strokes.add(i);
+            }
+        }
+        return strokes;
+    }
+
+    private List<Integer> results(int count) {
+        List<Integer> strokes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            strokes.add(mIndex.getResult(i));
+        }
+        return strokes;
+    }
+
+    public void testRectQueryMatchesScan() {
+        for (int query = 0; query < 200; query++) {
+            float left = mRandom.nextFloat() * SIZE;
+            float top = mRandom.nextFloat() * SIZE;
+            float right = left + mRandom.nextFloat() * 600;
+            float bottom = top + mRandom.nextFloat() * 600;
+            int limit = mRandom.nextInt(STROKES + 1);
+            int count = mIndex.queryRect(left, top, right, bottom, limit);
+            assertEquals(scan(left, top, right, bottom, limit), results(count));
+        }
+    }
+
+    public void testPointQueryMatchesScan() {
+        for (int query = 0; query < 200; query++) {
+            float x = mRandom.nextFloat() * SIZE;
+            float y = mRandom.nextFloat() * SIZE;
+            int count = mIndex.queryPoint(x, y, STROKES);
+            assertEquals(scan(x, y, x, y, STROKES), results(count));
+        }
+    }
+
+    public void testTruncateDropsLaterStrokes() {
+        mIndex.truncate(STROKES / 2);
+        assertEquals(STROKES / 2, mIndex.getStrokeCount());
+        addStroke(STROKES / 2, 0, 0, SIZE, SIZE);
+        for (int query = 0; query < 100; query++) {
+            float left = mRandom.nextFloat() * SIZE;
+            float top = mRandom.nextFloat() * SIZE;
+            int count = mIndex.queryRect(left, top, left + 300, top + 300, STROKES);
+            assertEquals(scan(left, top, left + 300, top + 300, STROKES / 2 + 1), results(count));
+        }
+
+        mIndex.clear();
+        assertEquals(0, mIndex.queryRect(0, 0, SIZE, SIZE, STROKES));
+    }
+}
@@ -0,0 +1,204 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares renders with the reference images in the golden folder of the
+ * test resources. After a deliberate change to the output, run the tests with
+ * -DupdateGoldens=true from the module folder to write new ones, and check
+ * them before committing.
+ */
+public class StrokeRasterizerTest extends TestCase {
+    private static final String GOLDEN_FOLDER = "golden/";
+    private static final String GOLDEN_SOURCE = "src/test/resources/cache/wind/minimal/paint/golden/";
+    // Channel values may differ by rounding, and a few edge pixels by more
+    private static final int CHANNEL_TOLERANCE = 2;
+    private static final float MISMATCH_TOLERANCE = 0.001f;
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+
+    private ForkJoinPool mPool;
+    private StrokeRasterizer mRasterizer;
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new ForkJoinPool(4);
+        mRasterizer = new StrokeRasterizer(mPool);
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPool.shutdown();
+        super.tearDown();
+    }
+
+    private int brush(int color, float width, int blendMode) {
+        return mBrushes.intern(color, width, BrushTable.NO_MASK_FILTER, blendMode, BrushTable.TIP_PATH);
+    }
+
+    private void addStroke(int brush, float... points) {
+        mLog.add(brush, points, points.length);
+    }
+
+    private void addWave(int brush, float x, float y, float length, float amplitude) {
+        float[] points = new float[80];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = x + length * i / points.length;
+            points[i + 1] = y + amplitude * (float) Math.sin(i / 6.0);
+        }
+        addStroke(brush, points);
+    }
+
+    private void addStrokes() {
+        int thin = brush(0xFF000000, 2, BrushTable.BLEND_NORMAL);
+        int thick = brush(0xFF1565C0, 24, BrushTable.BLEND_NORMAL);
+        int translucent = brush(0x80E53935, 16, BrushTable.BLEND_NORMAL);
+        addWave(thin, 10, 20, 180, 8);
+        addWave(thick, 20, 60, 160, 20);
+        // Crosses itself, which must not darken where it does
+        addStroke(translucent, 30, 130, 170, 90, 170, 130, 30, 90);
+        // A tap draws a dot
+        addStroke(thick, 180, 20);
+    }
+
+    private int[] render(float scale, int width, int height) {
+        int[] pixels = new int[width * height];
+        mRasterizer.render(mLog, mBrushes, scale, pixels, width, height);
+        return pixels;
+    }
+
+    private void assertMatchesGolden(String name, int[] pixels, int width, int height)
+            throws IOException {
+        String file = name + ".png";
+        if (Boolean.getBoolean("updateGoldens")) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            ImageIO.write(image, "png", new File(GOLDEN_SOURCE + file));
+        }
+        InputStream input = getClass().getResourceAsStream(GOLDEN_FOLDER + file);
+        assertNotNull("Missing golden image " + file, input);
+        BufferedImage golden;
+        try {
+            golden = ImageIO.read(input);
+        } finally {
+            input.close();
+        }
+        assertEquals(width, golden.getWidth());
+        assertEquals(height, golden.getHeight());
+        int[] expected = golden.getRGB(0, 0, width, height, null, 0, width);
+
+        int mismatches = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            if (!similar(expected[i], pixels[i])) {
+                mismatches++;
+            }
+        }
+        assertTrue(mismatches + " pixels differ from " + file,
+                mismatches <= pixels.length * MISMATCH_TOLERANCE);
+    }
+
+    private static boolean similar(int a, int b) {
+        // Colors of transparent pixels do not matter
+        if ((a >>> 24) == 0 && (b >>> 24) == 0) {
+            return true;
+        }
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)) > CHANNEL_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void testStrokes() throws IOException {
+        addStrokes();
+        assertMatchesGolden("strokes", render(1, WIDTH, HEIGHT), WIDTH, HEIGHT);
+    }
+
+    public void testThumbnail() throws IOException {
+        addStrokes();
+        assertMatchesGolden("thumbnail", render(0.25f, WIDTH / 4, HEIGHT / 4), WIDTH / 4, HEIGHT / 4);
+    }
+
+    public void testEraseUndoAndDelete() throws IOException {
+        addStrokes();
+        addStroke(brush(0xFF000000, 12, BrushTable.BLEND_CLEAR), 10, 10, 190, 140);
+        addStroke(brush(0xFF43A047, 30, BrushTable.BLEND_NORMAL), 100, 10, 100, 140);
+        mLog.addDeletion(new int[]{0}, 1);
+        addStroke(brush(0xFFFDD835, 30, BrushTable.BLEND_NORMAL), 10, 75, 190, 75);
+        mLog.undo();
+        assertMatchesGolden("erased", render(1, WIDTH, HEIGHT), WIDTH, HEIGHT);
+    }
+
+    public void testMatchesSupersampledCoverage() {
+        int brush = brush(0xFF000000, 10, BrushTable.BLEND_NORMAL);
+        addStroke(brush, 20.3f, 30.7f, 80.1f, 55.2f);
+        int[] pixels = render(1, 100, 100);
+
+        // Coverage of the capsule around the segment, from 8x8 samples per pixel
+        float ax = 20.3f, ay = 30.7f, bx = 80.1f, by = 55.2f;
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                int inside = 0;
+                for (int sy = 0; sy < 8; sy++) {
+                    for (int sx = 0; sx < 8; sx++) {
+                        float px = x + (sx + 0.5f) / 8;
+                        float py = y + (sy + 0.5f) / 8;
+                        if (StrokeSimplifier.segmentDistance(px, py, ax, ay, bx, by) <= 5) {
+                            inside++;
+                        }
+                    }
+                }
+                int alpha = pixels[y * 100 + x] >>> 24;
+                assertEquals("Pixel " + x + ", " + y, inside * 255 / 64f, alpha, 255 * 0.12f);
+            }
+        }
+    }
+
+    public void testSameOnAnyNumberOfThreads() {
+        Random random = new Random(7);
+        int[] brushes = new int[]{
+                brush(0xFF000000, 3, BrushTable.BLEND_NORMAL),
+                brush(0x806A1B9A, 20, BrushTable.BLEND_NORMAL),
+                brush(0xFF000000, 15, BrushTable.BLEND_CLEAR)
+        };
+        for (int i = 0; i < 300; i++) {
+            float[] points = new float[20];
+            float x = random.nextFloat() * 1000;
+            float y = random.nextFloat() * 1000;
+            for (int j = 0; j < points.length; j += 2) {
+                x += random.nextFloat() * 40 - 20;
+                y += random.nextFloat() * 40 - 20;
+                points[j] = x;
+                points[j + 1] = y;
+            }
+            addStroke(brushes[i % brushes.length], points);
+        }
+        int[] parallel = render(1, 1000, 1000);
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            int[] serial = new int[parallel.length];
+            new StrokeRasterizer(single).render(mLog, mBrushes, 1, serial, 1000, 1000);
+            assertTrue(Arrays.equals(serial, parallel));
+        } finally {
+            single.shutdown();
+        }
+    }
+}
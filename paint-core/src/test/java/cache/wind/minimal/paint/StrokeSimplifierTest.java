@@ -0,0 +1,85 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class StrokeSimplifierTest extends TestCase {
+    private static final float TOLERANCE = 1.5f;
+
+    private StrokeSimplifier mSimplifier;
+    private Random mRandom;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSimplifier = new StrokeSimplifier();
+        mRandom = new Random(42);
+    }
+
+    private float[] randomWalk(int pointCount) {
+        float[] points = new float[pointCount * 2];
+        float angle = 0;
+        for (int i = 2; i < points.length; i += 2) {
+            angle += (mRandom.nextFloat() - 0.5f) * 0.6f;
+            float step = 2 + 4 * mRandom.nextFloat();
+            points[i] = points[i - 2] + step * (float) Math.cos(angle);
+            points[i + 1] = points[i - 1] + step * (float) Math.sin(angle);
+        }
+        return points;
+    }
+
+    private static float distanceToPolyline(float x, float y, float[] points, int count) {
+        float best = Float.MAX_VALUE;
+        for (int i = 2; i < count; i += 2) {
+            best = Math.min(best, StrokeSimplifier.segmentDistance(x, y,
+                    points[i - 2], points[i - 1], points[i], points[i + 1]));
+        }
+        return best;
+    }
+
+    public void testDeviationStaysWithinTolerance() {
+        for (int stroke = 0; stroke < 50; stroke++) {
+            float[] original = randomWalk(50 + mRandom.nextInt(2000));
+            float[] simplified = original.clone();
+            int count = mSimplifier.simplify(simplified, simplified.length, TOLERANCE);
+
+            assertTrue(count < original.length);
+            for (int i = 0; i < original.length; i += 2) {
+                float deviation = distanceToPolyline(original[i], original[i + 1], simplified, count);
+                assertTrue("point " + i / 2 + " is " + deviation + "px away",
+                        deviation <= TOLERANCE + 1e-3f);
+            }
+        }
+    }
+
+    public void testKeepsEndpoints() {
+        float[] original = randomWalk(500);
+        float[] simplified = original.clone();
+        int count = mSimplifier.simplify(simplified, simplified.length, TOLERANCE);
+
+        assertEquals(original[0], simplified[0]);
+        assertEquals(original[1], simplified[1]);
+        assertEquals(original[original.length - 2], simplified[count - 2]);
+        assertEquals(original[original.length - 1], simplified[count - 1]);
+    }
+
+    public void testStraightLineKeepsTwoPoints() {
+        float[] points = new float[200];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = i * 3;
+            points[i + 1] = i * 2;
+        }
+        assertEquals(4, mSimplifier.simplify(points, points.length, TOLERANCE));
+    }
+
+    public void testZeroToleranceKeepsCorners() {
+        float[] points = {0, 0, 10, 0, 10, 10, 0, 10};
+        assertEquals(points.length, mSimplifier.simplify(points, points.length, 0));
+    }
+
+    public void testShortStrokesAreLeftAlone() {
+        float[] points = {0, 0, 5, 5};
+        assertEquals(4, mSimplifier.simplify(points, 4, 100));
+    }
+}
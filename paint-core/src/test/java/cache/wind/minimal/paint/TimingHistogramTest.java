@@ -0,0 +1,66 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TimingHistogramTest extends TestCase {
+    public void testBuckets() {
+        int last = -1;
+        for (long micros = 0; micros < 1L << 28; micros = micros < 100 ? micros + 1 : micros * 9 / 8) {
+            int bucket = TimingHistogram.getBucket(micros);
+            assertTrue(bucket >= last);
+            assertTrue(bucket < TimingHistogram.BUCKET_COUNT);
+            if (bucket < TimingHistogram.BUCKET_COUNT - 1) {
+                long upper = TimingHistogram.getUpperMicros(bucket);
+                assertTrue(upper >= micros);
+                assertTrue(upper <= micros + micros / 16);
+                assertEquals(bucket, TimingHistogram.getBucket(upper));
+                assertEquals(bucket + 1, TimingHistogram.getBucket(upper + 1));
+            }
+            last = bucket;
+        }
+        assertEquals(TimingHistogram.BUCKET_COUNT - 1, TimingHistogram.getBucket(Long.MAX_VALUE / 2));
+    }
+
+    public void testPercentiles() {
+        TimingHistogram histogram = new TimingHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        // 1 to 1000 microseconds
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertEquals(500500, histogram.getMeanNanos());
+        assertWithin(500000, histogram.getPercentileNanos(50));
+        assertWithin(950000, histogram.getPercentileNanos(95));
+        assertWithin(990000, histogram.getPercentileNanos(99));
+        assertEquals(1000000, histogram.getPercentileNanos(100));
+
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " for " + expected, actual >= expected && actual <= expected * 17 / 16);
+    }
+
+    public void testWrite() {
+        TimingHistogram histogram = new TimingHistogram();
+        histogram.record(5000);
+        histogram.record(5000);
+        histogram.record(40000);
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        histogram.write(writer, "draw");
+        writer.flush();
+        String[] lines = text.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("# draw count=3 "));
+        assertEquals("5\t2", lines[1]);
+        assertEquals("41\t1", lines[2]);
+    }
+}
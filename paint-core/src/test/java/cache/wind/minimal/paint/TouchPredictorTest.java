@@ -0,0 +1,193 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays the touch traces in the traces folder of the test resources through
+ * the predictor, and measures how far each prediction lands from where the
+ * trace really is a horizon later, against not predicting at all. Each trace
+ * has one sample per line, as time in milliseconds then x and y, with a blank
+ * line between strokes.
+ */
+public class TouchPredictorTest extends TestCase {
+    private static final String TRACE_FOLDER = "traces/";
+    private static final String[] TRACES = {"scribble.txt", "spiral.txt", "corners.txt"};
+
+    private TouchPredictor mPredictor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPredictor = new TouchPredictor();
+    }
+
+    public void testConstantVelocity() {
+        TouchSampleBuffer samples = new TouchSampleBuffer();
+        samples.reset(10, 20, 0);
+        for (int time = 8; time <= 80; time += 8) {
+            samples.push(10 + time * 0.5f, 20 - time * 0.25f, time);
+        }
+        float[] predicted = new float[2];
+        assertTrue(mPredictor.predict(samples, predicted));
+        assertEquals(10 + 96 * 0.5f, predicted[0], 0.01f);
+        assertEquals(20 - 96 * 0.25f, predicted[1], 0.01f);
+    }
+
+    public void testNeedsTwoSamples() {
+        TouchSampleBuffer samples = new TouchSampleBuffer();
+        float[] predicted = new float[2];
+        samples.reset(10, 20, 0);
+        assertFalse(mPredictor.predict(samples, predicted));
+        // Samples at the same time tell no velocity
+        samples.push(12, 20, 0);
+        assertFalse(mPredictor.predict(samples, predicted));
+        samples.push(14, 20, 8);
+        assertTrue(mPredictor.predict(samples, predicted));
+    }
+
+    public void testStoppedFinger() {
+        TouchSampleBuffer samples = new TouchSampleBuffer();
+        samples.reset(0, 0, 0);
+        for (int time = 8; time <= 40; time += 8) {
+            samples.push(time, 0, time);
+        }
+        // Held still since, with older samples out of the window
+        for (int time = 48; time <= 120; time += 8) {
+            samples.push(40, 0, time);
+        }
+        float[] predicted = new float[2];
+        assertTrue(mPredictor.predict(samples, predicted));
+        assertEquals(40, predicted[0], 0.01f);
+        assertEquals(0, predicted[1], 0.01f);
+    }
+
+    public void testTraces() throws IOException {
+        for (String trace : TRACES) {
+            List<float[]> strokes = readTrace(trace);
+            assertFalse(trace, strokes.isEmpty());
+            for (float horizon : new float[]{8, TouchPredictor.DEFAULT_HORIZON_MILLIS, 24}) {
+                mPredictor.setHorizon(horizon);
+                float[] errors = measure(strokes, true);
+                float[] baseline = measure(strokes, false);
+                String report = trace + " at " + horizon + "ms: mean " + mean(errors) + " p95 "
+                        + percentile(errors, 0.95f) + ", without prediction mean " + mean(baseline)
+                        + " p95 " + percentile(baseline, 0.95f);
+                assertTrue(report, mean(errors) < 0.6f * mean(baseline));
+                assertTrue(report, percentile(errors, 0.95f) < percentile(baseline, 0.95f));
+            }
+        }
+    }
+
+    /**
+     * @return for every sample of every stroke a horizon before its end, the
+     * distance from the prediction, or from the sample itself if
+     * {@code predict} is false, to where the stroke is a horizon later
+     */
+    private float[] measure(List<float[]> strokes, boolean predict) {
+        float horizon = mPredictor.getHorizon();
+        TouchSampleBuffer samples = new TouchSampleBuffer();
+        float[] predicted = new float[2];
+        float[] errors = new float[0];
+        int count = 0;
+        for (float[] stroke : strokes) {
+            samples.reset(stroke[1], stroke[2], (long) stroke[0]);
+            for (int i = 3; i < stroke.length; i += 3) {
+                float time = stroke[i];
+                samples.push(stroke[i + 1], stroke[i + 2], (long) time);
+                // Only makes room for more samples, as the view does
+                samples.process(0, 1);
+                float endTime = stroke[stroke.length - 3];
+                if (time + horizon > endTime) {
+                    break;
+                }
+                if (!predict || !mPredictor.predict(samples, predicted)) {
+                    predicted[0] = stroke[i + 1];
+                    predicted[1] = stroke[i + 2];
+                }
+                float[] actual = interpolate(stroke, time + horizon);
+                if (count == errors.length) {
+                    errors = Arrays.copyOf(errors, Math.max(64, count * 2));
+                }
+                errors[count++] = (float) Math.hypot(predicted[0] - actual[0],
+                        predicted[1] - actual[1]);
+            }
+        }
+        return Arrays.copyOf(errors, count);
+    }
+
+    private static float[] interpolate(float[] stroke, float time) {
+        int i = 3;
+        while (i < stroke.length - 3 && stroke[i] < time) {
+            i += 3;
+        }
+        float span = stroke[i] - stroke[i - 3];
+        float fraction = span > 0 ? Math.min(1, (time - stroke[i - 3]) / span) : 1;
+        return new float[]{stroke[i - 2] + (stroke[i + 1] - stroke[i - 2]) * fraction,
+                stroke[i - 1] + (stroke[i + 2] - stroke[i - 1]) * fraction};
+    }
+
+    private static float mean(float[] values) {
+        double sum = 0;
+        for (float value : values) {
+            sum += value;
+        }
+        return (float) (sum / values.length);
+    }
+
+    private static float percentile(float[] values, float fraction) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    /**
+     * @return the strokes of {@code file}, each as time, x and y of every
+     * sample in a row
+     */
+    private List<float[]> readTrace(String file) throws IOException {
+        InputStream input = getClass().getResourceAsStream(TRACE_FOLDER + file);
+        assertNotNull("Missing trace " + file, input);
+        List<float[]> strokes = new ArrayList<>();
+        List<Float> stroke = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    addStroke(strokes, stroke);
+                    continue;
+                }
+                for (String value : line.split("\\s+")) {
+                    stroke.add(Float.parseFloat(value));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        addStroke(strokes, stroke);
+        return strokes;
+    }
+
+    private static void addStroke(List<float[]> strokes, List<Float> stroke) {
+        if (stroke.size() >= 6) {
+            float[] values = new float[stroke.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = stroke.get(i);
+            }
+            strokes.add(values);
+        }
+        stroke.clear();
+    }
+}
@@ -0,0 +1,260 @@
+package cache.wind.minimal.paint;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DrawingJournalTest extends TestCase {
+    // Snapshots keep points to half a step of the document's fixed point
+    private static final float PRECISION = 1 / 32f;
+
+    private final List<File> mFolders = new ArrayList<>();
+    private Random mRandom;
+    private StrokeLog mLog;
+    private BrushTable mBrushes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRandom = new Random(3);
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File folder : mFolders) {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            folder.delete();
+        }
+        super.tearDown();
+    }
+
+    private File newFolder() throws IOException {
+        File folder = File.createTempFile("journal", "");
+        assertTrue(folder.delete() && folder.mkdir());
+        mFolders.add(folder);
+        return folder;
+    }
+
+    /**
+     * Applies a random change to the drawing and journals it, like the view does.
+     */
+    private void randomChange(DrawingJournal journal) {
+        int change = mRandom.nextInt(20);
+        if (change == 0) {
+            mLog.clear();
+            journal.appendClear();
+        } else if (change < 4 && mLog.canUndo()) {
+            mLog.undo();
+            journal.appendUndo();
+        } else if (change < 6 && mLog.canRedo()) {
+            mLog.redo();
+            journal.appendRedo();
+        } else if (change < 8 && mLog.size() > 0) {
+            // Strokes erased by a gesture, sometimes as part of the previous one
+            int stroke = mRandom.nextInt(mLog.size());
+            if (mLog.isVisible(stroke)) {
+                boolean extend = mRandom.nextBoolean() && !mLog.canRedo()
+                        && mLog.isDeletion(mLog.size() - 1);
+                int[] strokes = {stroke};
+                if (extend) {
+                    mLog.extendDeletion(strokes, 1);
+                } else {
+                    mLog.addDeletion(strokes, 1);
+                }
+                journal.appendDeletion(strokes, 1, extend);
+            }
+        } else {
+            float[] points = new float[2 * (1 + mRandom.nextInt(60))];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = mRandom.nextFloat() * 1000;
+            }
+            int brush = mBrushes.intern(0xFF000000 | mRandom.nextInt(4), 1 + mRandom.nextInt(3),
+                    BrushTable.NO_MASK_FILTER, BrushTable.BLEND_NORMAL, mRandom.nextInt(4));
+            mLog.add(brush, points, points.length);
+            journal.appendStroke(mLog, mLog.size() - 1, mBrushes);
+        }
+        if (journal.needsCompaction()) {
+            journal.compact(mLog, mBrushes);
+        }
+    }
+
+    private void assertRecovered(StrokeLog expected, BrushTable expectedBrushes, PaintDocument document)
+            throws IOException {
+        StrokeLog log = new StrokeLog();
+        BrushTable brushes = new BrushTable();
+        if (document != null) {
+            DrawingJournal.readDocument(document, log, brushes);
+        }
+        // Strokes that were undone and then thrown away don't need to survive
+        assertEquals(expected.size(), log.size());
+        for (int stroke = 0; stroke < expected.size(); stroke++) {
+            assertEquals(expected.isVisible(stroke), log.isVisible(stroke));
+            if (expected.isDeletion(stroke)) {
+                assertTrue(log.isDeletion(stroke));
+                assertEquals(expected.getDeletedCount(stroke), log.getDeletedCount(stroke));
+                continue;
+            }
+            assertEquals(expectedBrushes.getColor(expected.getBrush(stroke)),
+                    brushes.getColor(log.getBrush(stroke)));
+            assertEquals(expectedBrushes.getTip(expected.getBrush(stroke)),
+                    brushes.getTip(log.getBrush(stroke)));
+            assertEquals(expected.getPointCount(stroke), log.getPointCount(stroke));
+            int offset = log.getStart(stroke) - expected.getStart(stroke);
+            for (int i = expected.getStart(stroke); i < expected.getEnd(stroke); i++) {
+                assertEquals(expected.getPoints()[i], log.getPoints()[i + offset], PRECISION);
+            }
+        }
+    }
+
+    public void testRecoversFromTruncationAtAnyOffset() throws Exception {
+        File folder = newFolder();
+        DrawingJournal journal = new DrawingJournal(folder, 1000, 1000);
+        journal.setCompactRecords(Integer.MAX_VALUE);
+        assertNull(journal.recover());
+
+        // The state after each change, and where the journal ended then
+        List<StrokeLog> states = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        states.add(new StrokeLog(mLog));
+        journal.flush();
+        ends.add(journal.getJournalFile().length());
+        for (int i = 0; i < 200; i++) {
+            randomChange(journal);
+            journal.flush();
+            states.add(new StrokeLog(mLog));
+            ends.add(journal.getJournalFile().length());
+        }
+        File written = journal.getJournalFile();
+        journal.close();
+
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long length = attempt == 0 ? written.length() : (long) (mRandom.nextDouble() * written.length());
+            File crashed = newFolder();
+            copy(written, new File(crashed, written.getName()), length);
+
+            int expected = 0;
+            while (expected + 1 < ends.size() && ends.get(expected + 1) <= length) {
+                expected++;
+            }
+            DrawingJournal recovered = new DrawingJournal(crashed, 1000, 1000);
+            try {
+                assertRecovered(states.get(expected), mBrushes, recovered.recover());
+            } finally {
+                recovered.close();
+            }
+        }
+    }
+
+    public void testCompactionKeepsHistory() throws Exception {
+        File folder = newFolder();
+        DrawingJournal journal = new DrawingJournal(folder, 1000, 1000);
+        journal.setCompactRecords(25);
+        journal.recover();
+        for (int i = 0; i < 110; i++) {
+            randomChange(journal);
+        }
+        journal.flush();
+        journal.close();
+
+        DrawingJournal recovered = new DrawingJournal(folder, 1000, 1000);
+        try {
+            assertRecovered(mLog, mBrushes, recovered.recover());
+        } finally {
+            recovered.close();
+        }
+        // One snapshot and its journal, plus nothing left over from older generations
+        assertEquals(2, folder.listFiles().length);
+    }
+
+    public void testRecoveryIgnoresUnfinishedSnapshot() throws Exception {
+        File folder = newFolder();
+        DrawingJournal journal = new DrawingJournal(folder, 1000, 1000);
+        journal.recover();
+        for (int i = 0; i < 30; i++) {
+            randomChange(journal);
+        }
+        journal.flush();
+        journal.close();
+        // A compaction killed before its snapshot was renamed into place
+        FileOutputStream torn = new FileOutputStream(new File(folder, "snapshot-7.mpaint.tmp"));
+        torn.write(new byte[]{1, 2, 3});
+        torn.close();
+
+        DrawingJournal recovered = new DrawingJournal(folder, 1000, 1000);
+        try {
+            assertRecovered(mLog, mBrushes, recovered.recover());
+        } finally {
+            recovered.close();
+        }
+        assertFalse(new File(folder, "snapshot-7.mpaint.tmp").exists());
+    }
+
+    public void testRecoveryMovesDamagedSnapshotAside() throws Exception {
+        File folder = newFolder();
+        DrawingJournal journal = new DrawingJournal(folder, 1000, 1000);
+        journal.recover();
+        for (int i = 0; i < 30; i++) {
+            randomChange(journal);
+        }
+        journal.compact(mLog, mBrushes);
+        journal.flush();
+        journal.close();
+        File[] snapshots = folder.listFiles();
+        for (File file : snapshots) {
+            if (file.getName().endsWith(PaintDocument.EXTENSION)) {
+                FileOutputStream damaged = new FileOutputStream(file);
+                damaged.write(new byte[]{1, 2, 3});
+                damaged.close();
+            }
+        }
+
+        // Starts over blank, and keeps journaling from there
+        mLog = new StrokeLog();
+        mBrushes = new BrushTable();
+        DrawingJournal recovered = new DrawingJournal(folder, 1000, 1000);
+        assertNull(recovered.recover());
+        assertTrue(new File(folder, "damaged" + PaintDocument.EXTENSION).exists());
+        for (int i = 0; i < 30; i++) {
+            randomChange(recovered);
+        }
+        recovered.flush();
+        recovered.close();
+
+        DrawingJournal again = new DrawingJournal(folder, 1000, 1000);
+        try {
+            assertRecovered(mLog, mBrushes, again.recover());
+        } finally {
+            again.close();
+        }
+    }
+
+    private static void copy(File from, File to, long length) throws IOException {
+        FileInputStream input = new FileInputStream(from);
+        FileOutputStream output = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[4096];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+}
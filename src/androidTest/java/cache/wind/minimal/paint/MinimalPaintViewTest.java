@@ -0,0 +1,200 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.view.MotionEvent;
+
+public class MinimalPaintViewTest extends AndroidTestCase {
+    private static final int STROKE_POINTS = 10000;
+    private static final int FRAMES = 10;
+
+    private Paint mPaint;
+    private Bitmap mTarget;
+    private Canvas mTargetCanvas;
+    private long mDownTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setDither(true);
+        mPaint.setColor(Color.RED);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(MainActivity.DEFAULT_BRUSH_SIZE);
+
+        mTarget = Bitmap.createBitmap(480, 480, Bitmap.Config.ARGB_8888);
+        mTargetCanvas = new Canvas(mTarget);
+        mDownTime = SystemClock.uptimeMillis();
+    }
+
+    private MinimalPaintView createView(boolean incremental) {
+        MinimalPaintView view = new MinimalPaintView(getContext());
+        view.setPaint(mPaint);
+        view.setIncrementalStrokes(incremental);
+        view.layout(0, 0, mTarget.getWidth(), mTarget.getHeight());
+        return view;
+    }
+
+    private MotionEvent obtainEvent(int action, int point) {
+        // A circle of radius 150 walked in 6 pixel steps, well above the touch tolerance
+        double angle = point * 0.04;
+        float x = 240 + (float) (150 * Math.cos(angle));
+        float y = 240 + (float) (150 * Math.sin(angle));
+        return MotionEvent.obtain(mDownTime, mDownTime + point, action, x, y, 0);
+    }
+
+    private void touch(MinimalPaintView view, int action, int point) {
+        MotionEvent event = obtainEvent(action, point);
+        view.onTouchEvent(event);
+        event.recycle();
+    }
+
+    private void drawStroke(MinimalPaintView view, int from, int to) {
+        for (int i = from; i < to; i++) {
+            touch(view, i == 0 ? MotionEvent.ACTION_DOWN : MotionEvent.ACTION_MOVE, i);
+        }
+    }
+
+    private long frameCost(MinimalPaintView view) {
+        view.draw(mTargetCanvas);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < FRAMES; i++) {
+            long start = System.nanoTime();
+            view.draw(mTargetCanvas);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public void testLongStrokeFrameCostStaysFlat() {
+        MinimalPaintView view = createView(true);
+        try {
+            drawStroke(view, 0, STROKE_POINTS / 10);
+            long early = frameCost(view);
+            drawStroke(view, STROKE_POINTS / 10, STROKE_POINTS);
+            long late = frameCost(view);
+            touch(view, MotionEvent.ACTION_UP, STROKE_POINTS);
+
+            assertTrue("frame cost grew from " + early + "ns to " + late + "ns",
+                    late < early * 2);
+        } finally {
+            view.release();
+        }
+    }
+
+    public void testIncrementalPreviewMatchesPath() {
+        // Translucent, then with a mask filter, which the preview leaves out in both modes
+        Paint translucent = new Paint(mPaint);
+        translucent.setAlpha(0x80);
+        Paint filtered = new Paint(mPaint);
+        filtered.setMaskFilter(new BlurMaskFilter(5, BlurMaskFilter.Blur.NORMAL));
+
+        for (Paint paint : new Paint[]{translucent, filtered}) {
+            mPaint = paint;
+            Bitmap[] frames = new Bitmap[2];
+            for (int i = 0; i < frames.length; i++) {
+                MinimalPaintView view = createView(i == 0);
+                // Drawn mid-stroke, from the coverage layer or from the path
+                drawStroke(view, 0, 500);
+                frames[i] = Bitmap.createBitmap(mTarget.getWidth(), mTarget.getHeight(),
+                        Bitmap.Config.ARGB_8888);
+                view.draw(new Canvas(frames[i]));
+                touch(view, MotionEvent.ACTION_UP, 500);
+                view.release();
+            }
+            assertSimilar(frames[0], frames[1]);
+        }
+    }
+
+    /**
+     * Allows for the rounding of tinting the coverage layer instead of
+     * blending the path directly, and for a few edge pixels where segments
+     * drawn one at a time meet.
+     */
+    private static void assertSimilar(Bitmap expected, Bitmap actual) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        int[] expectedPixels = new int[width * height];
+        int[] actualPixels = new int[width * height];
+        expected.getPixels(expectedPixels, 0, width, 0, 0, width, height);
+        actual.getPixels(actualPixels, 0, width, 0, 0, width, height);
+        int drawn = 0;
+        int mismatches = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            if (expectedPixels[i] != Color.WHITE || actualPixels[i] != Color.WHITE) {
+                drawn++;
+            }
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((expectedPixels[i] >> shift) & 0xFF) - ((actualPixels[i] >> shift) & 0xFF);
+                if (Math.abs(difference) > 2) {
+                    mismatches++;
+                    break;
+                }
+            }
+        }
+        assertTrue("nothing drawn", drawn > 0);
+        assertTrue(mismatches + " of " + drawn + " drawn pixels differ", mismatches * 200 <= drawn);
+    }
+
+    public void testStrokeEndsWhereFingerLifts() {
+        MinimalPaintView view = createView(true);
+        drawStroke(view, 0, 20);
+        // Lifted well past the last move, which the smoothing lags behind anyway
+        touch(view, MotionEvent.ACTION_UP, 40);
+
+        MotionEvent down = obtainEvent(MotionEvent.ACTION_DOWN, 0);
+        MotionEvent up = obtainEvent(MotionEvent.ACTION_UP, 40);
+        StrokeLog log = view.getStrokeLog();
+        float[] points = log.getPoints();
+        int start = log.getStart(0);
+        int end = log.getEnd(0);
+        // The stroke starts at the raw down sample, so the drawing is offset from there
+        float zoom = view.getZoom();
+        assertEquals(points[start] + (up.getX() - down.getX()) / zoom, points[end - 2], 0.01f);
+        assertEquals(points[start + 1] + (up.getY() - down.getY()) / zoom, points[end - 1], 0.01f);
+        down.recycle();
+        up.recycle();
+        view.release();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testMoveDoesNotAllocate() {
+        MinimalPaintView view = createView(true);
+        try {
+            // A first stroke longer than the measured one grows every buffer
+            drawStroke(view, 0, 2000);
+            touch(view, MotionEvent.ACTION_UP, 2000);
+
+            MotionEvent[] moves = new MotionEvent[1000];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = obtainEvent(MotionEvent.ACTION_MOVE, i + 1);
+            }
+            touch(view, MotionEvent.ACTION_DOWN, 0);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            for (MotionEvent move : moves) {
+                view.onTouchEvent(move);
+            }
+            Debug.stopAllocCounting();
+            int allocations = Debug.getThreadAllocCount();
+
+            touch(view, MotionEvent.ACTION_UP, moves.length + 1);
+            for (MotionEvent move : moves) {
+                move.recycle();
+            }
+            assertEquals(0, allocations);
+        } finally {
+            view.release();
+        }
+    }
+}
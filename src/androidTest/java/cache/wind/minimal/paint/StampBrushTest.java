@@ -0,0 +1,112 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class StampBrushTest extends AndroidTestCase {
+    private static final String TAG = "StampBrushTest";
+
+    private Paint mPaint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPaint = new Paint();
+        mPaint.setColor(Color.BLACK);
+    }
+
+    public void testDabSizes() {
+        int last = 0;
+        for (float diameter = 0.5f; diameter < 400; diameter += 0.25f) {
+            int size = DabCache.getDabSize(diameter);
+            assertTrue(size >= last);
+            assertTrue(size >= Math.min(DabCache.MAX_DAB_SIZE, Math.ceil(diameter)));
+            assertTrue(size <= Math.ceil(diameter) * 1.125f + 1);
+            last = size;
+        }
+    }
+
+    public void testDabPixels() {
+        int size = 32;
+        int center = (size / 2) * size + size / 2;
+        int[] hard = DabCache.createDabPixels(BrushTable.TIP_HARD, size);
+        assertEquals(255, Color.alpha(hard[center]));
+        assertEquals(0, Color.alpha(hard[0]));
+
+        int[] soft = DabCache.createDabPixels(BrushTable.TIP_SOFT, size);
+        assertTrue(Color.alpha(soft[center]) > 0);
+        assertTrue(Color.alpha(soft[center]) < 255);
+        assertEquals(0, Color.alpha(soft[0]));
+
+        int[] textured = DabCache.createDabPixels(BrushTable.TIP_TEXTURED, size);
+        for (int i = 0; i < textured.length; i++) {
+            assertTrue(Color.alpha(textured[i]) <= Color.alpha(hard[i]));
+        }
+    }
+
+    public void testSegmentsStampLikeTheWholePath() {
+        DabCache dabs = new DabCache();
+        Bitmap whole = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(whole);
+        Path path = new Path();
+        path.moveTo(20, 50);
+        path.lineTo(80, 50);
+        StampBrush brush = new StampBrush(dabs);
+        brush.start(canvas, BrushTable.TIP_TEXTURED, 20, 1, mPaint, 20, 50);
+        int count = brush.stamp(canvas, path);
+
+        Bitmap segmented = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        canvas = new Canvas(segmented);
+        brush.start(canvas, BrushTable.TIP_TEXTURED, 20, 1, mPaint, 20, 50);
+        int segmentedCount = 0;
+        for (int x = 20; x < 80; x += 10) {
+            path.rewind();
+            path.moveTo(x, 50);
+            path.lineTo(x + 10, 50);
+            segmentedCount += brush.stamp(canvas, path);
+        }
+
+        // A dab every quarter of the width
+        assertEquals(60 / 5, count);
+        assertEquals(count, segmentedCount);
+        assertTrue(whole.sameAs(segmented));
+        assertEquals(1, dabs.size());
+    }
+
+    public void testHundredsOfDabsPerFrame() {
+        int frames = 120;
+        int dabsPerFrame = 400;
+        float width = 40;
+        Bitmap layer = Bitmap.createBitmap(1080, 1920, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(layer);
+        StampBrush brush = new StampBrush(new DabCache());
+        Path segment = new Path();
+        brush.start(canvas, BrushTable.TIP_SOFT, width, 1, mPaint, 100, 100);
+
+        long start = System.nanoTime();
+        int count = 0;
+        float y = 100;
+        for (int frame = 0; frame < frames; frame++) {
+            // Across the layer and back, as long as a frame's worth of dabs
+            float half = dabsPerFrame * width * DabCache.getSpacing(BrushTable.TIP_SOFT) / 2;
+            segment.rewind();
+            segment.moveTo(100, y);
+            segment.lineTo(100 + half, y);
+            segment.lineTo(100, y);
+            y = y < 1800 ? y + 10 : 100;
+            count += brush.stamp(canvas, segment);
+        }
+        long nanos = System.nanoTime() - start;
+        Log.i(TAG, count + " dabs over " + frames + " frames took " + nanos / 1000000
+                + "ms, " + nanos / frames / 1000 + "us per frame");
+
+        assertTrue(count >= frames * (dabsPerFrame - 1));
+        // One frame at 120 Hz
+        assertTrue(nanos / frames < 1000000000L / 120);
+    }
+}
@@ -0,0 +1,328 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StrokeRendererTest extends AndroidTestCase {
+    private static final String TAG = "StrokeRendererTest";
+    private static final int SIZE = 2048;
+    private static final int STROKES = 10000;
+    private static final float WIDTH = 6;
+    private static final int BLUR_STROKES = 500;
+    private static final int BLUR_UNDOS = 10;
+    // Each benchmark keeps the quickest of this many runs
+    private static final int BLUR_RUNS = 3;
+
+    private final Runnable mNoFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private float[][] mStrokes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(14);
+        mStrokes = new float[STROKES][];
+        for (int i = 0; i < STROKES; i++) {
+            float[] points = new float[2 * (2 + random.nextInt(10))];
+            points[0] = random.nextFloat() * SIZE;
+            points[1] = random.nextFloat() * SIZE;
+            for (int j = 2; j < points.length; j++) {
+                points[j] = points[j - 2] + (random.nextFloat() - 0.5f) * 40;
+            }
+            mStrokes[i] = points;
+        }
+    }
+
+    private StrokeRenderer createRenderer() {
+        return createRenderer(new MemoryBudgets());
+    }
+
+    private StrokeRenderer createRenderer(MemoryBudgets budgets) {
+        StrokeRenderer renderer = new StrokeRenderer(SIZE, SIZE, budgets, mNoFrameCallback);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeWidth(WIDTH);
+        for (int color : new int[]{Color.RED, Color.BLUE, 0x8000FF00}) {
+            paint.setColor(color);
+            renderer.addBrush(paint, WIDTH / 2 + 1);
+        }
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        renderer.addBrush(paint, WIDTH / 2 + 1);
+        return renderer;
+    }
+
+    private static Bitmap render(TileStore.Snapshot snapshot) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        snapshot.draw(new Canvas(bitmap), null);
+        return bitmap;
+    }
+
+    public void testUndoRedrawsOnlyAroundTheStroke() {
+        StrokeRenderer renderer = createRenderer();
+        for (int i = 0; i < STROKES; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        renderer.waitForIdle();
+
+        for (int i = 0; i < 100; i++) {
+            renderer.undo();
+        }
+        Bitmap undone = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.quit();
+
+        // The same history, never drawn past the strokes that stay
+        StrokeRenderer expected = createRenderer();
+        for (int i = 0; i < STROKES - 100; i++) {
+            expected.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        Bitmap replayed = render(expected.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        expected.quit();
+
+        assertTrue(undone.sameAs(replayed));
+    }
+
+    public void testDeletedStrokesLeaveNoTrace() {
+        int strokes = 2000;
+        int[] deleted = {10, 500, 501, 1999};
+        StrokeRenderer renderer = createRenderer();
+        for (int i = 0; i < strokes; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        Bitmap before = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.deleteStrokes(deleted, 2, false, true);
+        renderer.deleteStrokes(new int[]{deleted[2], deleted[3]}, 2, true, true);
+        Bitmap after = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.undo();
+        Bitmap undone = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.quit();
+
+        StrokeRenderer expected = createRenderer();
+        for (int i = 0; i < strokes; i++) {
+            if (Arrays.binarySearch(deleted, i) < 0) {
+                expected.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+            }
+        }
+        Bitmap never = render(expected.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        expected.quit();
+
+        assertTrue(after.sameAs(never));
+        assertTrue(undone.sameAs(before));
+    }
+
+    /**
+     * @return a renderer holding blurred strokes that all overlap each other,
+     * none of them undone yet
+     */
+    private StrokeRenderer createBlurRenderer(long cacheBudget) {
+        StrokeRenderer renderer = new StrokeRenderer(SIZE, SIZE, mNoFrameCallback);
+        // No checkpoints, so every undo replays whatever the stroke overlapped
+        renderer.getCheckpointHistory().setStrokeInterval(Integer.MAX_VALUE);
+        renderer.getCheckpointHistory().setCostInterval(1000000);
+        renderer.getStrokeBitmapCache().setMemoryBudget(cacheBudget);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeWidth(12);
+        paint.setMaskFilter(new BlurMaskFilter(8, BlurMaskFilter.Blur.NORMAL));
+        paint.setColor(Color.BLUE);
+        renderer.addBrush(paint, 6 + 2 + 24);
+        // Crowded into one corner, so that they all overlap each other
+        for (int i = 0; i < BLUR_STROKES; i++) {
+            float[] points = mStrokes[i].clone();
+            for (int j = 0; j < points.length; j++) {
+                points[j] = points[j] / 8;
+            }
+            renderer.addStroke(0, points, 0, points.length, true);
+        }
+        renderer.waitForIdle();
+        return renderer;
+    }
+
+    private static void undoBlurStrokes(StrokeRenderer renderer) {
+        for (int i = 0; i < BLUR_UNDOS; i++) {
+            renderer.undo();
+        }
+        renderer.waitForIdle();
+    }
+
+    /**
+     * @return the quickest of a few runs of undoing blurred strokes, in
+     * nanoseconds
+     */
+    private long timeBlurUndos(long cacheBudget) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < BLUR_RUNS; run++) {
+            StrokeRenderer renderer = createBlurRenderer(cacheBudget);
+            long start = System.nanoTime();
+            undoBlurStrokes(renderer);
+            best = Math.min(best, System.nanoTime() - start);
+            renderer.quit();
+        }
+        return best;
+    }
+
+    public void testCachedBlurStrokesReplaySamePixels() {
+        StrokeRenderer uncached = createBlurRenderer(0);
+        undoBlurStrokes(uncached);
+        Bitmap expected = render(uncached.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        assertEquals(0, uncached.getStrokeBitmapCache().size());
+        uncached.quit();
+
+        StrokeRenderer cached = createBlurRenderer(StrokeBitmapCache.DEFAULT_MEMORY_BUDGET);
+        undoBlurStrokes(cached);
+        Bitmap replayed = render(cached.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        assertTrue(cached.getStrokeBitmapCache().size() > 0);
+        cached.quit();
+
+        // Drawing through the cached coverage can round each channel differently
+        int[] expectedPixels = new int[SIZE * SIZE];
+        int[] replayedPixels = new int[SIZE * SIZE];
+        expected.getPixels(expectedPixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        replayed.getPixels(replayedPixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((expectedPixels[i] >>> shift) & 0xFF) - ((replayedPixels[i] >>> shift) & 0xFF);
+                assertTrue("Pixel " + i, Math.abs(difference) <= 2);
+            }
+        }
+    }
+
+    /**
+     * Benchmarks undoing blurred strokes with and without their cached
+     * bitmaps, and only reports the times, which depend on the device.
+     */
+    public void testBenchmarkCachedBlurStrokeReplay() {
+        long uncached = timeBlurUndos(0);
+        long cached = timeBlurUndos(StrokeBitmapCache.DEFAULT_MEMORY_BUDGET);
+        Log.i(TAG, BLUR_UNDOS + " undos over " + BLUR_STROKES + " blurred strokes took "
+                + cached / 1000000 + "ms with cached bitmaps, " + uncached / 1000000
+                + "ms without, best of " + BLUR_RUNS);
+    }
+
+    public void testRequestedSnapshotShowsEverythingSentBefore() throws InterruptedException {
+        StrokeRenderer renderer = createRenderer();
+        for (int i = 0; i < 1000; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        final CountDownLatch taken = new CountDownLatch(1);
+        final TileStore.Snapshot[] requested = new TileStore.Snapshot[1];
+        renderer.requestSnapshot(new Rect(0, 0, SIZE, SIZE), new StrokeRenderer.SnapshotCallback() {
+            @Override
+            public void onSnapshot(TileStore.Snapshot snapshot) {
+                requested[0] = snapshot;
+                taken.countDown();
+            }
+        });
+        // Drawn after the request, so not in its snapshot
+        for (int i = 1000; i < 2000; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        assertTrue(taken.await(10, TimeUnit.SECONDS));
+        renderer.quit();
+
+        StrokeRenderer expected = createRenderer();
+        for (int i = 0; i < 1000; i++) {
+            expected.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        Bitmap before = render(expected.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        expected.quit();
+
+        assertTrue(render(requested[0]).sameAs(before));
+    }
+
+    public void testWaitForIdleReturnsAfterQuit() {
+        StrokeRenderer renderer = createRenderer();
+        for (int i = 0; i < 100; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        renderer.quit();
+        renderer.waitForIdle();
+        assertNotNull(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        // Never drawn, since the render thread is gone
+        renderer.undo();
+        renderer.waitForIdle();
+    }
+
+    public void testUndoingClearAllRestoresTiles() {
+        int strokes = 2000;
+        StrokeRenderer renderer = createRenderer();
+        int[] visible = new int[strokes];
+        for (int i = 0; i < strokes; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+            visible[i] = i;
+        }
+        Bitmap before = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.deleteAllStrokes(visible, strokes);
+        Bitmap cleared = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        assertTrue(cleared.sameAs(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888)));
+        assertEquals(1, renderer.getTileDeltaHistory().size());
+
+        long start = System.nanoTime();
+        renderer.undo();
+        renderer.waitForIdle();
+        long undoNanos = System.nanoTime() - start;
+        Bitmap undone = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.redo();
+        renderer.undo();
+        Bitmap redoneAndUndone = render(renderer.snapshot(new Rect(0, 0, SIZE, SIZE)));
+        renderer.quit();
+        Log.i(TAG, "Undoing a clear of " + strokes + " strokes took " + undoNanos / 1000000 + "ms");
+
+        assertTrue(undone.sameAs(before));
+        assertTrue(redoneAndUndone.sameAs(before));
+    }
+
+    public void testReportsMemory() {
+        MemoryBudgets budgets = new MemoryBudgets();
+        final List<Integer> exceeded = new ArrayList<>();
+        budgets.setOnBudgetExceededListener(new MemoryBudgets.OnBudgetExceededListener() {
+            @Override
+            public void onBudgetExceeded(int category, long usage, long budget) {
+                synchronized (exceeded) {
+                    exceeded.add(category);
+                }
+            }
+        });
+        StrokeRenderer renderer = createRenderer(budgets);
+        assertEquals(CheckpointHistory.DEFAULT_MEMORY_BUDGET,
+                budgets.getBudget(MemoryBudgets.CHECKPOINTS));
+        for (int i = 0; i < 100; i++) {
+            renderer.addStroke(i % 4, mStrokes[i], 0, mStrokes[i].length, true);
+        }
+        budgets.setBudget(MemoryBudgets.TILES, TileStore.TILE_BYTES);
+        renderer.measureMemory();
+        // Measuring publishes no frame, so wait for a command that does
+        renderer.undo();
+        renderer.waitForIdle();
+        renderer.quit();
+
+        assertTrue(budgets.getUsage(MemoryBudgets.TILES) > TileStore.TILE_BYTES);
+        assertTrue(budgets.getUsage(MemoryBudgets.RENDER_HISTORY) > 0);
+        assertEquals(0, budgets.getUsage(MemoryBudgets.STROKE_BITMAPS));
+        synchronized (exceeded) {
+            assertEquals(Arrays.asList(MemoryBudgets.TILES), exceeded);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ThumbnailLoaderTest extends AndroidTestCase {
+    private File mFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFolder = new File(getContext().getCacheDir(), "thumbnail-test");
+        deleteFolder();
+        assertTrue(mFolder.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFolder();
+        super.tearDown();
+    }
+
+    private void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    File[] thumbnails = file.listFiles();
+                    for (File thumbnail : thumbnails) {
+                        thumbnail.delete();
+                    }
+                }
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    private File writeImage(String name, int width, int height, int color) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        File file = new File(mFolder, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            assertTrue(bitmap.compress(Bitmap.CompressFormat.PNG, 100, output));
+        } finally {
+            output.close();
+        }
+        bitmap.recycle();
+        return file;
+    }
+
+    public void testSampleSize() {
+        assertEquals(1, ThumbnailLoader.getSampleSize(100, 100, 100));
+        assertEquals(1, ThumbnailLoader.getSampleSize(199, 400, 100));
+        assertEquals(2, ThumbnailLoader.getSampleSize(200, 400, 100));
+        assertEquals(8, ThumbnailLoader.getSampleSize(1080, 1920, 120));
+        assertEquals(1, ThumbnailLoader.getSampleSize(50, 50, 100));
+    }
+
+    public void testDecodeCropsToSquare() throws IOException {
+        File image = writeImage("drawing.png", 1080, 1920, Color.RED);
+        Bitmap thumbnail = ThumbnailLoader.decode(image, 120, new BitmapFactory.Options());
+        assertNotNull(thumbnail);
+        assertEquals(120, thumbnail.getWidth());
+        assertEquals(120, thumbnail.getHeight());
+        assertEquals(Color.RED, thumbnail.getPixel(60, 60));
+
+        File broken = new File(mFolder, "broken.png");
+        assertTrue(broken.createNewFile());
+        assertNull(ThumbnailLoader.decode(broken, 120, new BitmapFactory.Options()));
+    }
+
+    public void testDiskCache() throws IOException {
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(new File(mFolder, "thumbnails"),
+                ThumbnailDiskCache.DEFAULT_DISK_BUDGET);
+        File image = writeImage("drawing.png", 300, 300, Color.BLUE);
+        assertNull(cache.get(image, new BitmapFactory.Options()));
+
+        cache.put(image, ThumbnailLoader.decode(image, 100, new BitmapFactory.Options()));
+        assertTrue(cache.getDiskUsage() > 0);
+        Bitmap thumbnail = cache.get(image, new BitmapFactory.Options());
+        assertNotNull(thumbnail);
+        assertEquals(100, thumbnail.getWidth());
+
+        // A changed image needs a new thumbnail
+        assertTrue(image.setLastModified(image.lastModified() - 60000));
+        assertNull(cache.get(image, new BitmapFactory.Options()));
+    }
+
+    public void testDiskCacheStaysWithinBudget() throws IOException {
+        File folder = new File(mFolder, "thumbnails");
+        Bitmap thumbnail = Bitmap.createBitmap(100, 100, Bitmap.Config.RGB_565);
+        ThumbnailDiskCache cache = new ThumbnailDiskCache(folder, 4096);
+        for (int i = 0; i < 50; i++) {
+            cache.put(writeImage("drawing" + i + ".png", 10, 10, Color.BLACK), thumbnail);
+        }
+        assertTrue(cache.getDiskUsage() <= 4096);
+        long length = 0;
+        for (File file : folder.listFiles()) {
+            length += file.length();
+        }
+        assertEquals(length, cache.getDiskUsage());
+    }
+}
@@ -0,0 +1,116 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.Random;
+
+public class TileDeltaHistoryTest extends AndroidTestCase {
+    private static final int SIZE = 1000;
+
+    private TileStore mTiles;
+    private Rect mAll;
+    private File mFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTiles = new TileStore(SIZE, SIZE);
+        mAll = new Rect(0, 0, SIZE, SIZE);
+        mFolder = new File(getContext().getCacheDir(), "tile-delta-test");
+        draw(new Random(18), 200);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+        super.tearDown();
+    }
+
+    private void draw(Random random, int strokes) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(8);
+        Path path = new Path();
+        for (int i = 0; i < strokes; i++) {
+            paint.setColor(0xFF000000 | random.nextInt(0x1000000));
+            path.rewind();
+            // Kept off the right edge, so some tiles stay empty
+            path.moveTo(random.nextFloat() * SIZE / 2, random.nextFloat() * SIZE);
+            path.lineTo(random.nextFloat() * SIZE / 2, random.nextFloat() * SIZE);
+            mTiles.drawPath(path, paint, 6);
+        }
+    }
+
+    private Bitmap render() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mTiles.snapshot().draw(new Canvas(bitmap), null);
+        return bitmap;
+    }
+
+    public void testRestoresClearedTiles() {
+        Bitmap before = render();
+        int allocated = mTiles.getAllocatedTileCount();
+        TileDeltaHistory deltas = new TileDeltaHistory();
+        deltas.record(3, mTiles, mAll);
+        mTiles.clear();
+        draw(new Random(1), 50);
+
+        assertTrue(deltas.getMemoryUsage() > 0);
+        // Compressed well below the raw pixels
+        assertTrue(deltas.getMemoryUsage() < (long) allocated * TileStore.TILE_BYTES / 4);
+        assertFalse(deltas.restore(2, mTiles));
+        assertTrue(deltas.restore(3, mTiles));
+        assertEquals(allocated, mTiles.getAllocatedTileCount());
+        assertTrue(render().sameAs(before));
+    }
+
+    public void testSpillsOverBudget() {
+        Bitmap before = render();
+        TileDeltaHistory deltas = new TileDeltaHistory();
+        deltas.setSpillFolder(mFolder);
+        deltas.record(0, mTiles, mAll);
+        deltas.record(1, mTiles, mAll);
+        deltas.setMemoryBudget(deltas.getMemoryUsage() / 2);
+        assertEquals(1, deltas.getSpilledCount());
+        assertEquals(1, mFolder.listFiles().length);
+
+        mTiles.clear();
+        assertTrue(deltas.restore(0, mTiles));
+        assertTrue(render().sameAs(before));
+
+        deltas.truncate(1);
+        assertEquals(1, deltas.size());
+        deltas.clear();
+        assertEquals(0, mFolder.listFiles().length);
+    }
+
+    public void testDropsOverBudgetWithoutSpillFolder() {
+        TileDeltaHistory deltas = new TileDeltaHistory();
+        deltas.record(0, mTiles, mAll);
+        deltas.setMemoryBudget(0);
+        assertEquals(0, deltas.size());
+        assertFalse(deltas.restore(0, mTiles));
+    }
+
+    public void testRestoresOnlyTheRecordedArea() {
+        Rect area = new Rect(0, 0, TileStore.TILE_SIZE, TileStore.TILE_SIZE);
+        TileDeltaHistory deltas = new TileDeltaHistory();
+        deltas.record(0, mTiles, area);
+        Bitmap before = render();
+        mTiles.clearRect(area);
+        assertTrue(deltas.restore(0, mTiles));
+        assertTrue(render().sameAs(before));
+    }
+}
@@ -0,0 +1,187 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshots of the committed tiles taken every few strokes (or every few
+ * milliseconds of drawing cost), so undo only has to replay the strokes drawn
+ * after the nearest snapshot instead of the whole history.
+ */
+class CheckpointHistory {
+    public static final int DEFAULT_STROKE_INTERVAL = 25;
+    public static final long DEFAULT_COST_INTERVAL_MS = 40;
+    public static final long DEFAULT_MEMORY_BUDGET = 32 * 1024 * 1024;
+
+    private static class Checkpoint {
+        final int strokeCount;
+        final TileStore.Snapshot snapshot;
+
+        Checkpoint(int strokeCount, TileStore.Snapshot snapshot) {
+            this.strokeCount = strokeCount;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final TileStore mTiles;
+    private final List<Checkpoint> mCheckpoints;
+
+    private long[] mStrokeCosts;
+    private int mStrokeInterval;
+    private long mCostIntervalNanos;
+    private long mMemoryBudget;
+
+    CheckpointHistory(TileStore tiles) {
+        mTiles = tiles;
+        mCheckpoints = new ArrayList<>();
+        mStrokeCosts = new long[64];
+        mStrokeInterval = DEFAULT_STROKE_INTERVAL;
+        mCostIntervalNanos = DEFAULT_COST_INTERVAL_MS * 1000000L;
+        mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    }
+
+    public void setStrokeInterval(int strokes) {
+        mStrokeInterval = Math.max(1, strokes);
+    }
+
+    public void setCostInterval(long millis) {
+        mCostIntervalNanos = millis * 1000000L;
+    }
+
+    /**
+     * Limits the memory held by snapshots. At least one checkpoint is always
+     * kept once taken, whatever the budget.
+     */
+    public void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+        trimToBudget();
+    }
+
+    public int getCheckpointCount() {
+        return mCheckpoints.size();
+    }
+
+    /**
+     * @return the bytes held by the tiles of the checkpoints that are no
+     * longer part of the live drawing
+     */
+    public long getMemoryUsage() {
+        Map<Bitmap, Boolean> counted = TileStore.newMemoryCounter();
+        mTiles.countMemory(counted);
+        long bytes = 0;
+        for (Checkpoint checkpoint : mCheckpoints) {
+            bytes += checkpoint.snapshot.countMemory(counted);
+        }
+        return bytes;
+    }
+
+    /**
+     * Records that the stroke bringing the history to {@code strokeCount}
+     * strokes has just been drawn on the tiles, taking {@code costNanos} to
+     * rasterize, and snapshots them when enough strokes or drawing time have
+     * accumulated since the last checkpoint.
+     */
+    public void onStrokeCommitted(int strokeCount, long costNanos) {
+        int index = strokeCount - 1;
+        if (index >= mStrokeCosts.length) {
+            long[] costs = new long[Math.max(index + 1, mStrokeCosts.length * 2)];
+            System.arraycopy(mStrokeCosts, 0, costs, 0, mStrokeCosts.length);
+            mStrokeCosts = costs;
+        }
+        mStrokeCosts[index] = costNanos;
+
+        int base = findCheckpoint(strokeCount);
+        int since = base < 0 ? 0 : mCheckpoints.get(base).strokeCount;
+        if (since == strokeCount) {
+            // Redo brought us back onto a state we already have a snapshot of
+            return;
+        }
+
+        long cost = 0;
+        for (int i = since; i < strokeCount; i++) {
+            cost += mStrokeCosts[i];
+        }
+        if (strokeCount - since >= mStrokeInterval || cost >= mCostIntervalNanos) {
+            mCheckpoints.add(base + 1, new Checkpoint(strokeCount, mTiles.snapshot()));
+            trimToBudget();
+        }
+    }
+
+    /**
+     * @return the number of strokes {@link #restore(int)} would bring back
+     * without replaying them
+     */
+    public int getRestorePoint(int strokeCount) {
+        int index = findCheckpoint(strokeCount);
+        return index < 0 ? 0 : mCheckpoints.get(index).strokeCount;
+    }
+
+    /**
+     * Restores the tiles to the nearest checkpoint at or below
+     * {@code strokeCount}, or to a blank page if there is none.
+     *
+     * @return the number of strokes already contained in the restored tiles,
+     * i.e. the index of the first stroke that still has to be replayed
+     */
+    public int restore(int strokeCount) {
+        int index = findCheckpoint(strokeCount);
+        if (index < 0) {
+            mTiles.clear();
+            return 0;
+        }
+        Checkpoint checkpoint = mCheckpoints.get(index);
+        mTiles.restore(checkpoint.snapshot);
+        return checkpoint.strokeCount;
+    }
+
+    /**
+     * Drops every checkpoint past {@code strokeCount}; to be called when the
+     * strokes that could have been redone are thrown away.
+     */
+    public void truncate(int strokeCount) {
+        for (int i = mCheckpoints.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = mCheckpoints.get(i);
+            if (checkpoint.strokeCount <= strokeCount) {
+                break;
+            }
+            mCheckpoints.remove(i);
+        }
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    private int findCheckpoint(int strokeCount) {
+        for (int i = mCheckpoints.size() - 1; i >= 0; i--) {
+            if (mCheckpoints.get(i).strokeCount <= strokeCount) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Thins out the checkpoints until they fit in the budget, each time
+     * dropping the one whose removal opens the smallest gap in the history,
+     * so undo cost stays spread evenly instead of growing towards the start.
+     */
+    private void trimToBudget() {
+        while (mCheckpoints.size() > 1 && getMemoryUsage() > mMemoryBudget) {
+            int victim = 0;
+            int smallestGap = Integer.MAX_VALUE;
+            for (int i = 0; i < mCheckpoints.size() - 1; i++) {
+                int previous = i == 0 ? 0 : mCheckpoints.get(i - 1).strokeCount;
+                int gap = mCheckpoints.get(i + 1).strokeCount - previous;
+                if (gap < smallestGap) {
+                    smallestGap = gap;
+                    victim = i;
+                }
+            }
+            mCheckpoints.remove(victim);
+        }
+    }
+}
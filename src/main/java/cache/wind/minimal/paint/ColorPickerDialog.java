@@ -20,22 +20,27 @@ package cache.wind.minimal.paint;
 import android.annotation.SuppressLint;
 import android.app.Dialog;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.RectF;
 import android.graphics.Shader;
-import android.graphics.SweepGradient;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.view.Display;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 
+import java.lang.ref.SoftReference;
+
 @SuppressLint("ClickableViewAccessibility")
 class ColorPickerDialog extends Dialog {
 
@@ -60,196 +65,358 @@ class ColorPickerDialog extends Dialog {
         void colorChanged(int color);
     }
 
+    /**
+     * Everything the picker draws that doesn't depend on the picked color,
+     * rendered once off the main thread: the wheel at full value, ramps of
+     * coverage that are tinted when drawn, and a checkerboard to show
+     * transparency against.
+     */
+    private static class PickerBitmaps {
+        final int wheelSize;
+        final Bitmap wheel;
+        // Coverage from full on the left to none on the right
+        final Bitmap fallingRamp;
+        // Coverage from none on the left to full on the right
+        final Bitmap risingRamp;
+        final Bitmap checker;
+
+        PickerBitmaps(int wheelSize, int checkerCell) {
+            this.wheelSize = wheelSize;
+            int[] pixels = new int[wheelSize * wheelSize];
+            HsvWheel.render(pixels, wheelSize);
+            wheel = Bitmap.createBitmap(pixels, wheelSize, wheelSize, Bitmap.Config.ARGB_8888);
+
+            int[] ramp = new int[256];
+            for (int i = 0; i < ramp.length; i++) {
+                ramp[i] = (255 - i) << 24;
+            }
+            fallingRamp = extractAlpha(ramp);
+            for (int i = 0; i < ramp.length; i++) {
+                ramp[i] = i << 24;
+            }
+            risingRamp = extractAlpha(ramp);
+
+            int[] squares = new int[4 * checkerCell * checkerCell];
+            for (int y = 0; y < 2 * checkerCell; y++) {
+                for (int x = 0; x < 2 * checkerCell; x++) {
+                    boolean dark = (x < checkerCell) == (y < checkerCell);
+                    squares[y * 2 * checkerCell + x] = dark ? 0xFFCCCCCC : Color.WHITE;
+                }
+            }
+            checker = Bitmap.createBitmap(squares, 2 * checkerCell, 2 * checkerCell,
+                    Bitmap.Config.ARGB_8888);
+        }
+
+        private static Bitmap extractAlpha(int[] ramp) {
+            Bitmap pixels = Bitmap.createBitmap(ramp, ramp.length, 1, Bitmap.Config.ARGB_8888);
+            Bitmap coverage = pixels.extractAlpha();
+            pixels.recycle();
+            return coverage;
+        }
+    }
+
+    /**
+     * Picks the hue and saturation on a wheel, then the value and the alpha
+     * on two strips below it; tapping the swatch of the old and new colors
+     * picks the new one.
+     */
     private static class ColorPickerView extends View {
-        private final int CENTER_X;
-        private final int CENTER_Y;
-        private final int CENTER_RADIUS;
-        private final Paint mPaint;
-        private final Paint mCenterPaint;
-        private final int[] mColors;
+        private static final int TARGET_NONE = 0;
+        private static final int TARGET_WHEEL = 1;
+        private static final int TARGET_VALUE = 2;
+        private static final int TARGET_ALPHA = 3;
+        private static final int TARGET_SWATCH = 4;
+
+        // Kept for the next time the picker opens, unless memory runs short
+        private static SoftReference<PickerBitmaps> sBitmaps;
+
         private final OnColorChangedListener mListener;
-        private boolean mTrackingCenter;
-        private boolean mHighlightCenter;
+        private final int mWidth;
+        private final int mHeight;
+        private final float mCenterX;
+        private final float mCenterY;
+        private final float mRadius;
+        private final float mMarkerRadius;
+        private final int mCheckerCell;
+        private final RectF mValueRect;
+        private final RectF mAlphaRect;
+        private final RectF mSwatchRect;
+        private final RectF mOldSwatchRect;
+        private final RectF mNewSwatchRect;
+        private final RectF mMarkerRect;
+
+        private final Paint mBitmapPaint;
+        private final Paint mShadePaint;
+        private final Paint mFillPaint;
+        private final Paint mMarkerPaint;
+        private final Paint mCheckerPaint;
+        private PickerBitmaps mBitmaps;
+
+        private final int mOldColor;
+        private float mHue;
+        private float mSaturation;
+        private float mValue;
+        private int mAlpha;
+        private int mColor;
+        // Where the hue and saturation are on the wheel, from its center
+        private float mMarkerX;
+        private float mMarkerY;
+
+        private int mTarget;
+        private boolean mHighlightSwatch;
 
         ColorPickerView(Context c, OnColorChangedListener l, int color) {
             super(c);
             mListener = l;
-            mColors = new int[]{
-                    0xFFFF0000, 0xFFFF00FF, 0xFF0000FF, 0xFF00FFFF, 0xFF00FF00,
-                    0xFFFFFF00, 0xFFFF0000
-            };
-            Shader s = new SweepGradient(0, 0, mColors, null);
-
-            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mPaint.setShader(s);
-            mPaint.setStyle(Paint.Style.STROKE);
-            mPaint.setStrokeWidth(32);
-
-            mCenterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mCenterPaint.setColor(color);
-            mCenterPaint.setStrokeWidth(MainActivity.DEFAULT_BRUSH_SIZE);
 
             Display display = ((WindowManager) c.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+            int min;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
                 Point size = new Point();
                 display.getSize(size);
-
-                int min = (Math.min(size.x, size.y) - dip2px(c, 30)) / 2;
-                CENTER_X = min;
-                CENTER_Y = min;
-                CENTER_RADIUS = min / 2;
+                min = Math.min(size.x, size.y);
             } else {
                 //noinspection deprecation
-                int min = (Math.min(display.getWidth(), display.getHeight()) - dip2px(c, 30)) / 2;
-                CENTER_X = min;
-                CENTER_Y = min;
-                CENTER_RADIUS = min / 2;
+                min = Math.min(display.getWidth(), display.getHeight());
+            }
+            int padding = dip2px(c, 16);
+            int stripHeight = dip2px(c, 32);
+            mWidth = min - dip2px(c, 30);
+            int wheelSize = mWidth - 2 * padding;
+            mRadius = wheelSize / 2f;
+            mCenterX = mWidth / 2f;
+            mCenterY = padding + mRadius;
+            mMarkerRadius = dip2px(c, 8);
+            mCheckerCell = dip2px(c, 6);
+            float top = padding + wheelSize + padding;
+            mValueRect = new RectF(padding, top, mWidth - padding, top + stripHeight);
+            top = mValueRect.bottom + padding;
+            mAlphaRect = new RectF(padding, top, mWidth - padding, top + stripHeight);
+            top = mAlphaRect.bottom + padding;
+            mSwatchRect = new RectF(padding, top, mWidth - padding, top + 2 * stripHeight);
+            mOldSwatchRect = new RectF(mSwatchRect);
+            mOldSwatchRect.right = mSwatchRect.centerX();
+            mNewSwatchRect = new RectF(mSwatchRect);
+            mNewSwatchRect.left = mSwatchRect.centerX();
+            mMarkerRect = new RectF();
+            mHeight = (int) mSwatchRect.bottom + padding;
+
+            mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            mShadePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+            mShadePaint.setColor(Color.BLACK);
+            mFillPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mMarkerPaint.setStyle(Paint.Style.STROKE);
+            mCheckerPaint = new Paint();
+
+            mOldColor = color;
+            float[] hsv = new float[3];
+            HsvWheel.toHsv(color, hsv);
+            mHue = hsv[0];
+            mSaturation = hsv[1];
+            mValue = hsv[2];
+            mAlpha = Color.alpha(color);
+            double radians = Math.toRadians(mHue);
+            mMarkerX = (float) (Math.cos(radians) * mSaturation * mRadius);
+            mMarkerY = (float) (Math.sin(radians) * mSaturation * mRadius);
+            updateColor();
+
+            PickerBitmaps bitmaps = sBitmaps != null ? sBitmaps.get() : null;
+            if (bitmaps != null && bitmaps.wheelSize == wheelSize) {
+                setBitmaps(bitmaps);
+            } else {
+                renderBitmaps(wheelSize);
             }
         }
 
-        @Override
-        protected void onDraw(Canvas canvas) {
-
-            float r = CENTER_X - mPaint.getStrokeWidth() * 0.5f - dip2px(getContext(), 30);
-
-            canvas.translate(CENTER_X, CENTER_X);
-
-            canvas.drawOval(new RectF(-r, -r, r, r), mPaint);
-            canvas.drawCircle(0, 0, CENTER_RADIUS, mCenterPaint);
-
-            if (mTrackingCenter) {
-                int c = mCenterPaint.getColor();
-                mCenterPaint.setStyle(Paint.Style.STROKE);
-
-                if (mHighlightCenter) {
-                    mCenterPaint.setAlpha(0xFF);
-                } else {
-                    mCenterPaint.setAlpha(0x80);
+        private void renderBitmaps(final int wheelSize) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            final int checkerCell = mCheckerCell;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    final PickerBitmaps bitmaps = new PickerBitmaps(wheelSize, checkerCell);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            sBitmaps = new SoftReference<>(bitmaps);
+                            setBitmaps(bitmaps);
+                        }
+                    });
                 }
-                canvas.drawCircle(0, 0,
-                        CENTER_RADIUS + mCenterPaint.getStrokeWidth(),
-                        mCenterPaint);
-
-                mCenterPaint.setStyle(Paint.Style.FILL);
-                mCenterPaint.setColor(c);
-            }
+            }, "ColorPickerBitmaps");
+            thread.setDaemon(true);
+            thread.start();
         }
 
-        @Override
-        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-            setMeasuredDimension(CENTER_X * 2, CENTER_Y * 2);
+        private void setBitmaps(PickerBitmaps bitmaps) {
+            mBitmaps = bitmaps;
+            mCheckerPaint.setShader(new BitmapShader(bitmaps.checker, Shader.TileMode.REPEAT,
+                    Shader.TileMode.REPEAT));
+            invalidate();
         }
 
-        private int floatToByte(float x) {
-            return Math.round(x);
+        private void updateColor() {
+            mColor = HsvWheel.toColor(mAlpha, mHue, mSaturation, mValue);
+            invalidate();
         }
 
-        private int pinToByte(int n) {
-            if (n < 0) {
-                n = 0;
-            } else if (n > 255) {
-                n = 255;
+        @Override
+        protected void onDraw(Canvas canvas) {
+            // Drawn while dragging, so nothing here allocates
+            if (mBitmaps != null) {
+                canvas.drawBitmap(mBitmaps.wheel, mCenterX - mRadius, mCenterY - mRadius, mBitmapPaint);
+                mShadePaint.setAlpha((int) ((1 - mValue) * 255 + 0.5f));
+                canvas.drawCircle(mCenterX, mCenterY, mRadius, mShadePaint);
+                mShadePaint.setAlpha(0xFF);
+
+                // The strips show what moving along them would pick
+                mFillPaint.setColor(HsvWheel.toColor(0xFF, mHue, mSaturation, 1));
+                canvas.drawRect(mValueRect, mFillPaint);
+                canvas.drawBitmap(mBitmaps.fallingRamp, null, mValueRect, mShadePaint);
+                canvas.drawRect(mAlphaRect, mCheckerPaint);
+                mFillPaint.setColor(mColor | 0xFF000000);
+                canvas.drawBitmap(mBitmaps.risingRamp, null, mAlphaRect, mFillPaint);
+                canvas.drawRect(mSwatchRect, mCheckerPaint);
+            }
+            mFillPaint.setColor(mOldColor);
+            canvas.drawRect(mOldSwatchRect, mFillPaint);
+            mFillPaint.setColor(mColor);
+            canvas.drawRect(mNewSwatchRect, mFillPaint);
+
+            float x = mCenterX + mMarkerX;
+            float y = mCenterY + mMarkerY;
+            mMarkerRect.set(x - mMarkerRadius, y - mMarkerRadius, x + mMarkerRadius, y + mMarkerRadius);
+            drawMarker(canvas, mMarkerRect, true);
+            x = mValueRect.left + mValue * mValueRect.width();
+            mMarkerRect.set(x - mMarkerRadius / 3, mValueRect.top, x + mMarkerRadius / 3, mValueRect.bottom);
+            drawMarker(canvas, mMarkerRect, false);
+            x = mAlphaRect.left + mAlpha / 255f * mAlphaRect.width();
+            mMarkerRect.set(x - mMarkerRadius / 3, mAlphaRect.top, x + mMarkerRadius / 3, mAlphaRect.bottom);
+            drawMarker(canvas, mMarkerRect, false);
+            if (mTarget == TARGET_SWATCH && mHighlightSwatch) {
+                drawMarker(canvas, mSwatchRect, false);
             }
-            return n;
-        }
-
-        private int ave(int s, int d, float p) {
-            return s + Math.round(p * (d - s));
         }
 
-        private int interpColor(int colors[], float unit) {
-            if (unit <= 0) {
-                return colors[0];
+        /**
+         * Outlines {@code bounds} in white over black, to show on any color.
+         */
+        private void drawMarker(Canvas canvas, RectF bounds, boolean oval) {
+            mMarkerPaint.setColor(Color.BLACK);
+            mMarkerPaint.setStrokeWidth(mMarkerRadius / 2);
+            if (oval) {
+                canvas.drawOval(bounds, mMarkerPaint);
+            } else {
+                canvas.drawRect(bounds, mMarkerPaint);
             }
-            if (unit >= 1) {
-                return colors[colors.length - 1];
+            mMarkerPaint.setColor(Color.WHITE);
+            mMarkerPaint.setStrokeWidth(mMarkerRadius / 4);
+            if (oval) {
+                canvas.drawOval(bounds, mMarkerPaint);
+            } else {
+                canvas.drawRect(bounds, mMarkerPaint);
             }
-
-            float p = unit * (colors.length - 1);
-            int i = (int) p;
-            p -= i;
-
-            // now p is just the fractional part [0...1) and i is the index
-            int c0 = colors[i];
-            int c1 = colors[i + 1];
-            int a = ave(Color.alpha(c0), Color.alpha(c1), p);
-            int r = ave(Color.red(c0), Color.red(c1), p);
-            int g = ave(Color.green(c0), Color.green(c1), p);
-            int b = ave(Color.blue(c0), Color.blue(c1), p);
-
-            return Color.argb(a, r, g, b);
         }
 
-        @SuppressWarnings("unused")
-        private int rotateColor(int color, float rad) {
-            float deg = rad * 180 / 3.1415927f;
-            int r = Color.red(color);
-            int g = Color.green(color);
-            int b = Color.blue(color);
-
-            ColorMatrix cm = new ColorMatrix();
-            ColorMatrix tmp = new ColorMatrix();
-
-            cm.setRGB2YUV();
-            tmp.setRotate(0, deg);
-            cm.postConcat(tmp);
-            tmp.setYUV2RGB();
-            cm.postConcat(tmp);
-
-            final float[] a = cm.getArray();
-
-            int ir = floatToByte(a[0] * r + a[1] * g + a[2] * b);
-            int ig = floatToByte(a[5] * r + a[6] * g + a[7] * b);
-            int ib = floatToByte(a[10] * r + a[11] * g + a[12] * b);
-
-            return Color.argb(Color.alpha(color), pinToByte(ir),
-                    pinToByte(ig), pinToByte(ib));
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            setMeasuredDimension(mWidth, mHeight);
         }
 
-        private static final float PI = 3.1415926f;
-
         @Override
         public boolean onTouchEvent(@NonNull MotionEvent event) {
-            float x = event.getX() - CENTER_X;
-            float y = event.getY() - CENTER_Y;
-            boolean inCenter = Math.sqrt(x * x + y * y) <= CENTER_RADIUS;
+            float x = event.getX();
+            float y = event.getY();
 
-            switch (event.getAction()) {
+            switch (event.getActionMasked()) {
                 case MotionEvent.ACTION_DOWN:
-                    mTrackingCenter = inCenter;
-                    if (inCenter) {
-                        mHighlightCenter = true;
-                        invalidate();
-                        break;
-                    }
+                    mTarget = findTarget(x, y);
+                    invalidate();
+                    // fall through
                 case MotionEvent.ACTION_MOVE:
-                    if (mTrackingCenter) {
-                        if (mHighlightCenter != inCenter) {
-                            mHighlightCenter = inCenter;
-                            invalidate();
-                        }
+                    pick(x, y);
+                    break;
+                case MotionEvent.ACTION_UP:
+                    if (mTarget == TARGET_SWATCH && mSwatchRect.contains(x, y)) {
+                        mListener.colorChanged(mColor);
+                    }
+                    mTarget = TARGET_NONE;    // so we draw w/o highlight
+                    invalidate();
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    mTarget = TARGET_NONE;
+                    invalidate();
+                    break;
+            }
+            return true;
+        }
+
+        private int findTarget(float x, float y) {
+            float dx = x - mCenterX;
+            float dy = y - mCenterY;
+            float reach = mRadius + mMarkerRadius;
+            if (dx * dx + dy * dy <= reach * reach) {
+                return TARGET_WHEEL;
+            }
+            // Strips are easier to hit than they look
+            float slop = (mAlphaRect.top - mValueRect.bottom) / 2;
+            if (y >= mValueRect.top - slop && y < mValueRect.bottom + slop) {
+                return TARGET_VALUE;
+            }
+            if (y >= mAlphaRect.top - slop && y < mAlphaRect.bottom + slop) {
+                return TARGET_ALPHA;
+            }
+            if (mSwatchRect.contains(x, y)) {
+                return TARGET_SWATCH;
+            }
+            return TARGET_NONE;
+        }
+
+        private void pick(float x, float y) {
+            switch (mTarget) {
+                case TARGET_WHEEL:
+                    float dx = x - mCenterX;
+                    float dy = y - mCenterY;
+                    float squared = dx * dx + dy * dy;
+                    mHue = HsvWheel.getHue(dx, dy);
+                    if (squared >= mRadius * mRadius) {
+                        // Held to the rim
+                        float scale = mRadius / (float) Math.sqrt(squared);
+                        dx *= scale;
+                        dy *= scale;
+                        mSaturation = 1;
                     } else {
-                        float angle = (float) Math.atan2(y, x);
-                        // need to turn angle [-PI ... PI] into unit [0....1]
-                        float unit = angle / (2 * PI);
-                        if (unit < 0) {
-                            unit += 1;
-                        }
-                        mCenterPaint.setColor(interpColor(mColors, unit));
-                        invalidate();
+                        mSaturation = (float) Math.sqrt(squared) / mRadius;
                     }
+                    mMarkerX = dx;
+                    mMarkerY = dy;
+                    updateColor();
                     break;
-                case MotionEvent.ACTION_UP:
-                    if (mTrackingCenter) {
-                        if (inCenter) {
-                            mListener.colorChanged(mCenterPaint.getColor());
-                        }
-                        mTrackingCenter = false;    // so we draw w/o halo
+                case TARGET_VALUE:
+                    mValue = getUnit(x, mValueRect);
+                    updateColor();
+                    break;
+                case TARGET_ALPHA:
+                    mAlpha = (int) (getUnit(x, mAlphaRect) * 255 + 0.5f);
+                    updateColor();
+                    break;
+                case TARGET_SWATCH:
+                    boolean inSwatch = mSwatchRect.contains(x, y);
+                    if (mHighlightSwatch != inSwatch) {
+                        mHighlightSwatch = inSwatch;
                         invalidate();
                     }
                     break;
             }
-            return true;
+        }
+
+        /**
+         * @return how far along {@code strip} {@code x} is, from 0 to 1
+         */
+        private static float getUnit(float x, RectF strip) {
+            return Math.max(0, Math.min(1, (x - strip.left) / strip.width()));
         }
 
         private int dip2px(Context context, float dpValue) {
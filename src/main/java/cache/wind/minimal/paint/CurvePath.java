@@ -0,0 +1,9 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Path;
+
+/**
+ * A path strokes can be traced into with {@link StrokeCurve}.
+ */
+class CurvePath extends Path implements StrokeCurve.Sink {
+}
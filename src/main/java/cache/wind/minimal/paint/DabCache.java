@@ -0,0 +1,129 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The dabs a {@link StampBrush} stamps strokes with: square coverage bitmaps
+ * of each brush tip, made once per size and tinted by the paint when drawn,
+ * so one dab serves every color.
+ * <p>
+ * Sizes are rounded up to a few buckets, and dabs are scaled down to the
+ * exact width when stamped. Only the most recently used dabs are kept. A
+ * cache is only ever used by one thread.
+ */
+class DabCache {
+    public static final int MAX_DAB_SIZE = 256;
+    private static final int MAX_DABS = 32;
+
+    // How much of its coverage an airbrush dab lays down at its center
+    private static final float SOFT_FLOW = 0.2f;
+    // How much of its coverage a textured dab lays down where its grain is thinnest
+    private static final float GRAIN_FLOOR = 0.4f;
+
+    private final LinkedHashMap<Integer, Bitmap> mDabs;
+
+    DabCache() {
+        mDabs = new LinkedHashMap<Integer, Bitmap>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+                // Not recycled, as a stroke in progress may still stamp with it
+                return size() > MAX_DABS;
+            }
+        };
+    }
+
+    /**
+     * @return the {@link Bitmap.Config#ALPHA_8} dab of {@code tip} for a dab
+     * {@code diameter} pixels wide on the target
+     */
+    public Bitmap getDab(int tip, float diameter) {
+        int size = getDabSize(diameter);
+        Integer key = (tip << 16) | size;
+        Bitmap dab = mDabs.get(key);
+        if (dab == null) {
+            Bitmap pixels = Bitmap.createBitmap(createDabPixels(tip, size), size, size,
+                    Bitmap.Config.ARGB_8888);
+            dab = pixels.extractAlpha();
+            pixels.recycle();
+            mDabs.put(key, dab);
+        }
+        return dab;
+    }
+
+    public int size() {
+        return mDabs.size();
+    }
+
+    public long getMemoryUsage() {
+        long bytes = 0;
+        for (Bitmap dab : mDabs.values()) {
+            bytes += (long) dab.getRowBytes() * dab.getHeight();
+        }
+        return bytes;
+    }
+
+    /**
+     * Drops every dab, without recycling them, like when they are evicted.
+     */
+    public void clear() {
+        mDabs.clear();
+    }
+
+    /**
+     * @return the distance between dabs of {@code tip}, as a fraction of the
+     * brush width
+     */
+    static float getSpacing(int tip) {
+        // Grain shows best when dabs overlap less
+        return tip == BrushTable.TIP_TEXTURED ? 0.25f : 0.1f;
+    }
+
+    /**
+     * @return the size of the dab bitmap used for dabs {@code diameter}
+     * pixels wide: exact up to 16 pixels, then rounded up to an eighth of the
+     * power of two below it
+     */
+    static int getDabSize(float diameter) {
+        int size = Math.max(1, (int) Math.ceil(diameter));
+        if (size > 16) {
+            int step = Integer.highestOneBit(size) / 8;
+            size = (size + step - 1) / step * step;
+        }
+        return Math.min(MAX_DAB_SIZE, size);
+    }
+
+    /**
+     * @return the pixels of a {@code size} pixels wide dab of {@code tip}, as
+     * black with the coverage in the alpha channel
+     */
+    static int[] createDabPixels(int tip, int size) {
+        int[] pixels = new int[size * size];
+        float radius = size / 2f;
+        // Seeded by size, so a stroke always comes out with the same grain
+        Random grain = new Random(size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float dx = x + 0.5f - radius;
+                float dy = y + 0.5f - radius;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                float coverage;
+                if (tip == BrushTable.TIP_SOFT) {
+                    float falloff = Math.max(0, 1 - distance / radius);
+                    coverage = falloff * falloff * SOFT_FLOW;
+                } else {
+                    // Anti-aliased over the pixel the edge crosses
+                    coverage = Math.max(0, Math.min(1, radius - distance + 0.5f));
+                    if (tip == BrushTable.TIP_TEXTURED) {
+                        coverage *= GRAIN_FLOOR + (1 - GRAIN_FLOOR) * grain.nextFloat();
+                    }
+                }
+                pixels[y * size + x] = Math.round(coverage * 255) << 24;
+            }
+        }
+        return pixels;
+    }
+}
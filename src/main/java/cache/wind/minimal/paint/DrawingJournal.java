@@ -0,0 +1,585 @@
+package cache.wind.minimal.paint;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every change to the stroke history, so the drawing
+ * survives the process being killed.
+ * <p>
+ * Changes are queued by the UI thread and written by a background thread,
+ * which writes everything queued so far at once and syncs it to disk once
+ * per batch. Each record carries a checksum, so recovery replays the records
+ * up to the first torn or damaged one and ignores the rest.
+ * <p>
+ * Every so often the whole history is written as a {@link PaintDocument}
+ * snapshot and a new, empty journal is started next to it. Both files are
+ * numbered by generation, and a snapshot only ever replaces the previous
+ * generation once it is completely written, so recovery always finds the
+ * latest snapshot plus the journal of the changes made after it.
+ */
+class DrawingJournal {
+    private static final String TAG = "DrawingJournal";
+
+    public static final int DEFAULT_COMPACT_RECORDS = 500;
+
+    static final int MAGIC = 0x4D504A4C; // "MPJL"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    static final byte RECORD_STROKE = 1;
+    static final byte RECORD_UNDO = 2;
+    static final byte RECORD_REDO = 3;
+    static final byte RECORD_CLEAR = 4;
+    static final byte RECORD_DELETE = 5;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_EXTENSION = ".log";
+    // Where the last generation that could not be read is kept, for a look
+    private static final String DAMAGED_SNAPSHOT = "damaged" + PaintDocument.EXTENSION;
+    private static final String DAMAGED_JOURNAL = "damaged" + JOURNAL_EXTENSION;
+
+    private static class Compaction {
+        final StrokeLog log;
+        final BrushTable brushes;
+
+        Compaction(StrokeLog log, BrushTable brushes) {
+            this.log = log;
+            this.brushes = brushes;
+        }
+    }
+
+    /**
+     * Something for the writer thread to do once the records encoded before
+     * it are written.
+     */
+    private static class Task {
+        // A Compaction, a latch to count down, or STOP
+        final Object entry;
+        // Where the records encoded after it start
+        final int offset;
+
+        Task(Object entry, int offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+
+    private static final Object STOP = new Object();
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // The writer of the journal last recovered; a new one waits for it to finish
+    private static Thread sLastWriter;
+
+    private final File mFolder;
+    private final int mWidth;
+    private final int mHeight;
+    // Guards the records and tasks waiting for the writer thread
+    private final Object mLock;
+    // Records are encoded here by the UI thread; the writer swaps it with
+    // the buffer it last wrote, so neither is allocated per record
+    private ByteBuffer mPending;
+    private ByteBuffer mWritten;
+    private final List<Task> mTasks;
+    private int mRecordStart;
+    private final CRC32 mCrc;
+    private int mCompactRecords;
+    private int mRecordsSinceCompaction;
+    private Thread mWriter;
+
+    // Only touched by the writer thread once it is started
+    private int mGeneration;
+    private RandomAccessFile mJournal;
+
+    /**
+     * @param width  width of the drawing, recorded in snapshots
+     * @param height height of the drawing, recorded in snapshots
+     */
+    DrawingJournal(File folder, int width, int height) {
+        mFolder = folder;
+        mWidth = width;
+        mHeight = height;
+        mLock = new Object();
+        mPending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        mWritten = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        mTasks = new ArrayList<>();
+        mCrc = new CRC32();
+        mCompactRecords = DEFAULT_COMPACT_RECORDS;
+    }
+
+    public void setCompactRecords(int records) {
+        mCompactRecords = records;
+    }
+
+    /**
+     * Rebuilds the drawing left by the last run, folding any journaled
+     * changes into a new snapshot, and starts the writer thread. Must be
+     * called once, before anything is appended. If another journal was
+     * recovered before, waits for its writer to be closed and done.
+     *
+     * @return the snapshot to load into the view, or null for a blank drawing
+     */
+    public PaintDocument recover() throws IOException {
+        synchronized (DrawingJournal.class) {
+            if (sLastWriter != null) {
+                try {
+                    sLastWriter.join();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            PaintDocument document = recoverFiles();
+            sLastWriter = mWriter;
+            return document;
+        }
+    }
+
+    private PaintDocument recoverFiles() throws IOException {
+        int[] generations = new int[0];
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            generations = new int[files.length];
+            for (int i = 0; i < files.length; i++) {
+                generations[i] = getGeneration(files[i].getName(), SNAPSHOT_PREFIX, PaintDocument.EXTENSION);
+            }
+            Arrays.sort(generations);
+        }
+
+        // The newest snapshot that can be read, moving damaged ones out of
+        // the way so they don't fail every launch after this one
+        StrokeLog log = new StrokeLog();
+        BrushTable brushes = new BrushTable();
+        int generation = 0;
+        for (int i = generations.length - 1; i >= 0 && generations[i] >= 0; i--) {
+            try {
+                readDocument(PaintDocument.open(getSnapshotFile(generations[i])), log, brushes);
+                generation = generations[i];
+                break;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read snapshot " + generations[i], e);
+                moveAside(generations[i]);
+                log = new StrokeLog();
+                brushes = new BrushTable();
+            }
+        }
+        mGeneration = generation;
+        File journal = getJournalFile(generation);
+        if (journal.exists() && replay(journal, log, brushes) > 0) {
+            // The journal is about to be started over, so keep its changes in a snapshot
+            mGeneration = generation + 1;
+            PaintDocument.write(getSnapshotFile(mGeneration), log, brushes, mWidth, mHeight);
+        }
+        openJournal();
+        deleteOlderGenerations();
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                writeLoop();
+            }
+        }, TAG);
+        mWriter.setDaemon(true);
+        mWriter.start();
+
+        File snapshot = getSnapshotFile(mGeneration);
+        return snapshot.exists() ? PaintDocument.open(snapshot) : null;
+    }
+
+    /**
+     * Journals the addition of {@code stroke}, the latest one in {@code log}.
+     */
+    public void appendStroke(StrokeLog log, int stroke, BrushTable brushes) {
+        int brush = log.getBrush(stroke);
+        int start = log.getStart(stroke);
+        int end = log.getEnd(stroke);
+        synchronized (mLock) {
+            ByteBuffer record = beginRecord(RECORD_STROKE, 28 + 4 * (end - start));
+            record.putInt(brushes.getColor(brush));
+            record.putFloat(brushes.getWidth(brush));
+            record.putInt(brushes.getMaskFilter(brush));
+            record.putInt(brushes.getBlendMode(brush));
+            record.putInt(brushes.getTip(brush));
+            record.putInt(log.getSampledPointCount(stroke));
+            record.putInt(log.getPointCount(stroke));
+            float[] points = log.getPoints();
+            for (int i = start; i < end; i++) {
+                record.putFloat(points[i]);
+            }
+            endRecord();
+        }
+    }
+
+    /**
+     * Journals the deletion of the given strokes, as a new entry or as part of
+     * the deletion that is the latest entry.
+     */
+    public void appendDeletion(int[] strokes, int count, boolean extend) {
+        synchronized (mLock) {
+            ByteBuffer record = beginRecord(RECORD_DELETE, 5 + 4 * count);
+            record.put(extend ? (byte) 1 : 0);
+            record.putInt(count);
+            for (int i = 0; i < count; i++) {
+                record.putInt(strokes[i]);
+            }
+            endRecord();
+        }
+    }
+
+    public void appendUndo() {
+        appendEmpty(RECORD_UNDO);
+    }
+
+    public void appendRedo() {
+        appendEmpty(RECORD_REDO);
+    }
+
+    public void appendClear() {
+        appendEmpty(RECORD_CLEAR);
+    }
+
+    private void appendEmpty(byte type) {
+        synchronized (mLock) {
+            beginRecord(type, 0);
+            endRecord();
+        }
+    }
+
+    /**
+     * @return true once enough records were appended since the last
+     * compaction that the journal should be folded into a snapshot
+     */
+    public boolean needsCompaction() {
+        return mRecordsSinceCompaction >= mCompactRecords;
+    }
+
+    public int getRecordsSinceCompaction() {
+        return mRecordsSinceCompaction;
+    }
+
+    /**
+     * Replaces the journal with a snapshot of {@code log} and {@code brushes},
+     * which must hold the result of every change appended so far. They are
+     * copied right away and written in the background.
+     */
+    public void compact(StrokeLog log, BrushTable brushes) {
+        mRecordsSinceCompaction = 0;
+        addTask(new Compaction(new StrokeLog(log), new BrushTable(brushes)));
+    }
+
+    /**
+     * Waits until everything appended so far is on disk.
+     */
+    public void flush() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        addTask(written);
+        written.await();
+    }
+
+    /**
+     * Stops the writer thread once everything appended so far is written.
+     */
+    public void close() {
+        addTask(STOP);
+    }
+
+    File getJournalFile() {
+        return getJournalFile(mGeneration);
+    }
+
+    /**
+     * Starts a record in the pending buffer, to be finished with
+     * {@link #endRecord()}; both with {@link #mLock} held.
+     *
+     * @return the buffer to put the {@code size} bytes of payload in
+     */
+    private ByteBuffer beginRecord(byte type, int size) {
+        int length = 4 + 1 + size + 4;
+        if (mPending.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(2 * mPending.capacity(), mPending.position() + length));
+            mPending.flip();
+            grown.put(mPending);
+            mPending = grown;
+        }
+        mRecordStart = mPending.position();
+        mPending.putInt(size);
+        mPending.put(type);
+        return mPending;
+    }
+
+    private void endRecord() {
+        // The checksum covers the type and the payload
+        int start = mRecordStart + 4;
+        mCrc.reset();
+        mCrc.update(mPending.array(), start, mPending.position() - start);
+        mPending.putInt((int) mCrc.getValue());
+        mRecordsSinceCompaction++;
+        mLock.notify();
+    }
+
+    private void addTask(Object entry) {
+        synchronized (mLock) {
+            mTasks.add(new Task(entry, mPending.position()));
+            mLock.notify();
+        }
+    }
+
+    private void writeLoop() {
+        List<Task> tasks = new ArrayList<>();
+        while (true) {
+            ByteBuffer records;
+            synchronized (mLock) {
+                while (mPending.position() == 0 && mTasks.isEmpty()) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // Group commit: whatever piled up while the last batch was synced goes out together
+                records = mPending;
+                mPending = mWritten;
+                mWritten = records;
+                tasks.addAll(mTasks);
+                mTasks.clear();
+            }
+            int offset = 0;
+            for (Task task : tasks) {
+                int from = offset;
+                offset = task.offset;
+                try {
+                    writeRecords(records, from, offset);
+                    if (task.entry instanceof Compaction) {
+                        writeSnapshot((Compaction) task.entry);
+                    } else if (task.entry instanceof CountDownLatch) {
+                        ((CountDownLatch) task.entry).countDown();
+                    } else if (task.entry == STOP) {
+                        mJournal.close();
+                        return;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write the journal", e);
+                }
+            }
+            tasks.clear();
+            try {
+                writeRecords(records, offset, records.position());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write the journal", e);
+            }
+            records.clear();
+        }
+    }
+
+    private void writeRecords(ByteBuffer records, int from, int to) throws IOException {
+        if (to > from) {
+            mJournal.write(records.array(), from, to - from);
+            mJournal.getFD().sync();
+        }
+    }
+
+    private void writeSnapshot(Compaction compaction) throws IOException {
+        int generation = mGeneration + 1;
+        PaintDocument.write(getSnapshotFile(generation), compaction.log, compaction.brushes, mWidth, mHeight);
+        // From here on recovery starts from the new snapshot
+        mJournal.close();
+        mGeneration = generation;
+        openJournal();
+        deleteOlderGenerations();
+    }
+
+    private void openJournal() throws IOException {
+        mJournal = new RandomAccessFile(getJournalFile(mGeneration), "rw");
+        mJournal.setLength(0);
+        mJournal.writeInt(MAGIC);
+        mJournal.writeInt(VERSION);
+        mJournal.getFD().sync();
+    }
+
+    /**
+     * Replaces the damaged files kept from before with the snapshot of
+     * {@code generation} and its journal, which only makes sense on top of it.
+     */
+    private void moveAside(int generation) {
+        File damagedSnapshot = new File(mFolder, DAMAGED_SNAPSHOT);
+        File damagedJournal = new File(mFolder, DAMAGED_JOURNAL);
+        damagedSnapshot.delete();
+        damagedJournal.delete();
+        File snapshot = getSnapshotFile(generation);
+        if (!snapshot.renameTo(damagedSnapshot)) {
+            snapshot.delete();
+        }
+        File journal = getJournalFile(generation);
+        if (journal.exists() && !journal.renameTo(damagedJournal)) {
+            journal.delete();
+        }
+    }
+
+    private void deleteOlderGenerations() {
+        File[] files = mFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int generation = Math.max(getGeneration(name, SNAPSHOT_PREFIX, PaintDocument.EXTENSION),
+                    getGeneration(name, JOURNAL_PREFIX, JOURNAL_EXTENSION));
+            if ((generation >= 0 && generation < mGeneration) || name.endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getSnapshotFile(int generation) {
+        return new File(mFolder, SNAPSHOT_PREFIX + generation + PaintDocument.EXTENSION);
+    }
+
+    private File getJournalFile(int generation) {
+        return new File(mFolder, JOURNAL_PREFIX + generation + JOURNAL_EXTENSION);
+    }
+
+    /**
+     * @return the generation in a file name made of {@code prefix}, a
+     * number and {@code extension}, or -1 if the name is not like that
+     */
+    private static int getGeneration(String name, String prefix, String extension) {
+        if (!name.startsWith(prefix) || !name.endsWith(extension)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - extension.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Adds every stroke of {@code document}, undone ones included, to
+     * {@code log}, and its brushes to {@code brushes}.
+     */
+    static void readDocument(PaintDocument document, StrokeLog log, BrushTable brushes) throws IOException {
+        int[] brushMap = new int[document.getBrushCount()];
+        for (int i = 0; i < brushMap.length; i++) {
+            brushMap[i] = brushes.intern(document.getBrushColor(i), document.getBrushWidth(i),
+                    document.getBrushMaskFilter(i), document.getBrushBlendMode(i),
+                    document.getBrushTip(i));
+        }
+        for (int chunk = 0; chunk < document.getChunkCount(); chunk++) {
+            document.readChunk(chunk, log, brushMap);
+        }
+        while (log.size() > document.getUndoPosition()) {
+            log.undo();
+        }
+    }
+
+    /**
+     * Applies the intact records of {@code journal} to {@code log} and
+     * {@code brushes}, stopping at the first torn or damaged one.
+     *
+     * @return the number of records applied
+     */
+    static int replay(File journal, StrokeLog log, BrushTable brushes) throws IOException {
+        byte[] bytes = new byte[(int) journal.length()];
+        RandomAccessFile input = new RandomAccessFile(journal, "r");
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            return 0;
+        }
+        if (buffer.getInt() != VERSION) {
+            return 0;
+        }
+
+        int records = 0;
+        CRC32 crc = new CRC32();
+        float[] points = new float[256];
+        int[] deleted = new int[16];
+        try {
+            while (buffer.remaining() > 0) {
+                int length = buffer.getInt();
+                if (length < 0 || length + 5 > buffer.remaining()) {
+                    break;
+                }
+                int start = buffer.position();
+                crc.reset();
+                crc.update(bytes, start, length + 1);
+                if ((int) crc.getValue() != buffer.getInt(start + length + 1)) {
+                    break;
+                }
+
+                byte type = buffer.get();
+                switch (type) {
+                    case RECORD_STROKE:
+                        int brush = brushes.intern(buffer.getInt(), buffer.getFloat(),
+                                buffer.getInt(), buffer.getInt(), buffer.getInt());
+                        int sampledCount = buffer.getInt();
+                        int count = 2 * buffer.getInt();
+                        if (points.length < count) {
+                            points = new float[count];
+                        }
+                        for (int i = 0; i < count; i++) {
+                            points[i] = buffer.getFloat();
+                        }
+                        log.add(brush, points, count, sampledCount);
+                        break;
+                    case RECORD_DELETE:
+                        boolean extend = buffer.get() != 0;
+                        int deletedCount = buffer.getInt();
+                        if (deleted.length < deletedCount) {
+                            deleted = new int[deletedCount];
+                        }
+                        int visible = 0;
+                        for (int i = 0; i < deletedCount; i++) {
+                            int stroke = buffer.getInt();
+                            if (stroke >= 0 && stroke < log.getStrokeCount() && log.isVisible(stroke)) {
+                                deleted[visible++] = stroke;
+                            }
+                        }
+                        int last = log.size() - 1;
+                        if (extend && last >= 0 && !log.canRedo() && log.isDeletion(last)) {
+                            log.extendDeletion(deleted, visible);
+                        } else if (visible > 0) {
+                            log.addDeletion(deleted, visible);
+                        }
+                        break;
+                    case RECORD_UNDO:
+                        if (log.canUndo()) {
+                            log.undo();
+                        }
+                        break;
+                    case RECORD_REDO:
+                        if (log.canRedo()) {
+                            log.redo();
+                        }
+                        break;
+                    case RECORD_CLEAR:
+                        log.clear();
+                        break;
+                }
+                buffer.position(start + length + 1 + 4);
+                records++;
+            }
+        } catch (BufferUnderflowException e) {
+            // A record whose checksum matched but whose contents don't; stop there
+        }
+        return records;
+    }
+}
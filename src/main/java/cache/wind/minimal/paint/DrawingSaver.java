@@ -0,0 +1,261 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Encodes and writes drawings, as images or documents, on a background thread. Saves are queued and
+ * handled one at a time; progress and results are reported on the main thread, until
+ * {@link #shutdown()}.
+ */
+class DrawingSaver {
+    // How many more bytes must be written before progress is reported again
+    private static final long PROGRESS_BYTES = 256 * 1024;
+
+    public interface Callback {
+        /**
+         * @param bytes how much of the image was encoded and written so far;
+         *              the final size is not known until it is done
+         */
+        void onSaveProgress(File file, long bytes);
+
+        void onSaveComplete(File file);
+
+        /**
+         * @param file the file that could not be written, or null if the
+         *             drawing could not even be given a name
+         */
+        void onSaveFailed(File file, IOException e);
+    }
+
+    public static class Options {
+        /**
+         * Pixel format the drawing is flattened to before encoding; RGB_565
+         * makes smaller files at the cost of banding in soft strokes.
+         */
+        public Bitmap.Config config = Bitmap.Config.ARGB_8888;
+        public CompressFormat format = CompressFormat.PNG;
+        public int quality = 100;
+    }
+
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+    // Only touched on the main thread
+    private boolean mShutDown;
+
+    DrawingSaver() {
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "DrawingSaver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Queues {@code snapshot} for saving into the screenshot folder; ignored
+     * after {@link #shutdown()}. Only to be called on the main thread.
+     */
+    public void save(final TileStore.Snapshot snapshot, final Options options, final Callback callback) {
+        if (mShutDown) {
+            return;
+        }
+        final Calendar time = Calendar.getInstance();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+                try {
+                    file = newFile(time, options.format == CompressFormat.JPEG ? ".jpg" : ".png");
+                    write(snapshot, options, file, callback);
+                    postComplete(file, callback);
+                } catch (IOException e) {
+                    postFailed(file, e, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the stroke history for saving as a {@link PaintDocument} into the
+     * screenshot folder. {@code log} and {@code brushes} are copied right away,
+     * so they can keep changing while the document is written. Ignored after
+     * {@link #shutdown()}; only to be called on the main thread.
+     */
+    public void saveDocument(StrokeLog log, BrushTable brushes, final int width, final int height,
+                             final Callback callback) {
+        if (mShutDown) {
+            return;
+        }
+        final Calendar time = Calendar.getInstance();
+        final StrokeLog strokes = new StrokeLog(log);
+        final BrushTable brushTable = new BrushTable(brushes);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+                try {
+                    file = newFile(time, PaintDocument.EXTENSION);
+                    PaintDocument.write(file, strokes, brushTable, width, height);
+                    postComplete(file, callback);
+                } catch (IOException e) {
+                    postFailed(file, e, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting saves; the ones already queued are still written, but
+     * their callbacks are dropped. Only to be called on the main thread.
+     */
+    public void shutdown() {
+        mShutDown = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mExecutor.shutdown();
+    }
+
+    private void write(TileStore.Snapshot snapshot, Options options, File file, Callback callback)
+            throws IOException {
+        // The view paints the page white under the committed strokes
+        Bitmap flat = Bitmap.createBitmap(snapshot.getWidth(), snapshot.getHeight(), options.config);
+        Canvas canvas = new Canvas(flat);
+        canvas.drawColor(Color.WHITE);
+        snapshot.draw(canvas, new Paint(Paint.DITHER_FLAG));
+
+        // Encoded straight into the file, as it goes
+        FileOutputStream output = new FileOutputStream(file);
+        boolean compressed = false;
+        try {
+            compressed = flat.compress(options.format, options.quality,
+                    new ProgressOutputStream(output, file, callback));
+            if (compressed) {
+                output.getFD().sync();
+            }
+        } finally {
+            output.close();
+            flat.recycle();
+            if (!compressed) {
+                file.delete();
+            }
+        }
+        if (!compressed) {
+            throw new IOException("Could not encode " + file.getName());
+        }
+    }
+
+    /**
+     * Reports how many bytes went through it every {@link #PROGRESS_BYTES}.
+     */
+    private class ProgressOutputStream extends FilterOutputStream {
+        private final File mFile;
+        private final Callback mCallback;
+        private long mWritten;
+        private long mReported;
+
+        ProgressOutputStream(OutputStream output, File file, Callback callback) {
+            super(output);
+            mFile = file;
+            mCallback = callback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            onWritten(1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            // Not byte by byte, as FilterOutputStream would
+            out.write(b, off, len);
+            onWritten(len);
+        }
+
+        private void onWritten(int bytes) {
+            mWritten += bytes;
+            if (mWritten - mReported >= PROGRESS_BYTES) {
+                mReported = mWritten;
+                postProgress(mFile, mWritten, mCallback);
+            }
+        }
+    }
+
+    /**
+     * Names the file after the time of the request, adding a counter when
+     * several saves were requested within the same second.
+     */
+    private static File newFile(Calendar cal, String extension) {
+        File path = Places.getScreenshotFolder();
+        String base = cal.get(Calendar.YEAR) + "_" + (1 + cal.get(Calendar.MONTH)) + "_"
+                + cal.get(Calendar.DAY_OF_MONTH) + "_"
+                + cal.get(Calendar.HOUR_OF_DAY) + "_"
+                + cal.get(Calendar.MINUTE) + "_" + cal.get(Calendar.SECOND);
+
+        // Saves run one at a time, so earlier ones already exist on disk
+        String name = base + extension;
+        for (int i = 1; new File(path, name).exists(); i++) {
+            name = base + "_" + i + extension;
+        }
+        return new File(path, name);
+    }
+
+    private void postProgress(final File file, final long bytes, final Callback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mShutDown) {
+                    callback.onSaveProgress(file, bytes);
+                }
+            }
+        });
+    }
+
+    private void postComplete(final File file, final Callback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mShutDown) {
+                    callback.onSaveComplete(file);
+                }
+            }
+        });
+    }
+
+    private void postFailed(final File file, final IOException e, final Callback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mShutDown) {
+                    callback.onSaveFailed(file, e);
+                }
+            }
+        });
+    }
+}
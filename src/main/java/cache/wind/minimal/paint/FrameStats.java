@@ -0,0 +1,160 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Times the drawing view: how long each frame takes to draw, how long each
+ * touch event takes to handle, and how long after its sample was taken a
+ * touch shows up in a frame.
+ * <p>
+ * The touch latency ends when the frame that first includes the sample is
+ * drawn, not when it reaches the screen, which takes about another frame.
+ * Everything is recorded without allocating, and may be shown over the
+ * drawing or written to a file to compare builds.
+ */
+class FrameStats {
+    private static final int MAX_PENDING_SAMPLES = 256;
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final TimingHistogram mDrawTimes;
+    private final TimingHistogram mEventTimes;
+    private final TimingHistogram mLatencies;
+    private final TimingHistogram mCommitTimes;
+
+    // Times of the touch samples not drawn yet, in uptime milliseconds
+    private final long[] mPendingSamples;
+    private int mPendingCount;
+
+    private final Paint mTextPaint;
+    private final Paint mBackgroundPaint;
+    private final StringBuilder mLine;
+    private char[] mChars;
+
+    /**
+     * @param commitTimes the stroke commit times the renderer records
+     */
+    FrameStats(TimingHistogram commitTimes, float textSize) {
+        mDrawTimes = new TimingHistogram();
+        mEventTimes = new TimingHistogram();
+        mLatencies = new TimingHistogram();
+        mCommitTimes = commitTimes;
+        mPendingSamples = new long[MAX_PENDING_SAMPLES];
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTypeface(Typeface.MONOSPACE);
+        mTextPaint.setTextSize(textSize);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(0xA0000000);
+        mLine = new StringBuilder(64);
+        mChars = new char[64];
+    }
+
+    /**
+     * Notes the times of the samples in {@code event}, before handling it.
+     */
+    public void onTouchEvent(MotionEvent event) {
+        for (int h = 0; h < event.getHistorySize(); h++) {
+            addPendingSample(event.getHistoricalEventTime(h));
+        }
+        addPendingSample(event.getEventTime());
+    }
+
+    private void addPendingSample(long time) {
+        // If nothing has been drawn for that long, the oldest samples tell enough
+        if (mPendingCount < mPendingSamples.length) {
+            mPendingSamples[mPendingCount++] = time;
+        }
+    }
+
+    public void recordEvent(long nanos) {
+        mEventTimes.record(nanos);
+    }
+
+    /**
+     * Records a frame drawn in {@code nanos}, which shows every touch sample
+     * noted so far.
+     */
+    public void recordFrame(long nanos) {
+        mDrawTimes.record(nanos);
+        long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < mPendingCount; i++) {
+            mLatencies.record((now - mPendingSamples[i]) * 1000000);
+        }
+        mPendingCount = 0;
+    }
+
+    /**
+     * Draws the percentiles in the top left corner of {@code canvas}.
+     */
+    public void drawOverlay(Canvas canvas) {
+        float lineHeight = mTextPaint.getFontSpacing();
+        float padding = lineHeight / 2;
+        canvas.drawRect(0, 0, lineHeight * 14, lineHeight * 5 + padding * 2, mBackgroundPaint);
+        float y = padding - mTextPaint.ascent();
+        mLine.setLength(0);
+        mLine.append("ms        p50   p95   p99");
+        drawLine(canvas, padding, y);
+        drawHistogram(canvas, "draw   ", mDrawTimes, padding, y += lineHeight);
+        drawHistogram(canvas, "event  ", mEventTimes, padding, y += lineHeight);
+        drawHistogram(canvas, "latency", mLatencies, padding, y += lineHeight);
+        drawHistogram(canvas, "commit ", mCommitTimes, padding, y + lineHeight);
+    }
+
+    private void drawHistogram(Canvas canvas, String name, TimingHistogram histogram, float x,
+                               float y) {
+        mLine.setLength(0);
+        mLine.append(name);
+        for (double percentile : PERCENTILES) {
+            long tenths = histogram.getPercentileNanos(percentile) / 100000;
+            mLine.append(' ');
+            // Right aligned in five characters
+            for (long width = 100; width <= 1000 && tenths < width; width *= 10) {
+                mLine.append(' ');
+            }
+            mLine.append(tenths / 10).append('.').append(tenths % 10);
+        }
+        drawLine(canvas, x, y);
+    }
+
+    private void drawLine(Canvas canvas, float x, float y) {
+        int length = mLine.length();
+        if (length > mChars.length) {
+            mChars = new char[length];
+        }
+        mLine.getChars(0, length, mChars, 0);
+        canvas.drawText(mChars, 0, length, x, y, mTextPaint);
+    }
+
+    /**
+     * Writes every histogram to {@code file}, headed by the device and build.
+     */
+    public void write(File file, String versionName) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writer.println("# version=" + versionName + " device=" + Build.MANUFACTURER + " "
+                    + Build.MODEL + " sdk=" + Build.VERSION.SDK_INT);
+            mDrawTimes.write(writer, "draw");
+            mEventTimes.write(writer, "event");
+            mLatencies.write(writer, "latency");
+            mCommitTimes.write(writer, "commit");
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Could not write " + file.getName());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package cache.wind.minimal.paint;
+
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.Toolbar;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.GridView;
+import android.widget.ImageView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The drawings saved in the screenshot folder, newest first, as a grid of
+ * thumbnails; tapping one opens it in an image viewer.
+ */
+public class GalleryActivity extends AppCompatActivity {
+    // Share of the heap the thumbnails in memory may take
+    private static final int MEMORY_SHARE = 8;
+
+    private ThumbnailLoader mLoader;
+    private File[] mImages;
+    private int mThumbnailSize;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_gallery);
+        setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
+
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        mThumbnailSize = getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        ThumbnailDiskCache diskCache = new ThumbnailDiskCache(
+                new File(getCacheDir(), "thumbnails"), ThumbnailDiskCache.DEFAULT_DISK_BUDGET);
+        mLoader = new ThumbnailLoader(mThumbnailSize, diskCache,
+                Runtime.getRuntime().maxMemory() / MEMORY_SHARE);
+        mImages = listImages(Places.getScreenshotFolder());
+
+        GridView grid = (GridView) findViewById(R.id.galleryGridView);
+        grid.setEmptyView(findViewById(R.id.galleryEmptyView));
+        grid.setAdapter(new ThumbnailAdapter());
+        grid.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                openImage(mImages[position]);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        mLoader.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        finish();
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void openImage(File image) {
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(Uri.fromFile(image), "image/*");
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.no_image_viewer, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private static File[] listImages(File folder) {
+        File[] images = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName().toLowerCase();
+                return file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg"));
+            }
+        });
+        if (images == null) {
+            return new File[0];
+        }
+        // Times are read once, not on every comparison
+        final long[] times = new long[images.length];
+        Integer[] order = new Integer[images.length];
+        for (int i = 0; i < images.length; i++) {
+            times[i] = images[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return times[a] > times[b] ? -1 : times[a] < times[b] ? 1 : 0;
+            }
+        });
+        File[] sorted = new File[images.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = images[order[i]];
+        }
+        return sorted;
+    }
+
+    private class ThumbnailAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mImages.length;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mImages[position];
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            ImageView view = (ImageView) convertView;
+            if (view == null) {
+                view = new ImageView(GalleryActivity.this);
+                view.setLayoutParams(new AbsListView.LayoutParams(
+                        ViewGroup.LayoutParams.MATCH_PARENT, mThumbnailSize));
+                view.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                view.setBackgroundColor(0xFFEEEEEE);
+            }
+            mLoader.load(mImages[position], view);
+            return view;
+        }
+    }
+}
@@ -20,10 +20,10 @@ package cache.wind.minimal.paint;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BlurMaskFilter;
 import android.graphics.Color;
 import android.graphics.EmbossMaskFilter;
@@ -31,11 +31,15 @@ import android.graphics.MaskFilter;
 import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.support.v7.app.ActionBar;
 import android.support.v7.widget.Toolbar;
+import android.text.format.Formatter;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -47,18 +51,24 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Calendar;
 
 @SuppressLint("ClickableViewAccessibility")
 public class MainActivity extends GraphicsActivity implements
         ColorPickerDialog.OnColorChangedListener {
 
+    private static final String TAG = "MainActivity";
     public static final int DEFAULT_BRUSH_SIZE = 10;
+    private static final float EMBOSS_BLUR_RADIUS = 3.5f;
+    private static final float BLUR_RADIUS = 5;
+    // Screen pixels a committed stroke may stray from the drawn one
+    private static final float SIMPLIFY_TOLERANCE = 0.5f;
+    private static final long MEMORY_REFRESH_MILLIS = 1000;
 
     private MinimalPaintView mMinimalPaintView;
+    private DrawingSaver mDrawingSaver;
+    private DrawingJournal mJournal;
+    private int mPendingSaves;
     private Paint mPaint;
     private MaskFilter mEmboss;
     private MaskFilter mBlur;
@@ -84,20 +94,60 @@ public class MainActivity extends GraphicsActivity implements
         mPaint.setStrokeCap(Paint.Cap.ROUND);
         mPaint.setStrokeWidth(DEFAULT_BRUSH_SIZE);
 
-        mEmboss = new EmbossMaskFilter(new float[]{1, 1, 1}, 0.4f, 6, 3.5f);
+        mEmboss = new EmbossMaskFilter(new float[]{1, 1, 1}, 0.4f, 6, EMBOSS_BLUR_RADIUS);
 
-        mBlur = new BlurMaskFilter(5, BlurMaskFilter.Blur.NORMAL);
+        mBlur = new BlurMaskFilter(BLUR_RADIUS, BlurMaskFilter.Blur.NORMAL);
 
         mMinimalPaintView = new MinimalPaintView(this);
         mMinimalPaintView.setPaint(mPaint);
+        mMinimalPaintView.registerMaskFilter(mEmboss, EMBOSS_BLUR_RADIUS);
+        mMinimalPaintView.registerMaskFilter(mBlur, BLUR_RADIUS);
+        mMinimalPaintView.setSimplifyTolerance(SIMPLIFY_TOLERANCE);
 
         RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
         params.addRule(RelativeLayout.BELOW, R.id.toolbar);
         ((ViewGroup) findViewById(R.id.root)).addView(mMinimalPaintView, params);
 
+        mDrawingSaver = new DrawingSaver();
+
+        // Bring back whatever was drawn when the app last went away
+        mJournal = new DrawingJournal(Places.getJournalFolder(),
+                mMinimalPaintView.getDrawingWidth(), mMinimalPaintView.getDrawingHeight());
+        try {
+            PaintDocument recovered = mJournal.recover();
+            if (recovered != null) {
+                mMinimalPaintView.load(recovered);
+            }
+            mMinimalPaintView.setJournal(mJournal);
+        } catch (IOException e) {
+            // Drawing still works, it just isn't kept
+            Log.e(TAG, "Could not recover the journal", e);
+            mJournal = null;
+        }
+
         updateMode();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Makes the next start replay a snapshot instead of a long journal
+        if (mJournal != null && mJournal.getRecordsSinceCompaction() > 0) {
+            mJournal.compact(mMinimalPaintView.getStrokeLog(), mMinimalPaintView.getBrushTable());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Saves already queued still complete
+        mDrawingSaver.shutdown();
+        mMinimalPaintView.release();
+        if (mJournal != null) {
+            mJournal.close();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (doubleBackToExitPressedOnce) {
@@ -134,26 +184,51 @@ public class MainActivity extends GraphicsActivity implements
         super.onPrepareOptionsMenu(menu);
         menu.findItem(R.id.undo_menu).setVisible(mMinimalPaintView.hasUndo());
         menu.findItem(R.id.redo_menu).setVisible(mMinimalPaintView.hasRedo());
+        menu.findItem(R.id.navigate_menu).setChecked(mMinimalPaintView.isNavigating());
+        menu.findItem(R.id.erase_strokes_menu).setChecked(mMinimalPaintView.isStrokeErasing());
+        menu.findItem(R.id.predict_touches_menu).setChecked(
+                mMinimalPaintView.getPredictionHorizon() > 0);
+        menu.findItem(R.id.stats_overlay_menu).setChecked(mMinimalPaintView.isStatsOverlay());
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         mPaint.setXfermode(null);
-        mPaint.setAlpha(0xFF);
+        if (item.getItemId() != R.id.navigate_menu) {
+            mMinimalPaintView.setNavigating(false);
+        }
+        if (item.getItemId() != R.id.erase_strokes_menu) {
+            mMinimalPaintView.setStrokeErasing(false);
+        }
 
         switch (item.getItemId()) {
             case R.id.normal_brush_menu:
                 mPaint.setMaskFilter(null);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_PATH);
                 break;
             case R.id.color_menu:
                 new ColorPickerDialog(this, this, mPaint.getColor()).show();
                 break;
             case R.id.emboss_menu:
                 mPaint.setMaskFilter(mEmboss);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_PATH);
                 break;
             case R.id.blur_menu:
                 mPaint.setMaskFilter(mBlur);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_PATH);
+                break;
+            case R.id.hard_brush_menu:
+                mPaint.setMaskFilter(null);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_HARD);
+                break;
+            case R.id.airbrush_menu:
+                mPaint.setMaskFilter(null);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_SOFT);
+                break;
+            case R.id.textured_brush_menu:
+                mPaint.setMaskFilter(null);
+                mMinimalPaintView.setBrushTip(BrushTable.TIP_TEXTURED);
                 break;
             case R.id.size_menu:
                 LayoutInflater inflater = (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -230,8 +305,14 @@ public class MainActivity extends GraphicsActivity implements
                 // mPaint.setColor(bgColor);
                 mPaint.setXfermode(new PorterDuffXfermode(Mode.CLEAR));
                 break;
+            case R.id.erase_strokes_menu:
+                mMinimalPaintView.setStrokeErasing(!mMinimalPaintView.isStrokeErasing());
+                break;
+            case R.id.navigate_menu:
+                mMinimalPaintView.setNavigating(!mMinimalPaintView.isNavigating());
+                break;
             case R.id.clear_all_menu:
-                mMinimalPaintView.reset();
+                mMinimalPaintView.clearAll();
                 break;
             case R.id.undo_menu:
                 mMinimalPaintView.undo();
@@ -240,26 +321,32 @@ public class MainActivity extends GraphicsActivity implements
                 mMinimalPaintView.redo();
                 break;
             case R.id.save_menu:
-                takeScreenshot(true);
+                saveDrawing(false);
                 break;
             case R.id.share_menu:
-                File screenshotPath = takeScreenshot(false);
-                Intent i = new Intent();
-                i.setAction(Intent.ACTION_SEND);
-                i.setType("image/png");
-                i.putExtra(Intent.EXTRA_SUBJECT,
-                        getString(R.string.share_title_template));
-                i.putExtra(Intent.EXTRA_TEXT,
-                        getString(R.string.share_text_template));
-                i.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(screenshotPath));
-                try {
-                    startActivity(Intent.createChooser(i,
-                            getString(R.string.toolbox_share_title)));
-                } catch (android.content.ActivityNotFoundException ex) {
-                    Toast.makeText(this.getApplicationContext(),
-                            R.string.no_way_to_share,
-                            Toast.LENGTH_LONG).show();
-                }
+                saveDrawing(true);
+                break;
+            case R.id.save_document_menu:
+                saveDocument();
+                break;
+            case R.id.open_document_menu:
+                openLatestDocument();
+                break;
+            case R.id.predict_touches_menu:
+                mMinimalPaintView.setPredictionHorizon(mMinimalPaintView.getPredictionHorizon() > 0
+                        ? 0 : TouchPredictor.DEFAULT_HORIZON_MILLIS);
+                break;
+            case R.id.stats_overlay_menu:
+                mMinimalPaintView.setStatsOverlay(!mMinimalPaintView.isStatsOverlay());
+                break;
+            case R.id.write_stats_menu:
+                writeStats();
+                break;
+            case R.id.memory_usage_menu:
+                showMemoryUsage();
+                break;
+            case R.id.gallery_menu:
+                startActivity(new Intent(this, GalleryActivity.class));
                 break;
             case R.id.about_menu:
                 startActivity(new Intent(this, AboutActivity.class));
@@ -270,62 +357,236 @@ public class MainActivity extends GraphicsActivity implements
     }
 
     /**
-     * This takes the screenshot of the whole screen. Is this a good thing?
+     * Saves the committed drawing in the background, then either tells where
+     * it went or offers to share it.
+     */
+    private void saveDrawing(final boolean share) {
+        final DrawingSaver.Options options = new DrawingSaver.Options();
+        options.config = Bitmap.Config.RGB_565;
+        mPendingSaves++;
+        final DrawingSaver.Callback callback = new DrawingSaver.Callback() {
+            @Override
+            public void onSaveProgress(File file, long bytes) {
+                ActionBar actionBar = getSupportActionBar();
+                if (actionBar != null) {
+                    actionBar.setSubtitle(getString(R.string.saving_progress,
+                            Formatter.formatShortFileSize(MainActivity.this, bytes)));
+                }
+            }
+
+            @Override
+            public void onSaveComplete(File file) {
+                onSaveFinished();
+
+                // sending a broadcast to the media scanner so it will scan the new
+                // screenshot.
+                Intent requestScan = new Intent(
+                        Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
+                requestScan.setData(Uri.fromFile(file));
+                sendBroadcast(requestScan);
+
+                if (share) {
+                    shareDrawing(file);
+                } else {
+                    Toast.makeText(
+                            getApplicationContext(),
+                            String.format(
+                                    getResources().getString(
+                                            R.string.saved_your_location_to),
+                                    file.getAbsolutePath()), Toast.LENGTH_LONG)
+                            .show();
+                }
+            }
+
+            @Override
+            public void onSaveFailed(File file, IOException e) {
+                onSaveFinished();
+                e.printStackTrace();
+                Toast.makeText(getApplicationContext(), R.string.save_failed,
+                        Toast.LENGTH_LONG).show();
+            }
+        };
+        // Taken once the renderer catches up, without holding up drawing meanwhile
+        mMinimalPaintView.requestSnapshot(new StrokeRenderer.SnapshotCallback() {
+            @Override
+            public void onSnapshot(TileStore.Snapshot snapshot) {
+                mDrawingSaver.save(snapshot, options, callback);
+            }
+        });
+    }
+
+    private void saveDocument() {
+        mPendingSaves++;
+        mDrawingSaver.saveDocument(mMinimalPaintView.getStrokeLog(), mMinimalPaintView.getBrushTable(),
+                mMinimalPaintView.getDrawingWidth(), mMinimalPaintView.getDrawingHeight(),
+                new DrawingSaver.Callback() {
+                    @Override
+                    public void onSaveProgress(File file, long bytes) {
+                    }
+
+                    @Override
+                    public void onSaveComplete(File file) {
+                        onSaveFinished();
+                        Toast.makeText(getApplicationContext(),
+                                getString(R.string.saved_your_location_to, file.getAbsolutePath()),
+                                Toast.LENGTH_LONG).show();
+                    }
+
+                    @Override
+                    public void onSaveFailed(File file, IOException e) {
+                        onSaveFinished();
+                        e.printStackTrace();
+                        Toast.makeText(getApplicationContext(), R.string.save_failed,
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+    }
+
+    private void openLatestDocument() {
+        File latest = null;
+        File[] files = Places.getScreenshotFolder().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(PaintDocument.EXTENSION)
+                        && (latest == null || file.lastModified() > latest.lastModified())) {
+                    latest = file;
+                }
+            }
+        }
+        if (latest == null) {
+            Toast.makeText(this, R.string.no_document, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            // Only the header is read here; strokes are decoded as they are drawn
+            mMinimalPaintView.load(PaintDocument.open(latest));
+        } catch (IOException e) {
+            e.printStackTrace();
+            Toast.makeText(this, R.string.open_failed, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Writes the view's timings to a new file in the stats folder, to compare
+     * with those of other builds.
      */
-    private File takeScreenshot(boolean showToast) {
-        View v = findViewById(R.id.CanvasId);
-        v.setDrawingCacheEnabled(true);
-        Bitmap cachedBitmap = v.getDrawingCache();
-        Bitmap copyBitmap = cachedBitmap.copy(Bitmap.Config.RGB_565, true);
-        v.destroyDrawingCache();
-        FileOutputStream output = null;
-        File file = null;
+    private void writeStats() {
+        File file = new File(Places.getStatsFolder(),
+                "stats-" + System.currentTimeMillis() + ".txt");
         try {
-            File path = Places.getScreenshotFolder();
-            Calendar cal = Calendar.getInstance();
-
-            file = new File(path,
-
-                    cal.get(Calendar.YEAR) + "_" + (1 + cal.get(Calendar.MONTH)) + "_"
-                            + cal.get(Calendar.DAY_OF_MONTH) + "_"
-                            + cal.get(Calendar.HOUR_OF_DAY) + "_"
-                            + cal.get(Calendar.MINUTE) + "_" + cal.get(Calendar.SECOND)
-                            + ".png");
-            output = new FileOutputStream(file);
-            copyBitmap.compress(CompressFormat.PNG, 100, output);
-        } catch (FileNotFoundException e) {
-            file = null;
+            mMinimalPaintView.writeStats(file);
+            Toast.makeText(this, getString(R.string.stats_written, file.getPath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            Toast.makeText(this, R.string.stats_failed, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Shows what each part of the drawing holds in memory, measured again
+     * and logged every second while the dialog is open.
+     */
+    private void showMemoryUsage() {
+        final TextView text = new TextView(this);
+        text.setTypeface(Typeface.MONOSPACE);
+        int padding = getResources().getDimensionPixelSize(R.dimen.activity_horizontal_margin);
+        text.setPadding(padding, padding, padding, padding);
+        final Handler handler = new Handler();
+        final Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                text.setText(getMemoryReport());
+                handler.postDelayed(this, MEMORY_REFRESH_MILLIS);
             }
+        };
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.memory_usage)
+                .setView(text)
+                .create();
+        dialog.setCanceledOnTouchOutside(true);
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                handler.removeCallbacks(refresh);
+            }
+        });
+        dialog.show();
+        refresh.run();
+    }
 
+    /**
+     * @return a line per part of the drawing, with its budget if it has one,
+     * followed by the heaps; the same is logged on one line
+     */
+    private String getMemoryReport() {
+        mMinimalPaintView.measureMemory();
+        MemoryBudgets budgets = mMinimalPaintView.getMemoryBudgets();
+        Runtime runtime = Runtime.getRuntime();
+        long javaHeap = runtime.totalMemory() - runtime.freeMemory();
+        long nativeHeap = Debug.getNativeHeapAllocatedSize();
+
+        StringBuilder line = new StringBuilder("Memory: ");
+        budgets.appendReport(line);
+        line.append(" java_heap=");
+        MemoryBudgets.appendMegabytes(line, javaHeap);
+        line.append('/');
+        MemoryBudgets.appendMegabytes(line, runtime.maxMemory());
+        line.append(" native_heap=");
+        MemoryBudgets.appendMegabytes(line, nativeHeap);
+        Log.i(TAG, line.toString());
+
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < MemoryBudgets.CATEGORY_COUNT; i++) {
+            appendReportLine(report, MemoryBudgets.getName(i), budgets.getUsage(i),
+                    budgets.getBudget(i));
         }
+        appendReportLine(report, "total", budgets.getTotalUsage(), MemoryBudgets.UNLIMITED);
+        report.append('\n');
+        appendReportLine(report, "java_heap", javaHeap, runtime.maxMemory());
+        appendReportLine(report, "native_heap", nativeHeap, MemoryBudgets.UNLIMITED);
+        return report.toString().trim();
+    }
 
-        if (file != null) {
-            if (showToast)
-                Toast.makeText(
-                        getApplicationContext(),
-                        String.format(
-                                getResources().getString(
-                                        R.string.saved_your_location_to),
-                                file.getAbsolutePath()), Toast.LENGTH_LONG)
-                        .show();
-            // sending a broadcast to the media scanner so it will scan the new
-            // screenshot.
-            Intent requestScan = new Intent(
-                    Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-            requestScan.setData(Uri.fromFile(file));
-            sendBroadcast(requestScan);
-
-            return file;
-        } else {
-            return null;
+    private static void appendReportLine(StringBuilder report, String name, long usage,
+                                         long budget) {
+        report.append(name);
+        for (int i = name.length(); i < 16; i++) {
+            report.append(' ');
+        }
+        MemoryBudgets.appendMegabytes(report, usage);
+        if (budget != MemoryBudgets.UNLIMITED) {
+            report.append(" / ");
+            MemoryBudgets.appendMegabytes(report, budget);
+        }
+        report.append('\n');
+    }
+
+    private void onSaveFinished() {
+        if (--mPendingSaves == 0) {
+            updateMode();
+        }
+    }
+
+    private void shareDrawing(File file) {
+        if (isFinishing()) {
+            return;
+        }
+        Intent i = new Intent();
+        i.setAction(Intent.ACTION_SEND);
+        i.setType("image/png");
+        i.putExtra(Intent.EXTRA_SUBJECT,
+                getString(R.string.share_title_template));
+        i.putExtra(Intent.EXTRA_TEXT,
+                getString(R.string.share_text_template));
+        i.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+        try {
+            startActivity(Intent.createChooser(i,
+                    getString(R.string.toolbox_share_title)));
+        } catch (android.content.ActivityNotFoundException ex) {
+            Toast.makeText(this.getApplicationContext(),
+                    R.string.no_way_to_share,
+                    Toast.LENGTH_LONG).show();
         }
     }
 
@@ -336,9 +597,20 @@ public class MainActivity extends GraphicsActivity implements
     private void updateMode() {
         ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
-            if (mPaint.getXfermode() == null) {
+            if (mMinimalPaintView.isNavigating()) {
+                actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.navigate)));
+            } else if (mMinimalPaintView.isStrokeErasing()) {
+                actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.erase_strokes)));
+            } else if (mPaint.getXfermode() == null) {
                 MaskFilter filter = mPaint.getMaskFilter();
-                if (filter == mEmboss) {
+                int tip = mMinimalPaintView.getBrushTip();
+                if (tip == BrushTable.TIP_HARD) {
+                    actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.hard_brush)));
+                } else if (tip == BrushTable.TIP_SOFT) {
+                    actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.airbrush)));
+                } else if (tip == BrushTable.TIP_TEXTURED) {
+                    actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.textured_brush)));
+                } else if (filter == mEmboss) {
                     actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.emboss)));
                 } else if (filter == mBlur) {
                     actionBar.setSubtitle(getString(R.string.mode_format, getString(R.string.blur)));
@@ -5,9 +5,15 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.MaskFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -16,38 +22,354 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class MinimalPaintView extends View {
+    private static final String TAG = "MinimalPaintView";
     private static final float TOUCH_TOLERANCE = 4;
+    private static final float DEFAULT_TOUCH_SMOOTHING = 0.7f;
     private static final int MAX_POINTERS = 10;
+    // Pointer ids are small, below 32 on every device seen so far
+    private static final int POINTER_IDS = 32;
+    // How many screens wide and high the drawing is
+    private static final int CANVAS_SCALE = 3;
+    private static final float MAX_ZOOM = 8;
+    private static final int OUTSIDE_COLOR = 0xFFBDBDBD;
+    // Drawing time spent per frame on the strokes of a document being opened
+    private static final long LOAD_FRAME_BUDGET_NANOS = 8 * 1000000L;
+    private static final long STATS_REFRESH_MILLIS = 500;
+    private static final long DEFAULT_REDO_BUDGET = 8 * 1024 * 1024;
+    private static final long DEFAULT_DAB_BUDGET = 8 * 1024 * 1024;
 
-    private final Bitmap mBitmap;
-    private final Canvas mCanvas;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final StrokeRenderer mRenderer;
     private final Paint mBitmapPaint;
     private final MultiLinePathManager multiLinePathManager;
 
-    private final List<Path> mSavePaths;
-    private final List<Path> mDeletePaths;
-    private final Map<Path, Paint> mPathPaintMap;
+    // The frame on screen, and committed strokes it doesn't show yet
+    private StrokeRenderer.Frame mShownFrame;
+    private final List<PendingStroke> mPendingStrokes;
+    private final List<PendingStroke> mPendingStrokePool;
+    private final RectF mFrameBounds;
+    private final Rect mFrameRect;
+
+    private final StrokeLog mStrokeLog;
+    private final BrushTable mBrushTable;
+    private final List<Paint> mBrushPaints;
+    private final StrokeSimplifier mSimplifier;
+
+    // Strokes are stamped with this tip, unless it is BrushTable.TIP_PATH
+    private int mBrushTip;
+    private final DabCache mDabCache;
+    private final StampBrush mPendingStamper;
+
+    // Whole strokes the fingers pass over get deleted, while erasing strokes
+    private boolean mStrokeErasing;
+    private final StrokeHitTester mHitTester;
+    private final float[] mEraserX;
+    private final float[] mEraserY;
+    private final boolean[] mEraserDown;
+    // The deletion the current gesture adds to, or -1
+    private int mEraseEntry;
+
+    private final List<MaskFilter> mMaskFilters;
+    private final List<Float> mMaskFilterRadii;
+    private final RectF mSegmentBounds;
+    private final RectF mDirtyBounds;
+    private final Rect mInvalidRect;
+    private final Rect mClipBounds;
+    private final Paint mLayerPaint;
+    // Strokes not yet rendered are previewed without their mask filter, which
+    // runs in software; the renderer applies it once they are committed
+    private final Paint mPreviewPaint;
+
+    // Maps the drawing onto the view, and back for touch input
+    private final Matrix mViewMatrix;
+    private final Matrix mInverseMatrix;
+    private final float[] mMatrixValues;
+    private final float[] mTouchPoint;
+    private boolean mNavigating;
+    private float mLastFocusX;
+    private float mLastFocusY;
+    private float mLastSpan;
 
     private Paint mPaint;
+    private boolean mIncrementalStrokes;
+    private float mTouchSmoothing;
+    private float mSimplifyTolerance;
+
+    // Extends the live strokes past the latest touch sample, when predicting
+    private final TouchPredictor mPredictor;
+    private boolean mPredicting;
+    private final float[] mPredictedPoint;
+
+    // The document being opened, drawn a chunk of strokes at a time
+    private PaintDocument mDocument;
+    private int[] mDocumentBrushes;
+    private int mLoadedChunks;
+    private boolean mCompactWhenLoaded;
+    // Snapshots asked for while it opens, taken once all of it is drawn
+    private final List<StrokeRenderer.SnapshotCallback> mPendingSnapshots;
+
+    private DrawingJournal mJournal;
+
+    private final FrameStats mFrameStats;
+    private boolean mStatsOverlay;
+
+    private final MemoryBudgets mMemoryBudgets;
+    private MemoryBudgets.OnBudgetExceededListener mOnBudgetExceededListener;
 
     public void setPaint(Paint paint) {
         this.mPaint = paint;
     }
 
+    /**
+     * When enabled, the segments of a stroke in progress are rasterized into a
+     * coverage layer as soon as they are added, so each frame blits that layer
+     * instead of redrawing the whole path. The committed stroke is still drawn
+     * from the full path, so the end result does not depend on this setting.
+     */
+    public void setIncrementalStrokes(boolean incremental) {
+        mIncrementalStrokes = incremental;
+    }
+
+    /**
+     * @param smoothing weight of each new touch sample against the previous
+     *                  ones, from just above 0 for heavy smoothing to 1 to
+     *                  draw the raw samples
+     */
+    public void setTouchSmoothing(float smoothing) {
+        mTouchSmoothing = smoothing;
+    }
+
+    /**
+     * Simplifies strokes as they are committed, dropping the points that lie
+     * within {@code pixels} screen pixels of the simplified stroke. This makes
+     * the history smaller and faster to replay on undo, at the cost of
+     * committed strokes differing slightly from what was drawn live.
+     *
+     * @param pixels 0 to keep every point
+     */
+    public void setSimplifyTolerance(float pixels) {
+        mSimplifyTolerance = pixels;
+    }
+
+    /**
+     * Draws each stroke in progress up to where its finger is guessed to be
+     * {@code millis} after the latest touch sample, from how it has been
+     * moving, so the ink keeps up with the finger. The guess is only shown
+     * until the next samples arrive, and never becomes part of the stroke.
+     *
+     * @param millis 0 to draw only up to the latest sample
+     */
+    public void setPredictionHorizon(float millis) {
+        mPredicting = millis > 0;
+        mPredictor.setHorizon(millis);
+    }
+
+    public float getPredictionHorizon() {
+        return mPredicting ? mPredictor.getHorizon() : 0;
+    }
+
+    /**
+     * While navigating, one finger pans the drawing and two fingers pinch to
+     * zoom it instead of drawing.
+     */
+    public void setNavigating(boolean navigating) {
+        mNavigating = navigating;
+    }
+
+    public boolean isNavigating() {
+        return mNavigating;
+    }
+
+    /**
+     * Shows the draw, touch handling, touch latency and stroke commit time
+     * percentiles over the drawing.
+     */
+    public void setStatsOverlay(boolean shown) {
+        mStatsOverlay = shown;
+        invalidate();
+    }
+
+    public boolean isStatsOverlay() {
+        return mStatsOverlay;
+    }
+
+    /**
+     * Writes the timings recorded since the view was created to {@code file}.
+     */
+    public void writeStats(File file) throws IOException {
+        mFrameStats.write(file, BuildConfig.VERSION_NAME);
+    }
+
+    /**
+     * @return the bytes held by each part of the drawing and its history,
+     * as last measured, with their budgets; readable from any thread
+     */
+    public MemoryBudgets getMemoryBudgets() {
+        return mMemoryBudgets;
+    }
+
+    /**
+     * Sets the budget of one part of {@link #getMemoryBudgets()}. Caches keep
+     * to their budgets by evicting, and the redo history by being dropped;
+     * the other parts only tell the listener.
+     *
+     * @param category one of the {@link MemoryBudgets} categories
+     */
+    public void setMemoryBudget(int category, long bytes) {
+        mMemoryBudgets.setBudget(category, bytes);
+        measureMemory();
+    }
+
+    /**
+     * @param listener told on the main thread of every part of the drawing
+     *                 going over its budget, after the view evicted what it
+     *                 could
+     */
+    public void setOnBudgetExceededListener(MemoryBudgets.OnBudgetExceededListener listener) {
+        mOnBudgetExceededListener = listener;
+    }
+
+    /**
+     * Brings {@link #getMemoryBudgets()} up to date; the renderer's parts
+     * follow shortly after, once it gets to it.
+     */
+    public void measureMemory() {
+        mRenderer.measureMemory();
+        measureHistory();
+    }
+
+    private void measureHistory() {
+        long redo = mStrokeLog.getRedoMemoryUsage();
+        mMemoryBudgets.update(MemoryBudgets.STROKE_HISTORY,
+                mStrokeLog.getMemoryUsage() - redo + mBrushTable.getMemoryUsage());
+        mMemoryBudgets.update(MemoryBudgets.REDO_HISTORY, redo);
+    }
+
+    private void onBudgetExceeded(int category, long usage, long budget) {
+        if (Log.isLoggable(TAG, Log.INFO)) {
+            StringBuilder report = new StringBuilder("Over the ").append(
+                    MemoryBudgets.getName(category)).append(" budget: ");
+            mMemoryBudgets.appendReport(report);
+            Log.i(TAG, report.toString());
+        }
+        if (category == MemoryBudgets.REDO_HISTORY
+                && mMemoryBudgets.isOverBudget(MemoryBudgets.REDO_HISTORY)) {
+            discardRedo();
+        }
+        if (mOnBudgetExceededListener != null) {
+            mOnBudgetExceededListener.onBudgetExceeded(category, usage, budget);
+        }
+    }
+
+    /**
+     * Drops the undone strokes, as if a new stroke was drawn.
+     */
+    private void discardRedo() {
+        finishLoading();
+        if (!mStrokeLog.canRedo()) {
+            return;
+        }
+        clearRedo();
+        mRenderer.dropRedo();
+        if (mJournal != null) {
+            // The journal has no record for this, so its snapshot has to show it
+            mJournal.compact(mStrokeLog, mBrushTable);
+        }
+        measureHistory();
+    }
+
+    /**
+     * While erasing strokes, every finger deletes the whole strokes it passes
+     * over, as one change to the history per gesture.
+     */
+    public void setStrokeErasing(boolean erasing) {
+        mStrokeErasing = erasing;
+    }
+
+    public boolean isStrokeErasing() {
+        return mStrokeErasing;
+    }
+
+    /**
+     * @param tip {@link BrushTable#TIP_PATH} to stroke the path with the
+     *            paint, or the tip to stamp strokes with instead; stamped
+     *            strokes ignore the mask filter of the paint
+     */
+    public void setBrushTip(int tip) {
+        mBrushTip = tip;
+    }
+
+    public int getBrushTip() {
+        return mBrushTip;
+    }
+
+    /**
+     * @return how many screen pixels one pixel of the drawing covers
+     */
+    public float getZoom() {
+        mViewMatrix.getValues(mMatrixValues);
+        return mMatrixValues[Matrix.MSCALE_X];
+    }
+
+    /**
+     * Tells the view how far {@code filter} spreads a stroke, so that only the
+     * area around new segments needs repainting while drawing with it. Strokes
+     * using filters that were never registered repaint the whole view.
+     */
+    public void registerMaskFilter(MaskFilter filter, float radius) {
+        mMaskFilters.add(filter);
+        mMaskFilterRadii.add(radius);
+    }
+
+    private int getMaskFilterIndex(MaskFilter filter) {
+        if (filter == null) {
+            return BrushTable.NO_MASK_FILTER;
+        }
+        int index = mMaskFilters.indexOf(filter);
+        if (index < 0) {
+            registerMaskFilter(filter, -1);
+            index = mMaskFilters.size() - 1;
+        }
+        return index;
+    }
+
     private class LinePath extends Path {
-        private Integer idPointer;
         private float lastX;
         private float lastY;
+        private float endX;
+        private float endY;
 
-        LinePath() {
-            this.idPointer = null;
-        }
+        // Bounds of the geometry added since the last call to popDirtyBounds()
+        private final RectF dirtyBounds = new RectF();
+        private boolean dirty;
+
+        // Raw samples in view coordinates, waiting to be smoothed and filtered
+        private final TouchSampleBuffer samples = new TouchSampleBuffer();
+
+        // Samples the curve is built from, as x, y pairs
+        private float[] points = new float[256];
+        private int pointCount;
+
+        // Coverage of the segments drawn so far, when drawing incrementally
+        private final Path segment = new Path();
+        private Bitmap layer;
+        private Canvas layerCanvas;
+        private boolean layered;
+        // Stamped strokes are always drawn incrementally
+        private final StampBrush stamper = new StampBrush(mDabCache);
+        private boolean stamped;
+
+        // From the end of the curve to the predicted position of the finger
+        private final Path prediction = new Path();
+        private final RectF predictionBounds = new RectF();
+        private boolean predicted;
 
         public float getLastX() {
             return lastX;
@@ -62,99 +384,543 @@ public class MinimalPaintView extends View {
             this.moveTo(x, y);
             this.lastX = x;
             this.lastY = y;
+            this.endX = x;
+            this.endY = y;
+            this.pointCount = 0;
+            addPoint(x, y);
+            markDirty(x, y);
+            clearPrediction();
+
+            // The layer covers the view, so the zoom can't change during a stroke
+            stamped = mBrushTip != BrushTable.TIP_PATH;
+            layered = (mIncrementalStrokes || stamped) && getWidth() > 0 && getHeight() > 0;
+            if (layered) {
+                if (layer == null || layer.getWidth() != getWidth()
+                        || layer.getHeight() != getHeight()) {
+                    layer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ALPHA_8);
+                    layerCanvas = new Canvas(layer);
+                } else {
+                    layer.eraseColor(Color.TRANSPARENT);
+                }
+                layerCanvas.setMatrix(mViewMatrix);
+                mLayerPaint.set(mPaint);
+                mLayerPaint.setColor(Color.BLACK);
+                mLayerPaint.setMaskFilter(null);
+                mLayerPaint.setXfermode(null);
+                if (stamped) {
+                    stamper.start(layerCanvas, mBrushTip, mPaint.getStrokeWidth(), getZoom(),
+                            mLayerPaint, x, y);
+                }
+            }
         }
 
+        /**
+         * Extends the curve towards a sample that already passed the touch
+         * tolerance in {@link TouchSampleBuffer#process(float, float)}.
+         */
         public void touchMove(float x, float y) {
-            float dx = Math.abs(x - lastX);
-            float dy = Math.abs(y - lastY);
-            if (dx >= TOUCH_TOLERANCE || dy >= TOUCH_TOLERANCE) {
-                this.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
-                lastX = x;
-                lastY = y;
+            float midX = StrokeCurve.midpoint(lastX, x);
+            float midY = StrokeCurve.midpoint(lastY, y);
+            this.quadTo(lastX, lastY, midX, midY);
+
+            if (layered) {
+                // This segment is final: later samples only add new ones
+                segment.rewind();
+                segment.moveTo(endX, endY);
+                segment.quadTo(lastX, lastY, midX, midY);
+                if (stamped) {
+                    stamper.stamp(layerCanvas, segment);
+                } else {
+                    layerCanvas.drawPath(segment, mLayerPaint);
+                }
             }
+
+            // The new curve stays inside the triangle of its control points
+            markDirty(endX, endY);
+            markDirty(lastX, lastY);
+            markDirty(midX, midY);
+
+            endX = midX;
+            endY = midY;
+            lastX = x;
+            lastY = y;
+            addPoint(x, y);
         }
 
-        public boolean isDisassociatedFromPointer() {
-            return idPointer == null;
+        /**
+         * Feeds the curve with every sample pushed since the last call that
+         * survives smoothing and the touch tolerance.
+         */
+        public void processSamples() {
+            int count = samples.process(TOUCH_TOLERANCE, mTouchSmoothing);
+            for (int i = 0; i < count; i++) {
+                float[] point = mapTouch(samples.getAcceptedX(i), samples.getAcceptedY(i));
+                touchMove(point[0], point[1]);
+            }
         }
 
-        public boolean isAssociatedToPointer(int idPointer) {
-            return this.idPointer != null
-                    && this.idPointer == idPointer;
+        /**
+         * Replaces the predicted tail of the stroke with one from the latest
+         * samples, continuing the curve where it ends as the next sample
+         * would.
+         */
+        public void predict() {
+            clearPrediction();
+            if (!mPredicting || !mPredictor.predict(samples, mPredictedPoint)) {
+                return;
+            }
+            float[] point = mapTouch(mPredictedPoint[0], mPredictedPoint[1]);
+            float midX = StrokeCurve.midpoint(lastX, point[0]);
+            float midY = StrokeCurve.midpoint(lastY, point[1]);
+            prediction.rewind();
+            prediction.moveTo(endX, endY);
+            prediction.quadTo(lastX, lastY, midX, midY);
+            prediction.lineTo(point[0], point[1]);
+            predictionBounds.set(endX, endY, endX, endY);
+            predictionBounds.union(lastX, lastY);
+            predictionBounds.union(point[0], point[1]);
+            markDirty(predictionBounds.left, predictionBounds.top);
+            markDirty(predictionBounds.right, predictionBounds.bottom);
+            predicted = true;
         }
 
-        public void disassociateFromPointer() {
-            idPointer = null;
+        /**
+         * Drops the predicted tail, repainting where it was.
+         */
+        private void clearPrediction() {
+            if (predicted) {
+                markDirty(predictionBounds.left, predictionBounds.top);
+                markDirty(predictionBounds.right, predictionBounds.bottom);
+                predicted = false;
+            }
         }
 
-        public void associateToPointer(int idPointer) {
-            this.idPointer = idPointer;
+        public void pushSample(float x, float y, long time) {
+            if (!samples.push(x, y, time)) {
+                processSamples();
+                samples.push(x, y, time);
+            }
+        }
+
+        private void addPoint(float x, float y) {
+            if (pointCount + 2 > points.length) {
+                float[] grown = new float[points.length * 2];
+                System.arraycopy(points, 0, grown, 0, pointCount);
+                points = grown;
+            }
+            points[pointCount++] = x;
+            points[pointCount++] = y;
+        }
+
+        /**
+         * Ends the curve at the latest raw sample, where the finger lifted,
+         * rather than where the smoothing lagging behind it got to.
+         */
+        public void touchUp() {
+            float[] point = mapTouch(samples.getX(0), samples.getY(0));
+            if (point[0] != lastX || point[1] != lastY) {
+                touchMove(point[0], point[1]);
+            }
+            this.lineTo(lastX, lastY);
+            markDirty(endX, endY);
+            markDirty(lastX, lastY);
+            clearPrediction();
+            layered = false;
+        }
+
+        /**
+         * Draws the stroke in progress in view coordinates; its coverage layer
+         * is tinted, filtered and blended by the paint in one go, like the path
+         * itself would be.
+         */
+        public void draw(Canvas canvas, Paint paint) {
+            if (layered) {
+                canvas.drawBitmap(layer, 0, 0, paint);
+            } else {
+                canvas.save();
+                canvas.concat(mViewMatrix);
+                canvas.drawPath(this, paint);
+                canvas.restore();
+            }
+            if (predicted) {
+                canvas.save();
+                canvas.concat(mViewMatrix);
+                if (stamped) {
+                    // Over the layer, which only ever gets final segments
+                    mPendingStamper.start(canvas, mBrushTip, mPaint.getStrokeWidth(), getZoom(),
+                            paint, endX, endY);
+                    mPendingStamper.stamp(canvas, prediction);
+                } else {
+                    canvas.drawPath(prediction, paint);
+                }
+                canvas.restore();
+            }
+        }
+
+        private void markDirty(float x, float y) {
+            if (dirty) {
+                dirtyBounds.union(x, y);
+            } else {
+                dirtyBounds.set(x, y, x, y);
+                dirty = true;
+            }
+        }
+
+        public boolean popDirtyBounds(RectF bounds) {
+            if (!dirty) {
+                return false;
+            }
+            bounds.set(dirtyBounds);
+            dirty = false;
+            return true;
         }
     }
 
     private class MultiLinePathManager {
         public final LinePath[] superMultiPaths;
 
+        // Which pointer id each LinePath follows
+        private final PointerSlots slots;
+
         MultiLinePathManager(int maxPointers) {
             superMultiPaths = new LinePath[maxPointers];
             for (int i = 0; i < maxPointers; i++) {
                 superMultiPaths[i] = new LinePath();
             }
+            slots = new PointerSlots(maxPointers, POINTER_IDS);
         }
 
         public LinePath findLinePathFromPointer(int idPointer) {
-            for (LinePath path : superMultiPaths) {
-                if (path.isAssociatedToPointer(idPointer)) {
-                    return path;
+            int slot = slots.findSlot(idPointer);
+            return slot != PointerSlots.NO_SLOT ? superMultiPaths[slot] : null;
+        }
+
+        public LinePath addLinePathWithPointer(int idPointer) {
+            int slot = slots.acquire(idPointer);
+            return slot != PointerSlots.NO_SLOT ? superMultiPaths[slot] : null;
+        }
+
+        /**
+         * Allows the LinePath to be associated to another idPointer.
+         */
+        public void releaseLinePath(LinePath path) {
+            for (int slot = 0; slot < superMultiPaths.length; slot++) {
+                if (superMultiPaths[slot] == path) {
+                    slots.release(slot);
+                    return;
                 }
             }
-            return null;
         }
+    }
 
-        public LinePath addLinePathWithPointer(int idPointer) {
-            for (LinePath path : superMultiPaths) {
-                if (path.isDisassociatedFromPointer()) {
-                    path.associateToPointer(idPointer);
-                    return path;
+    /**
+     * Replaces the drawing with the strokes of {@code document}. They are
+     * drawn over the next frames, a few at a time, so the first ones show up
+     * right away; anything that needs the whole drawing finishes the job first.
+     */
+    public void load(PaintDocument document) {
+        reset();
+        mDocument = document;
+        mLoadedChunks = 0;
+        // The journal only saw the drawing being cleared; it gets the rest once drawn
+        mCompactWhenLoaded = mJournal != null;
+        mDocumentBrushes = new int[document.getBrushCount()];
+        for (int i = 0; i < mDocumentBrushes.length; i++) {
+            int filter = document.getBrushMaskFilter(i);
+            if (filter < 0 || filter >= mMaskFilters.size()) {
+                filter = BrushTable.NO_MASK_FILTER;
+            }
+            int blendMode = document.getBrushBlendMode(i) == BrushTable.BLEND_CLEAR
+                    ? BrushTable.BLEND_CLEAR : BrushTable.BLEND_NORMAL;
+            int tip = document.getBrushTip(i);
+            if (tip < BrushTable.TIP_PATH || tip > BrushTable.TIP_TEXTURED) {
+                tip = BrushTable.TIP_PATH;
+            }
+            mDocumentBrushes[i] = internBrush(document.getBrushColor(i), document.getBrushWidth(i),
+                    filter, blendMode, tip);
+        }
+        invalidate();
+    }
+
+    /**
+     * Journals every change to the stroke history from now on, folding the
+     * journal into a snapshot whenever it asks for it.
+     */
+    public void setJournal(DrawingJournal journal) {
+        mJournal = journal;
+    }
+
+    private void onHistoryChanged() {
+        if (mJournal != null && mJournal.needsCompaction()) {
+            mJournal.compact(mStrokeLog, mBrushTable);
+        }
+        measureHistory();
+    }
+
+    public boolean isLoading() {
+        return mDocument != null;
+    }
+
+    /**
+     * Reads the chunks of the document being opened and hands their strokes
+     * to the renderer, until all of them are read or {@code budgetNanos} is
+     * spent.
+     */
+    private void loadChunks(long budgetNanos) {
+        long start = System.nanoTime();
+        try {
+            while (mLoadedChunks < mDocument.getChunkCount()
+                    && System.nanoTime() - start < budgetNanos) {
+                int first = mStrokeLog.getStrokeCount();
+                try {
+                    mDocument.readChunk(mLoadedChunks, mStrokeLog, mDocumentBrushes);
+                } finally {
+                    // Even the strokes of a chunk read halfway, so the renderer's
+                    // history keeps matching the log entry for entry
+                    sendLoadedEntries(first);
                 }
+                mLoadedChunks++;
+            }
+        } catch (IOException e) {
+            // Keep what could be read
+            Log.e(TAG, "Could not read the whole document", e);
+            mLoadedChunks = mDocument.getChunkCount();
+        }
+        if (mLoadedChunks == mDocument.getChunkCount()) {
+            while (mStrokeLog.size() > mDocument.getUndoPosition()) {
+                mStrokeLog.undo();
+            }
+            mRenderer.hideStrokesFrom(mStrokeLog.size());
+            mDocument = null;
+            mDocumentBrushes = null;
+            for (StrokeRenderer.SnapshotCallback callback : mPendingSnapshots) {
+                sendSnapshotRequest(callback);
+            }
+            mPendingSnapshots.clear();
+            if (mCompactWhenLoaded && mJournal != null) {
+                mJournal.compact(mStrokeLog, mBrushTable);
             }
-            return null;
+        }
+    }
+
+    private void sendLoadedEntries(int first) {
+        for (int i = first; i < mStrokeLog.getStrokeCount(); i++) {
+            boolean visible = i < mDocument.getUndoPosition();
+            if (mStrokeLog.isDeletion(i)) {
+                int[] strokes = new int[mStrokeLog.getDeletedCount(i)];
+                for (int j = 0; j < strokes.length; j++) {
+                    strokes[j] = mStrokeLog.getDeletedStroke(i, j);
+                }
+                mRenderer.deleteStrokes(strokes, strokes.length, false, visible);
+            } else {
+                mRenderer.addStroke(mStrokeLog.getBrush(i), mStrokeLog.getPoints(),
+                        mStrokeLog.getStart(i), mStrokeLog.getEnd(i) - mStrokeLog.getStart(i),
+                        visible);
+            }
+        }
+    }
+
+    private void finishLoading() {
+        if (mDocument != null) {
+            loadChunks(Long.MAX_VALUE);
         }
     }
 
     public void reset() {
-        mCanvas.drawColor(Color.WHITE);
-        invalidate();
+        if (!mPendingSnapshots.isEmpty()) {
+            // Only then, so that those snapshots show the whole document
+            finishLoading();
+        }
+        mDocument = null;
+        mDocumentBrushes = null;
 
-        mSavePaths.clear();
-        mDeletePaths.clear();
-        mPathPaintMap.clear();
+        mRenderer.clear();
+        mStrokeLog.clear();
+        mHitTester.clear();
+        mEraseEntry = -1;
+        if (mJournal != null) {
+            mJournal.appendClear();
+        }
+        onHistoryChanged();
+    }
+
+    /**
+     * Deletes every stroke as one change to the history, which, unlike
+     * {@link #reset()}, can be undone.
+     */
+    public void clearAll() {
+        finishLoading();
+        int[] strokes = new int[mStrokeLog.size()];
+        int count = 0;
+        for (int stroke = 0; stroke < mStrokeLog.size(); stroke++) {
+            if (mStrokeLog.isVisible(stroke)) {
+                strokes[count++] = stroke;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        clearRedo();
+        mStrokeLog.addDeletion(strokes, count);
+        mEraseEntry = -1;
+        mRenderer.deleteAllStrokes(strokes, count);
+        if (mJournal != null) {
+            mJournal.appendDeletion(strokes, count, false);
+        }
+        onHistoryChanged();
     }
 
     public void undo() {
-        mDeletePaths.add(mSavePaths.remove(mSavePaths.size() - 1));
-        mCanvas.drawColor(Color.WHITE);
-        for (Path path : mSavePaths) {
-            mCanvas.drawPath(path, mPathPaintMap.get(path));
+        finishLoading();
+        mStrokeLog.undo();
+        mRenderer.undo();
+        if (mJournal != null) {
+            mJournal.appendUndo();
         }
-        invalidate();
+        onHistoryChanged();
     }
 
     public void redo() {
-        mSavePaths.add(mDeletePaths.remove(mDeletePaths.size() - 1));
-        mCanvas.drawColor(Color.WHITE);
-        for (Path path : mSavePaths) {
-            mCanvas.drawPath(path, mPathPaintMap.get(path));
+        finishLoading();
+        mStrokeLog.redo();
+        mRenderer.redo();
+        if (mJournal != null) {
+            mJournal.appendRedo();
         }
-        invalidate();
+        onHistoryChanged();
+    }
+
+    /**
+     * Repaints the part of the view showing what changed in the frames the
+     * renderer published since the last call.
+     */
+    private void onFrame() {
+        if (mRenderer.popDirtyBounds(mFrameRect)) {
+            mFrameBounds.set(mFrameRect);
+            mViewMatrix.mapRect(mFrameBounds);
+            mFrameBounds.roundOut(mFrameRect);
+            invalidate(mFrameRect);
+        }
+    }
+
+    /**
+     * Stops the render thread; the view can't draw new strokes afterwards.
+     */
+    public void release() {
+        mRenderer.quit();
+    }
+
+    /**
+     * Blocks until every committed stroke is drawn in the frame on screen.
+     */
+    void waitForRenderer() {
+        mRenderer.waitForIdle();
+    }
+
+    public StrokeLog getStrokeLog() {
+        finishLoading();
+        return mStrokeLog;
+    }
+
+    public BrushTable getBrushTable() {
+        return mBrushTable;
+    }
+
+    public int getDrawingWidth() {
+        return mRenderer.getWidth();
+    }
+
+    public int getDrawingHeight() {
+        return mRenderer.getHeight();
+    }
+
+    /**
+     * Takes the committed drawing, without the strokes still in progress,
+     * once the renderer has drawn every committed stroke and the whole of a
+     * document being opened; waits for neither. The snapshot is transparent
+     * where nothing was drawn or where it was erased.
+     *
+     * @param callback given the snapshot on the main thread
+     */
+    public void requestSnapshot(StrokeRenderer.SnapshotCallback callback) {
+        if (mDocument != null) {
+            mPendingSnapshots.add(callback);
+        } else {
+            sendSnapshotRequest(callback);
+        }
+    }
+
+    private void sendSnapshotRequest(StrokeRenderer.SnapshotCallback callback) {
+        // The screen-sized page the drawing starts on, plus anything beyond it
+        mRenderer.requestSnapshot(new Rect(0, 0, mPageWidth, mPageHeight), callback);
+    }
+
+    /**
+     * @return the index of the brush matching the current paint, with a
+     * matching paint in {@link #mBrushPaints}
+     */
+    private int internBrush() {
+        // Erasing is the only blending the app ever sets on the paint
+        return internBrush(mPaint.getColor(), mPaint.getStrokeWidth(),
+                getMaskFilterIndex(getStrokeMaskFilter()),
+                mPaint.getXfermode() == null ? BrushTable.BLEND_NORMAL : BrushTable.BLEND_CLEAR,
+                mBrushTip);
+    }
+
+    private int internBrush(int color, float width, int maskFilter, int blendMode, int tip) {
+        int brush = mBrushTable.intern(color, width, maskFilter, blendMode, tip);
+        if (brush == mBrushPaints.size()) {
+            // Everything else about strokes, like their caps, never changes
+            Paint paint = new Paint(mPaint);
+            paint.setColor(color);
+            paint.setStrokeWidth(width);
+            int filter = mBrushTable.getMaskFilter(brush);
+            paint.setMaskFilter(filter == BrushTable.NO_MASK_FILTER ? null : mMaskFilters.get(filter));
+            paint.setXfermode(mBrushTable.getBlendMode(brush) == BrushTable.BLEND_CLEAR
+                    ? new PorterDuffXfermode(PorterDuff.Mode.CLEAR) : null);
+            mBrushPaints.add(paint);
+            mRenderer.addBrush(paint, getStrokePadding(width, paint.getMaskFilter()), tip);
+        }
+        return brush;
+    }
+
+    private void clearRedo() {
+        if (mStrokeLog.canRedo()) {
+            mStrokeLog.discardRedo();
+            mHitTester.truncate(mStrokeLog.size());
+        }
+    }
+
+    /**
+     * A committed stroke drawn over the frame on screen until the renderer
+     * publishes a frame that has it.
+     */
+    private static class PendingStroke {
+        final Path path = new Path();
+        // Where stamping starts, for stamped strokes
+        float startX;
+        float startY;
+        int brush;
+        long sequence;
+    }
+
+    private void addPendingStroke(LinePath path, int brush, long sequence) {
+        PendingStroke pending = mPendingStrokePool.isEmpty()
+                ? new PendingStroke() : mPendingStrokePool.remove(mPendingStrokePool.size() - 1);
+        pending.path.set(path);
+        pending.startX = path.points[0];
+        pending.startY = path.points[1];
+        pending.brush = brush;
+        pending.sequence = sequence;
+        mPendingStrokes.add(pending);
     }
 
     public boolean hasUndo() {
-        return !mSavePaths.isEmpty();
+        return mStrokeLog.canUndo();
     }
 
     public boolean hasRedo() {
-        return !mDeletePaths.isEmpty();
+        return mStrokeLog.canRedo();
     }
 
     @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR2)
@@ -166,41 +932,263 @@ public class MinimalPaintView extends View {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
             Point size = new Point();
             display.getSize(size);
-            mBitmap = Bitmap.createBitmap(size.x, size.y,
-                    Bitmap.Config.ARGB_8888);
+            mPageWidth = size.x;
+            mPageHeight = size.y;
         } else {
             //noinspection deprecation
-            mBitmap = Bitmap.createBitmap(display.getWidth(), display.getHeight(),
-                    Bitmap.Config.ARGB_8888);
+            mPageWidth = display.getWidth();
+            //noinspection deprecation
+            mPageHeight = display.getHeight();
         }
-        mCanvas = new Canvas(mBitmap);
-        mBitmapPaint = new Paint(Paint.DITHER_FLAG);
+        mMemoryBudgets = new MemoryBudgets();
+        mMemoryBudgets.setOnBudgetExceededListener(new MemoryBudgets.OnBudgetExceededListener() {
+            @Override
+            public void onBudgetExceeded(final int category, final long usage, final long budget) {
+                // The renderer reports from its own thread
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        MinimalPaintView.this.onBudgetExceeded(category, usage, budget);
+                    }
+                });
+            }
+        });
+        mRenderer = new StrokeRenderer(mPageWidth * CANVAS_SCALE, mPageHeight * CANVAS_SCALE,
+                mMemoryBudgets, new Runnable() {
+                    @Override
+                    public void run() {
+                        onFrame();
+                    }
+                });
+        mRenderer.setSpillFolder(new File(getContext().getCacheDir(), "tile-history"));
+        mShownFrame = mRenderer.getFrame();
+        mPendingStrokes = new ArrayList<>();
+        mPendingStrokePool = new ArrayList<>();
+        mPendingSnapshots = new ArrayList<>();
+        mFrameBounds = new RectF();
+        mFrameRect = new Rect();
+        mBitmapPaint = new Paint(Paint.DITHER_FLAG | Paint.FILTER_BITMAP_FLAG);
         multiLinePathManager = new MultiLinePathManager(MAX_POINTERS);
 
-        mSavePaths = new ArrayList<>();
-        mDeletePaths = new ArrayList<>();
-        mPathPaintMap = new HashMap<>();
+        mStrokeLog = new StrokeLog();
+        mBrushTable = new BrushTable();
+        mBrushPaints = new ArrayList<>();
+        mSimplifier = new StrokeSimplifier();
+        mHitTester = new StrokeHitTester(mRenderer.getWidth(), mRenderer.getHeight());
+        mDabCache = new DabCache();
+        mPendingStamper = new StampBrush(mDabCache);
+        mEraserX = new float[POINTER_IDS];
+        mEraserY = new float[POINTER_IDS];
+        mEraserDown = new boolean[POINTER_IDS];
+        mEraseEntry = -1;
+
+        mMaskFilters = new ArrayList<>();
+        mMaskFilterRadii = new ArrayList<>();
+        mSegmentBounds = new RectF();
+        mDirtyBounds = new RectF();
+        mInvalidRect = new Rect();
+        mClipBounds = new Rect();
+        mLayerPaint = new Paint();
+        mPreviewPaint = new Paint();
+        mIncrementalStrokes = true;
+        mTouchSmoothing = DEFAULT_TOUCH_SMOOTHING;
+        mPredictor = new TouchPredictor();
+        mPredictedPoint = new float[2];
+
+        mViewMatrix = new Matrix();
+        mInverseMatrix = new Matrix();
+        mMatrixValues = new float[9];
+        mTouchPoint = new float[2];
+        mMemoryBudgets.setBudget(MemoryBudgets.REDO_HISTORY, DEFAULT_REDO_BUDGET);
+        mMemoryBudgets.setBudget(MemoryBudgets.DABS, DEFAULT_DAB_BUDGET);
+        mFrameStats = new FrameStats(mRenderer.getCommitTimes(),
+                12 * getResources().getDisplayMetrics().scaledDensity);
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+        constrainViewMatrix();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
+        drawDrawing(canvas);
+        mFrameStats.recordFrame(System.nanoTime() - start);
+        if (mStatsOverlay) {
+            mFrameStats.drawOverlay(canvas);
+            // Keeps the numbers current while nothing else changes
+            postInvalidateDelayed(STATS_REFRESH_MILLIS);
+        }
+    }
+
+    private void drawDrawing(Canvas canvas) {
+        if (mDocument != null) {
+            loadChunks(LOAD_FRAME_BUDGET_NANOS);
+            if (mDocument != null) {
+                invalidate();
+            }
+        }
+        StrokeRenderer.Frame frame = mRenderer.getFrame();
+        if (frame != mShownFrame) {
+            frame.snapshot.inheritMips(mShownFrame.snapshot);
+            mShownFrame = frame;
+        }
+
+        canvas.drawColor(OUTSIDE_COLOR);
+        canvas.save();
+        canvas.concat(mViewMatrix);
+        canvas.clipRect(0, 0, mRenderer.getWidth(), mRenderer.getHeight());
         canvas.drawColor(Color.WHITE);
-        canvas.drawBitmap(mBitmap, 0, 0, mBitmapPaint);
+        canvas.getClipBounds(mClipBounds);
+        frame.snapshot.draw(canvas, mClipBounds, mBitmapPaint, getZoom());
+        for (int i = mPendingStrokes.size() - 1; i >= 0; i--) {
+            PendingStroke pending = mPendingStrokes.get(i);
+            if (pending.sequence <= frame.sequence) {
+                mPendingStrokePool.add(mPendingStrokes.remove(i));
+            }
+        }
+        for (PendingStroke pending : mPendingStrokes) {
+            Paint paint = mBrushPaints.get(pending.brush);
+            int tip = mBrushTable.getTip(pending.brush);
+            if (tip == BrushTable.TIP_PATH) {
+                canvas.drawPath(pending.path, getPreviewPaint(paint));
+            } else {
+                mPendingStamper.start(canvas, tip, paint.getStrokeWidth(), getZoom(), paint,
+                        pending.startX, pending.startY);
+                mPendingStamper.stamp(canvas, pending.path);
+            }
+        }
+        canvas.restore();
+        Paint previewPaint = getPreviewPaint(mPaint);
         for (int i = 0; i < multiLinePathManager.superMultiPaths.length; i++) {
-            canvas.drawPath(multiLinePathManager.superMultiPaths[i], mPaint);
+            multiLinePathManager.superMultiPaths[i].draw(canvas, previewPaint);
         }
     }
 
+    private Paint getPreviewPaint(Paint paint) {
+        if (paint.getMaskFilter() == null) {
+            return paint;
+        }
+        mPreviewPaint.set(paint);
+        mPreviewPaint.setMaskFilter(null);
+        return mPreviewPaint;
+    }
+
+    /**
+     * Keeps the zoom between showing the whole drawing and {@link #MAX_ZOOM},
+     * and the drawing either filling the view or centered in it.
+     */
+    private void constrainViewMatrix() {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        if (viewWidth == 0 || viewHeight == 0) {
+            return;
+        }
+        float minZoom = Math.min((float) viewWidth / mRenderer.getWidth(),
+                (float) viewHeight / mRenderer.getHeight());
+        float zoom = getZoom();
+        float clamped = Math.max(minZoom, Math.min(MAX_ZOOM, zoom));
+        if (clamped != zoom) {
+            mViewMatrix.postScale(clamped / zoom, clamped / zoom, viewWidth / 2f, viewHeight / 2f);
+        }
+
+        mViewMatrix.getValues(mMatrixValues);
+        mMatrixValues[Matrix.MTRANS_X] = constrainTranslation(mMatrixValues[Matrix.MTRANS_X],
+                viewWidth, mRenderer.getWidth() * clamped);
+        mMatrixValues[Matrix.MTRANS_Y] = constrainTranslation(mMatrixValues[Matrix.MTRANS_Y],
+                viewHeight, mRenderer.getHeight() * clamped);
+        mViewMatrix.setValues(mMatrixValues);
+        mViewMatrix.invert(mInverseMatrix);
+    }
+
+    private static float constrainTranslation(float translation, int viewSize, float drawingSize) {
+        if (drawingSize <= viewSize) {
+            return (viewSize - drawingSize) / 2;
+        }
+        return Math.max(viewSize - drawingSize, Math.min(0, translation));
+    }
+
+    /**
+     * Pans by the movement of the fingers' center and zooms by the change of
+     * their spread, around that center.
+     */
+    private void navigate(MotionEvent event) {
+        int action = event.getActionMasked();
+        int lifted = action == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+        int count = 0;
+        float sumX = 0;
+        float sumY = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != lifted) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        float focusX = sumX / count;
+        float focusY = sumY / count;
+        float span = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != lifted) {
+                span += Math.hypot(event.getX(i) - focusX, event.getY(i) - focusY);
+            }
+        }
+        span /= count;
+
+        if (action == MotionEvent.ACTION_MOVE) {
+            mViewMatrix.postTranslate(focusX - mLastFocusX, focusY - mLastFocusY);
+            if (count > 1 && mLastSpan > 0 && span > 0) {
+                mViewMatrix.postScale(span / mLastSpan, span / mLastSpan, focusX, focusY);
+            }
+            constrainViewMatrix();
+            invalidate();
+        }
+        // Fingers going down or up only move the reference point
+        mLastFocusX = focusX;
+        mLastFocusY = focusY;
+        mLastSpan = span;
+    }
+
+    /**
+     * @return the drawing coordinates under the given view coordinates, in
+     * {@link #mTouchPoint}
+     */
+    private float[] mapTouch(float x, float y) {
+        mTouchPoint[0] = x;
+        mTouchPoint[1] = y;
+        mInverseMatrix.mapPoints(mTouchPoint);
+        return mTouchPoint;
+    }
+
     @Override
     public boolean onTouchEvent(@NonNull MotionEvent event) {
+        long start = System.nanoTime();
+        mFrameStats.onTouchEvent(event);
+        boolean handled = handleTouchEvent(event);
+        mFrameStats.recordEvent(System.nanoTime() - start);
+        return handled;
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
+        if (mNavigating) {
+            navigate(event);
+            return true;
+        }
+        finishLoading();
+        if (mStrokeErasing) {
+            eraseStrokes(event);
+            return true;
+        }
+
         LinePath linePath;
         int index;
         int id;
+        float[] point;
         int eventMasked = event.getActionMasked();
         switch (eventMasked) {
             case MotionEvent.ACTION_DOWN:
@@ -209,20 +1197,30 @@ public class MinimalPaintView extends View {
                 id = event.getPointerId(index);
                 linePath = multiLinePathManager.addLinePathWithPointer(id);
                 if (linePath != null) {
-                    linePath.touchStart(event.getX(index), event.getY(index));
-                    mDeletePaths.clear();
+                    linePath.samples.reset(event.getX(index), event.getY(index),
+                            event.getEventTime());
+                    point = mapTouch(event.getX(index), event.getY(index));
+                    linePath.touchStart(point[0], point[1]);
+                    clearRedo();
                 } else {
                     Log.e("anupam", "Too many fingers!");
                 }
                 break;
             case MotionEvent.ACTION_MOVE:
+                // Fast digitizers batch several samples per event; use them all
+                int historySize = event.getHistorySize();
                 for (int i = 0; i < event.getPointerCount(); i++) {
                     id = event.getPointerId(i);
-                    index = event.findPointerIndex(id);
                     linePath = multiLinePathManager.findLinePathFromPointer(id);
                     if (linePath != null) {
-                        linePath.touchMove(event.getX(index), event.getY(index));
-                        mDeletePaths.clear();
+                        for (int h = 0; h < historySize; h++) {
+                            linePath.pushSample(event.getHistoricalX(i, h),
+                                    event.getHistoricalY(i, h), event.getHistoricalEventTime(h));
+                        }
+                        linePath.pushSample(event.getX(i), event.getY(i), event.getEventTime());
+                        linePath.processSamples();
+                        linePath.predict();
+                        clearRedo();
                     }
                 }
                 break;
@@ -233,24 +1231,180 @@ public class MinimalPaintView extends View {
                 id = event.getPointerId(index);
                 linePath = multiLinePathManager.findLinePathFromPointer(id);
                 if (linePath != null) {
-                    linePath.lineTo(linePath.getLastX(), linePath.getLastY());
+                    if (eventMasked != MotionEvent.ACTION_CANCEL) {
+                        linePath.pushSample(event.getX(index), event.getY(index), event.getEventTime());
+                    }
+                    linePath.processSamples();
+                    linePath.touchUp();
 
-                    Path path = new Path(linePath);
-                    mSavePaths.add(path);
-                    mPathPaintMap.put(path, new Paint(mPaint));
+                    int brush = internBrush();
+                    int sampled = linePath.pointCount / 2;
+                    int count = linePath.pointCount;
+                    if (mSimplifyTolerance > 0) {
+                        // The stroke was drawn at the current zoom, which can't change mid-stroke
+                        count = mSimplifier.simplify(linePath.points, count, mSimplifyTolerance / getZoom());
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "Simplified stroke from " + sampled + " to " + count / 2 + " points");
+                        }
+                    }
+                    mStrokeLog.add(brush, linePath.points, count, sampled);
 
-                    // Commit the path to our offscreen
-                    mCanvas.drawPath(linePath, mPaint);
+                    // Commit the stroke to the renderer, showing it as drawn until it's done
+                    long sequence = mRenderer.addStroke(brush, linePath.points, 0, count, true);
+                    addPendingStroke(linePath, brush, sequence);
 
                     // Kill this so we don't double draw
                     linePath.reset();
 
                     // Allow this LinePath to be associated to another idPointer
-                    linePath.disassociateFromPointer();
+                    multiLinePathManager.releaseLinePath(linePath);
+
+                    if (mJournal != null) {
+                        mJournal.appendStroke(mStrokeLog, mStrokeLog.size() - 1, mBrushTable);
+                    }
+                    onHistoryChanged();
                 }
                 break;
         }
-        invalidate();
+        invalidateDirtyBounds();
         return true;
     }
+
+    /**
+     * Deletes the strokes under the path of each finger since the last event.
+     */
+    private void eraseStrokes(MotionEvent event) {
+        int index;
+        int id;
+        float[] point;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                index = event.getActionIndex();
+                id = event.getPointerId(index);
+                if (id < POINTER_IDS) {
+                    point = mapTouch(event.getX(index), event.getY(index));
+                    mEraserX[id] = point[0];
+                    mEraserY[id] = point[1];
+                    mEraserDown[id] = true;
+                    eraseAlong(point[0], point[1], point[0], point[1]);
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                for (int i = 0; i < event.getPointerCount(); i++) {
+                    id = event.getPointerId(i);
+                    if (id >= POINTER_IDS || !mEraserDown[id]) {
+                        continue;
+                    }
+                    for (int h = 0; h <= event.getHistorySize(); h++) {
+                        if (h < event.getHistorySize()) {
+                            point = mapTouch(event.getHistoricalX(i, h), event.getHistoricalY(i, h));
+                        } else {
+                            point = mapTouch(event.getX(i), event.getY(i));
+                        }
+                        eraseAlong(mEraserX[id], mEraserY[id], point[0], point[1]);
+                        mEraserX[id] = point[0];
+                        mEraserY[id] = point[1];
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                id = event.getPointerId(event.getActionIndex());
+                if (id < POINTER_IDS) {
+                    mEraserDown[id] = false;
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                for (int i = 0; i < POINTER_IDS; i++) {
+                    mEraserDown[i] = false;
+                }
+                mEraseEntry = -1;
+                break;
+        }
+    }
+
+    /**
+     * Deletes the strokes touched by the eraser moving from {@code ax, ay} to
+     * {@code bx, by}, adding them to the gesture's deletion if there is one.
+     */
+    private void eraseAlong(float ax, float ay, float bx, float by) {
+        // The eraser is never thinner than the touch tolerance on screen
+        float radius = Math.max(mPaint.getStrokeWidth() / 2, TOUCH_TOLERANCE / getZoom());
+        int count = mHitTester.hitTest(mStrokeLog, mBrushTable, ax, ay, bx, by, radius);
+        if (count == 0) {
+            return;
+        }
+        int[] strokes = mHitTester.getHits();
+        boolean extend = mEraseEntry >= 0 && mEraseEntry == mStrokeLog.size() - 1 && !mStrokeLog.canRedo();
+        if (extend) {
+            mStrokeLog.extendDeletion(strokes, count);
+        } else {
+            clearRedo();
+            mStrokeLog.addDeletion(strokes, count);
+            mEraseEntry = mStrokeLog.size() - 1;
+        }
+        mRenderer.deleteStrokes(strokes, count, extend, true);
+        if (mJournal != null) {
+            mJournal.appendDeletion(strokes, count, extend);
+        }
+        onHistoryChanged();
+    }
+
+    /**
+     * Repaints only the area covered by the segments added to the live paths
+     * since the last event, grown by how far the current paint spreads them.
+     */
+    private void invalidateDirtyBounds() {
+        float padding = getStrokePadding(mPaint.getStrokeWidth(), getStrokeMaskFilter());
+        mDirtyBounds.setEmpty();
+        for (LinePath path : multiLinePathManager.superMultiPaths) {
+            if (path.popDirtyBounds(mSegmentBounds)) {
+                mSegmentBounds.inset(-padding, -padding);
+                mDirtyBounds.union(mSegmentBounds);
+            }
+        }
+        if (padding < 0) {
+            invalidate();
+        } else if (!mDirtyBounds.isEmpty()) {
+            mViewMatrix.mapRect(mDirtyBounds);
+            mDirtyBounds.roundOut(mInvalidRect);
+            invalidate(mInvalidRect);
+        }
+    }
+
+    /**
+     * @return the mask filter new strokes are drawn with; stamped ones have none
+     */
+    private MaskFilter getStrokeMaskFilter() {
+        return mBrushTip == BrushTable.TIP_PATH ? mPaint.getMaskFilter() : null;
+    }
+
+    /**
+     * @return how far outside its geometry a stroke of the given width and
+     * mask filter can touch pixels, or -1 if that is unknown
+     */
+    private float getStrokePadding(float strokeWidth, MaskFilter filter) {
+        float spread = getMaskFilterSpread(filter);
+        if (spread < 0) {
+            return -1;
+        }
+        // Half the width, plus a pixel for anti-aliasing and round-off
+        return strokeWidth / 2 + 2 + spread;
+    }
+
+    /**
+     * @return how far {@code filter} spreads what it draws, or -1 if unknown
+     */
+    private float getMaskFilterSpread(MaskFilter filter) {
+        if (filter == null) {
+            return 0;
+        }
+        int index = mMaskFilters.indexOf(filter);
+        if (index < 0 || mMaskFilterRadii.get(index) < 0) {
+            return -1;
+        }
+        // Blurs fade out at about three sigmas, sigma being ~0.57 * radius
+        return 2 * mMaskFilterRadii.get(index);
+    }
 }
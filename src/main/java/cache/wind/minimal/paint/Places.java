@@ -31,6 +31,34 @@ class Places {
         return path;
     }
 
+    /**
+     * @return the folder the autosave journal lives in, hidden from the
+     * media scanner
+     */
+    public static File getJournalFolder() {
+        File path = new File(Environment.getExternalStorageDirectory(),
+                "/Minimal Paint/Journal/");
+        path.mkdirs();
+        File noScanning = new File(path, ".nomedia");
+        if (!noScanning.exists())
+            try {
+                noScanning.createNewFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        return path;
+    }
+
+    /**
+     * @return the folder timing dumps are written to
+     */
+    public static File getStatsFolder() {
+        File path = new File(Environment.getExternalStorageDirectory(),
+                "/Minimal Paint/Stats/");
+        path.mkdirs();
+        return path;
+    }
+
     private static File getCameraTempFolder() {
         File path = new File(Environment.getExternalStorageDirectory(),
                 "/Minimal Paint/Temp/");
@@ -0,0 +1,83 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PathMeasure;
+import android.graphics.RectF;
+
+/**
+ * Draws one stroke at a time as dabs of a brush tip stamped at regular
+ * intervals along its path, instead of stroking the path.
+ * <p>
+ * A stroke is started at its first point and then fed the rest of its path,
+ * either whole or a segment at a time as it grows; the spacing carries over
+ * from one segment to the next, so both ways stamp the same dabs.
+ */
+class StampBrush {
+    private final DabCache mDabs;
+    private final PathMeasure mMeasure;
+    private final float[] mPosition;
+    private final RectF mDabBounds;
+    private final Paint mDabPaint;
+
+    private Bitmap mDab;
+    private float mRadius;
+    private float mSpacing;
+    // How far into the next segment the next dab goes
+    private float mDistance;
+
+    StampBrush(DabCache dabs) {
+        mDabs = dabs;
+        mMeasure = new PathMeasure();
+        mPosition = new float[2];
+        mDabBounds = new RectF();
+        mDabPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    /**
+     * Starts a new stroke, stamping its first dab at {@code x, y}.
+     *
+     * @param scale how many target pixels {@code canvas} maps a unit to, so
+     *              dabs are made at the size they end up on screen
+     * @param paint the color and blending of the dabs
+     */
+    public void start(Canvas canvas, int tip, float width, float scale, Paint paint, float x, float y) {
+        mDab = mDabs.getDab(tip, width * scale);
+        mRadius = width / 2;
+        // Never closer than a target pixel, or thin strokes would stamp far too often
+        mSpacing = Math.max(1 / scale, width * DabCache.getSpacing(tip));
+        mDabPaint.setColor(paint.getColor());
+        mDabPaint.setXfermode(paint.getXfermode());
+        stampDab(canvas, x, y);
+        mDistance = mSpacing;
+    }
+
+    /**
+     * Stamps the dabs along {@code path}, which starts where the stroke last
+     * left off.
+     *
+     * @return the number of dabs stamped
+     */
+    public int stamp(Canvas canvas, Path path) {
+        int count = 0;
+        mMeasure.setPath(path, false);
+        do {
+            float length = mMeasure.getLength();
+            float distance = mDistance;
+            for (; distance <= length; distance += mSpacing) {
+                mMeasure.getPosTan(distance, mPosition, null);
+                stampDab(canvas, mPosition[0], mPosition[1]);
+                count++;
+            }
+            mDistance = distance - length;
+        } while (mMeasure.nextContour());
+        return count;
+    }
+
+    private void stampDab(Canvas canvas, float x, float y) {
+        mDabBounds.set(x - mRadius, y - mRadius, x + mRadius, y + mRadius);
+        canvas.drawBitmap(mDab, null, mDabBounds, mDabPaint);
+    }
+}
@@ -0,0 +1,153 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Committed strokes drawn with a mask filter, pre-rendered once with the
+ * filter applied, so that replaying them on undo or redo blits a bitmap
+ * instead of running the filter again in software.
+ * <p>
+ * Bitmaps are kept by stroke index, least recently used first out once the
+ * memory budget is exceeded. Strokes whose bitmap alone would take a large
+ * share of the budget are never cached.
+ */
+class StrokeBitmapCache {
+    public static final long DEFAULT_MEMORY_BUDGET = 24 * 1024 * 1024;
+
+    private static class Entry {
+        final Bitmap bitmap;
+        final int left;
+        final int top;
+
+        Entry(Bitmap bitmap, int left, int top) {
+            this.bitmap = bitmap;
+            this.left = left;
+            this.top = top;
+        }
+    }
+
+    private final LinkedHashMap<Integer, Entry> mEntries;
+    private long mMemoryBudget;
+    private long mMemoryUsage;
+
+    private final Canvas mCanvas;
+    private final Paint mRenderPaint;
+    private final Paint mDrawPaint;
+    private final Paint mErasePaint;
+    private final RectF mBounds;
+
+    StrokeBitmapCache() {
+        mEntries = new LinkedHashMap<>(64, 0.75f, true);
+        mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+        mCanvas = new Canvas();
+        mRenderPaint = new Paint();
+        mDrawPaint = new Paint();
+        mErasePaint = new Paint();
+        mErasePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+        mBounds = new RectF();
+    }
+
+    public void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+        trimToBudget();
+    }
+
+    public long getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Draws {@code stroke} on {@code tiles}, within {@code clip} if not null,
+     * from its cached bitmap, rendering and caching it first if needed.
+     *
+     * @param padding how far outside {@code path} the paint can reach; must
+     *                not be negative
+     * @return false, having drawn nothing, if the stroke is too large to cache
+     */
+    public boolean draw(int stroke, Path path, Paint paint, float padding, TileStore tiles, Rect clip) {
+        Entry entry = mEntries.get(stroke);
+        if (entry == null) {
+            entry = render(path, paint, padding);
+            if (entry == null) {
+                return false;
+            }
+            // Never evicts the new entry, which takes at most a quarter of the budget
+            mMemoryUsage += byteCount(entry.bitmap);
+            trimToBudget();
+            mEntries.put(stroke, entry);
+        }
+        // Erasing strokes take away what their coverage covers, like the clearing paint did
+        tiles.drawBitmap(entry.bitmap, entry.left, entry.top,
+                paint.getXfermode() == null ? mDrawPaint : mErasePaint, clip);
+        return true;
+    }
+
+    /**
+     * Drops the bitmaps of every stroke from the {@code count}th on; to be
+     * called when those strokes are thrown away.
+     */
+    public void truncate(int count) {
+        Iterator<Map.Entry<Integer, Entry>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Entry> entry = entries.next();
+            if (entry.getKey() >= count) {
+                mMemoryUsage -= byteCount(entry.getValue().bitmap);
+                entry.getValue().bitmap.recycle();
+                entries.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    private Entry render(Path path, Paint paint, float padding) {
+        path.computeBounds(mBounds, false);
+        int left = (int) Math.floor(mBounds.left - padding);
+        int top = (int) Math.floor(mBounds.top - padding);
+        int width = (int) Math.ceil(mBounds.right + padding) - left;
+        int height = (int) Math.ceil(mBounds.bottom + padding) - top;
+        if (width <= 0 || height <= 0 || 4L * width * height > mMemoryBudget / 4) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(bitmap);
+        mCanvas.translate(-left, -top);
+        // Erasing strokes are cached as their coverage
+        mRenderPaint.set(paint);
+        mRenderPaint.setXfermode(null);
+        mCanvas.drawPath(path, mRenderPaint);
+        mCanvas.translate(left, top);
+        return new Entry(bitmap, left, top);
+    }
+
+    private void trimToBudget() {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (mMemoryUsage > mMemoryBudget && entries.hasNext()) {
+            Entry eldest = entries.next();
+            mMemoryUsage -= byteCount(eldest.bitmap);
+            eldest.bitmap.recycle();
+            entries.remove();
+        }
+    }
+
+    private static long byteCount(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,908 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rasterizes committed strokes on its own thread, so that drawing them, and
+ * replaying them on undo, never holds up touch handling.
+ * <p>
+ * The UI thread sends commands through a lock-free queue. The render thread
+ * applies them to its own copy of the stroke history and to the tiles, which
+ * act as the back buffer; once the queue is empty it publishes a snapshot of
+ * the tiles as the new front buffer and asks the UI thread to redraw. Since
+ * tiles are copied before being drawn on again once snapshotted, the front
+ * buffer the UI thread draws from never changes under it, and the last
+ * complete frame stays on screen until the next one is ready.
+ */
+class StrokeRenderer {
+    private static final int QUEUE_CAPACITY = 1024;
+    // How often memory is measured while drawing
+    private static final long MEASURE_INTERVAL_MILLIS = 1000;
+
+    private static final int COMMAND_BRUSH = 0;
+    private static final int COMMAND_STROKE = 1;
+    private static final int COMMAND_UNDO = 2;
+    private static final int COMMAND_REDO = 3;
+    private static final int COMMAND_CLEAR = 4;
+    private static final int COMMAND_HIDE_FROM = 5;
+    private static final int COMMAND_QUIT = 6;
+    private static final int COMMAND_DELETE = 7;
+    // None of these changes what is drawn, so they publish no frame
+    private static final int COMMAND_MEASURE = 8;
+    private static final int COMMAND_DROP_REDO = 9;
+    private static final int COMMAND_SNAPSHOT = 10;
+
+    public interface SnapshotCallback {
+        /**
+         * Run on the main thread.
+         */
+        void onSnapshot(TileStore.Snapshot snapshot);
+    }
+
+    /**
+     * Handed back by the render thread once applied, so its arrays are
+     * reused by the next commands instead of being allocated for each.
+     */
+    private static class Command {
+        int type;
+        long sequence;
+        int brush;
+        float[] points;
+        int pointCount;
+        int[] strokes;
+        int strokeCount;
+        boolean visible;
+        boolean extend;
+        boolean clearsAll;
+        Paint paint;
+        float padding;
+        int tip;
+        Rect bounds;
+        SnapshotCallback callback;
+
+        void setPoints(float[] from, int offset, int count) {
+            if (points == null || points.length < count) {
+                points = new float[Math.max(count, 256)];
+            }
+            System.arraycopy(from, offset, points, 0, count);
+            pointCount = count;
+        }
+
+        void setStrokes(int[] from, int count) {
+            if (strokes == null || strokes.length < count) {
+                strokes = new int[Math.max(count, 16)];
+            }
+            System.arraycopy(from, 0, strokes, 0, count);
+            strokeCount = count;
+        }
+    }
+
+    /**
+     * A complete front buffer, along with the last command it reflects.
+     */
+    public static class Frame {
+        public final TileStore.Snapshot snapshot;
+        public final long sequence;
+
+        Frame(TileStore.Snapshot snapshot, long sequence) {
+            this.snapshot = snapshot;
+            this.sequence = sequence;
+        }
+    }
+
+    private final SpscQueue<Command> mQueue;
+    // Applied commands, going back from the render thread to be reused
+    private final SpscQueue<Command> mFreeCommands;
+    private final Thread mThread;
+    private final Handler mHandler;
+    private final Runnable mOnFrame;
+    private final Object mIdleLock;
+    private final Rect mDirtyBounds;
+    private volatile boolean mWaiting;
+    private volatile Frame mFrame;
+    private volatile boolean mFramePosted;
+    // Set under mIdleLock once the render thread stops taking commands
+    private boolean mStopped;
+
+    // Only touched by the UI thread
+    private long mSequence;
+
+    // Only touched by the render thread, or by the UI thread while it is idle
+    private final TileStore mTiles;
+    private final StrokeLog mStrokeLog;
+    private final CheckpointHistory mCheckpoints;
+    // Only written on the render thread
+    private final TimingHistogram mCommitTimes;
+    private final StrokeIndex mIndex;
+    private final StrokeBitmapCache mStrokeCache;
+    private final TileDeltaHistory mDeltas;
+    private final MemoryBudgets mBudgets;
+    // The budgets last given to the caches, which only get new ones when they change
+    private long mCheckpointBudget;
+    private long mDeltaBudget;
+    private long mStrokeCacheBudget;
+    private long mMeasuredTime;
+    private final List<Paint> mBrushPaints;
+    private float[] mBrushPaddings;
+    private int[] mBrushTips;
+    private final CurvePath mPath;
+    private final Rect mTileBounds;
+    private final Rect mRegion;
+
+    // Stamped strokes are stamped on a coverage layer, then tinted onto the tiles
+    private final StampBrush mStampBrush;
+    private final DabCache mDabCache;
+    private final Paint mCoveragePaint;
+    private final RectF mStampBounds;
+    private final Rect mStampRect;
+    private final Canvas mStampCanvas;
+    private Bitmap mStampLayer;
+
+    /**
+     * @param onFrame run on the main thread after a new frame is published
+     */
+    StrokeRenderer(int width, int height, Runnable onFrame) {
+        this(width, height, new MemoryBudgets(), onFrame);
+    }
+
+    /**
+     * @param budgets where the renderer reports the memory it holds, and
+     *                whose budgets its caches keep to; it gets the default
+     *                budgets of the caches
+     */
+    StrokeRenderer(int width, int height, MemoryBudgets budgets, Runnable onFrame) {
+        mQueue = new SpscQueue<>(QUEUE_CAPACITY);
+        mFreeCommands = new SpscQueue<>(QUEUE_CAPACITY);
+        mHandler = new Handler(Looper.getMainLooper());
+        mOnFrame = onFrame;
+        mIdleLock = new Object();
+        mDirtyBounds = new Rect();
+
+        mTiles = new TileStore(width, height);
+        mStrokeLog = new StrokeLog();
+        mCheckpoints = new CheckpointHistory(mTiles);
+        mCommitTimes = new TimingHistogram();
+        mIndex = new StrokeIndex(width, height);
+        mStrokeCache = new StrokeBitmapCache();
+        mDeltas = new TileDeltaHistory();
+        mBudgets = budgets;
+        mCheckpointBudget = CheckpointHistory.DEFAULT_MEMORY_BUDGET;
+        mDeltaBudget = TileDeltaHistory.DEFAULT_MEMORY_BUDGET;
+        mStrokeCacheBudget = StrokeBitmapCache.DEFAULT_MEMORY_BUDGET;
+        mBudgets.setBudget(MemoryBudgets.CHECKPOINTS, mCheckpointBudget);
+        mBudgets.setBudget(MemoryBudgets.CLEAR_HISTORY, mDeltaBudget);
+        mBudgets.setBudget(MemoryBudgets.STROKE_BITMAPS, mStrokeCacheBudget);
+        mBrushPaints = new ArrayList<>();
+        mBrushPaddings = new float[8];
+        mBrushTips = new int[8];
+        mPath = new CurvePath();
+        mTileBounds = new Rect();
+        mRegion = new Rect();
+        mDabCache = new DabCache();
+        mStampBrush = new StampBrush(mDabCache);
+        mCoveragePaint = new Paint();
+        mCoveragePaint.setColor(Color.BLACK);
+        mStampBounds = new RectF();
+        mStampRect = new Rect();
+        mStampCanvas = new Canvas();
+        mFrame = new Frame(mTiles.snapshot(), 0);
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                try {
+                    renderLoop();
+                } finally {
+                    // Wakes anyone waiting on commands that will never be drawn
+                    synchronized (mIdleLock) {
+                        mStopped = true;
+                        mIdleLock.notifyAll();
+                    }
+                }
+            }
+        }, "StrokeRenderer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public int getWidth() {
+        return mTiles.getWidth();
+    }
+
+    public int getHeight() {
+        return mTiles.getHeight();
+    }
+
+    /**
+     * @return the latest complete frame
+     */
+    public Frame getFrame() {
+        return mFrame;
+    }
+
+    /**
+     * @return the sequence number of the last command sent
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Collects the area of the drawing that changed in the frames published
+     * since the last call.
+     *
+     * @return false if nothing changed
+     */
+    public boolean popDirtyBounds(Rect bounds) {
+        synchronized (mDirtyBounds) {
+            bounds.set(mDirtyBounds);
+            mDirtyBounds.setEmpty();
+        }
+        return !bounds.isEmpty();
+    }
+
+    /**
+     * Registers the next brush, in the order of the caller's brush indices.
+     *
+     * @param padding how far outside its geometry a stroke drawn with
+     *                {@code paint} can reach, or a negative value if unknown
+     */
+    public long addBrush(Paint paint, float padding) {
+        return addBrush(paint, padding, BrushTable.TIP_PATH);
+    }
+
+    /**
+     * Registers the next brush, stamping its strokes with {@code tip} unless
+     * it is {@link BrushTable#TIP_PATH}.
+     */
+    public long addBrush(Paint paint, float padding, int tip) {
+        Command command = obtain(COMMAND_BRUSH, ++mSequence);
+        // A copy of its own, so the paint is never shared across threads
+        command.paint = new Paint(paint);
+        command.padding = padding;
+        command.tip = tip;
+        return send(command);
+    }
+
+    /**
+     * Adds a stroke after the current ones, dropping any undone strokes.
+     *
+     * @param points  x, y pairs, copied
+     * @param offset  index of the first x to read from {@code points}
+     * @param count   number of floats to read from {@code points}
+     * @param visible false to add the stroke without drawing it, for strokes
+     *                that are then hidden with {@link #hideStrokesFrom(int)}
+     * @return the sequence number of the command, reached by
+     * {@link Frame#sequence} once the stroke is drawn
+     */
+    public long addStroke(int brush, float[] points, int offset, int count, boolean visible) {
+        Command command = obtain(COMMAND_STROKE, ++mSequence);
+        command.brush = brush;
+        command.setPoints(points, offset, count);
+        command.visible = visible;
+        return send(command);
+    }
+
+    /**
+     * Adds a deletion of the given strokes after the current entries, like
+     * {@link StrokeLog#addDeletion(int[], int)}, or extends the last one.
+     *
+     * @param strokes indices of visible strokes, copied
+     * @param extend  true to add the strokes to the deletion that is the last
+     *                entry, like {@link StrokeLog#extendDeletion(int[], int)}
+     * @param visible false to add the deletion without drawing it, like
+     *                {@link #addStroke(int, float[], int, int, boolean)}
+     */
+    public long deleteStrokes(int[] strokes, int count, boolean extend, boolean visible) {
+        Command command = obtain(COMMAND_DELETE, ++mSequence);
+        command.setStrokes(strokes, count);
+        command.extend = extend;
+        command.visible = visible;
+        return send(command);
+    }
+
+    /**
+     * Deletes every visible stroke, given as {@code strokes}, like
+     * {@link #deleteStrokes(int[], int, boolean, boolean)}, keeping the tiles
+     * as they were so that undoing it restores them instead of redrawing.
+     */
+    public long deleteAllStrokes(int[] strokes, int count) {
+        Command command = obtain(COMMAND_DELETE, ++mSequence);
+        command.setStrokes(strokes, count);
+        command.visible = true;
+        command.clearsAll = true;
+        return send(command);
+    }
+
+    public long undo() {
+        return send(obtain(COMMAND_UNDO, ++mSequence));
+    }
+
+    public long redo() {
+        return send(obtain(COMMAND_REDO, ++mSequence));
+    }
+
+    public long clear() {
+        return send(obtain(COMMAND_CLEAR, ++mSequence));
+    }
+
+    /**
+     * Marks every stroke from the {@code size}th on as undone without
+     * redrawing anything; they must have been added invisible.
+     */
+    public long hideStrokesFrom(int size) {
+        Command command = obtain(COMMAND_HIDE_FROM, ++mSequence);
+        command.brush = size;
+        return send(command);
+    }
+
+    /**
+     * Drops the undone strokes, which can then no longer be redone.
+     */
+    public void dropRedo() {
+        send(obtain(COMMAND_DROP_REDO, mSequence));
+    }
+
+    /**
+     * Reports the memory the renderer holds to its {@link MemoryBudgets} once
+     * the commands already sent are applied, making its caches keep to their
+     * current budgets. This is otherwise done every so often while drawing.
+     */
+    public void measureMemory() {
+        send(obtain(COMMAND_MEASURE, mSequence));
+    }
+
+    /**
+     * Stops the render thread once the commands already sent are applied.
+     */
+    public void quit() {
+        send(obtain(COMMAND_QUIT, ++mSequence));
+    }
+
+    /**
+     * Blocks until every command sent so far is drawn and published, or
+     * until the render thread has stopped.
+     */
+    public void waitForIdle() {
+        synchronized (mIdleLock) {
+            while (mFrame.sequence < mSequence && !mStopped) {
+                try {
+                    mIdleLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot like {@link #snapshot(Rect)} once every command sent so
+     * far is drawn, without waiting for it.
+     *
+     * @param callback given the snapshot on the main thread
+     */
+    public void requestSnapshot(Rect bounds, SnapshotCallback callback) {
+        Command command = obtain(COMMAND_SNAPSHOT, mSequence);
+        if (command.bounds == null) {
+            command.bounds = new Rect();
+        }
+        command.bounds.set(bounds);
+        command.callback = callback;
+        send(command);
+    }
+
+    /**
+     * @param bounds the part of the drawing the snapshot is meant to show,
+     *               grown to include all of the committed strokes
+     * @return the committed drawing once every command sent so far is drawn
+     */
+    public TileStore.Snapshot snapshot(Rect bounds) {
+        waitForIdle();
+        mTiles.getContentBounds(mTileBounds);
+        bounds.union(mTileBounds);
+        return mTiles.snapshot(bounds);
+    }
+
+    /**
+     * Lets the tiles kept for undoing {@link #deleteAllStrokes(int[], int)}
+     * go to files in {@code folder} once they take too much memory; only to
+     * be called before anything is sent.
+     */
+    public void setSpillFolder(File folder) {
+        mDeltas.setSpillFolder(folder);
+    }
+
+    /**
+     * Only to be used while the renderer is idle, or before anything is sent.
+     */
+    TileDeltaHistory getTileDeltaHistory() {
+        return mDeltas;
+    }
+
+    /**
+     * Only to be used while the renderer is idle, or before anything is sent.
+     */
+    CheckpointHistory getCheckpointHistory() {
+        return mCheckpoints;
+    }
+
+    /**
+     * Only to be used while the renderer is idle, or before anything is sent.
+     */
+    StrokeBitmapCache getStrokeBitmapCache() {
+        return mStrokeCache;
+    }
+
+    /**
+     * @return how long drawing each committed, redone or deleting entry took;
+     * readable from any thread, as long as a value off by a recording is fine
+     */
+    TimingHistogram getCommitTimes() {
+        return mCommitTimes;
+    }
+
+    /**
+     * @return a command to fill in and send, reused if the render thread
+     * handed one back
+     */
+    private Command obtain(int type, long sequence) {
+        Command command = mFreeCommands.poll();
+        if (command == null) {
+            command = new Command();
+        }
+        command.type = type;
+        command.sequence = sequence;
+        command.visible = false;
+        command.extend = false;
+        command.clearsAll = false;
+        return command;
+    }
+
+    private void recycle(Command command) {
+        // The render thread keeps the paint of a brush
+        command.paint = null;
+        command.callback = null;
+        // Dropped if the UI thread is a whole queue behind taking them back
+        mFreeCommands.offer(command);
+    }
+
+    private long send(Command command) {
+        while (!mQueue.offer(command)) {
+            // Only when the render thread is a whole queue behind
+            LockSupport.unpark(mThread);
+            Thread.yield();
+        }
+        // The queue published the command with a volatile store, so either
+        // this sees the flag or the render thread sees the command
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+        return command.sequence;
+    }
+
+    private void renderLoop() {
+        long applied = 0;
+        boolean changed = false;
+        while (true) {
+            Command command = mQueue.poll();
+            if (command == null) {
+                if (changed) {
+                    publish(applied);
+                    changed = false;
+                }
+                // Re-checked after raising the flag, so no command is missed
+                mWaiting = true;
+                if (mQueue.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                mWaiting = false;
+                continue;
+            }
+            if (command.type == COMMAND_QUIT) {
+                publish(command.sequence);
+                return;
+            }
+            if (command.type == COMMAND_MEASURE) {
+                reportMemory();
+            } else if (command.type == COMMAND_DROP_REDO) {
+                discardRedo();
+            } else if (command.type == COMMAND_SNAPSHOT) {
+                postSnapshot(command.bounds, command.callback);
+            } else {
+                apply(command);
+                applied = command.sequence;
+                changed = true;
+            }
+            recycle(command);
+        }
+    }
+
+    private void postSnapshot(Rect bounds, final SnapshotCallback callback) {
+        // The snapshot keeps its bounds
+        Rect snapshotBounds = new Rect(bounds);
+        mTiles.getContentBounds(mTileBounds);
+        snapshotBounds.union(mTileBounds);
+        final TileStore.Snapshot snapshot = mTiles.snapshot(snapshotBounds);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSnapshot(snapshot);
+            }
+        });
+    }
+
+    private void publish(long sequence) {
+        synchronized (mDirtyBounds) {
+            if (mTiles.popDirtyBounds(mTileBounds)) {
+                mDirtyBounds.union(mTileBounds);
+            }
+        }
+        mFrame = new Frame(mTiles.snapshot(), sequence);
+        if (SystemClock.uptimeMillis() - mMeasuredTime >= MEASURE_INTERVAL_MILLIS) {
+            reportMemory();
+        }
+        synchronized (mIdleLock) {
+            mIdleLock.notifyAll();
+        }
+        if (!mFramePosted) {
+            mFramePosted = true;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mFramePosted = false;
+                    mOnFrame.run();
+                }
+            });
+        }
+    }
+
+    private void apply(Command command) {
+        switch (command.type) {
+            case COMMAND_BRUSH:
+                int brush = mBrushPaints.size();
+                mBrushPaints.add(command.paint);
+                if (brush == mBrushPaddings.length) {
+                    float[] paddings = new float[brush * 2];
+                    System.arraycopy(mBrushPaddings, 0, paddings, 0, brush);
+                    mBrushPaddings = paddings;
+                    int[] tips = new int[brush * 2];
+                    System.arraycopy(mBrushTips, 0, tips, 0, brush);
+                    mBrushTips = tips;
+                }
+                mBrushPaddings[brush] = command.padding;
+                mBrushTips[brush] = command.tip;
+                break;
+            case COMMAND_STROKE:
+                discardRedo();
+                mStrokeLog.add(command.brush, command.points, command.pointCount);
+                indexStroke(mStrokeLog.size() - 1);
+                if (command.visible) {
+                    commitStroke(mStrokeLog.size() - 1);
+                }
+                break;
+            case COMMAND_DELETE:
+                int[] strokes = command.strokes;
+                int count = command.strokeCount;
+                if (command.extend) {
+                    // Checkpoints of the deletion so far no longer hold
+                    mCheckpoints.truncate(mStrokeLog.size() - 1);
+                    mStrokeLog.extendDeletion(strokes, count);
+                } else {
+                    discardRedo();
+                    mStrokeLog.addDeletion(strokes, count);
+                    mIndex.addEmpty();
+                }
+                if (command.visible) {
+                    long start = System.nanoTime();
+                    if (command.clearsAll) {
+                        mRegion.set(0, 0, mTiles.getWidth(), mTiles.getHeight());
+                        mDeltas.record(mStrokeLog.size() - 1, mTiles, mRegion);
+                        mTiles.clear();
+                    } else {
+                        getStrokeBounds(strokes, count, mRegion);
+                        redraw(mRegion);
+                    }
+                    onCommitted(mStrokeLog.size(), start);
+                }
+                break;
+            case COMMAND_UNDO:
+                mStrokeLog.undo();
+                int undone = mStrokeLog.size();
+                if (mDeltas.restore(undone, mTiles)) {
+                    break;
+                }
+                if (mStrokeLog.isDeletion(undone)) {
+                    getDeletionBounds(undone, mRegion);
+                } else {
+                    getStrokeBounds(undone, mRegion);
+                }
+                redraw(mRegion);
+                break;
+            case COMMAND_REDO:
+                mStrokeLog.redo();
+                int redone = mStrokeLog.size() - 1;
+                if (mStrokeLog.isDeletion(redone)) {
+                    long start = System.nanoTime();
+                    if (mDeltas.has(redone)) {
+                        // Only deletions of everything keep their tiles
+                        mTiles.clear();
+                    } else {
+                        getDeletionBounds(redone, mRegion);
+                        redraw(mRegion);
+                    }
+                    onCommitted(redone + 1, start);
+                } else {
+                    commitStroke(redone);
+                }
+                break;
+            case COMMAND_CLEAR:
+                mTiles.clear();
+                mStrokeLog.clear();
+                mCheckpoints.clear();
+                mIndex.clear();
+                mStrokeCache.clear();
+                mDeltas.clear();
+                break;
+            case COMMAND_HIDE_FROM:
+                while (mStrokeLog.size() > command.brush) {
+                    mStrokeLog.undo();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reports what each part of the renderer holds, first making the caches
+     * keep to their budgets and dropping the dabs if they are over theirs.
+     */
+    private void reportMemory() {
+        mMeasuredTime = SystemClock.uptimeMillis();
+        long budget = mBudgets.getBudget(MemoryBudgets.CHECKPOINTS);
+        if (budget != mCheckpointBudget) {
+            mCheckpointBudget = budget;
+            mCheckpoints.setMemoryBudget(budget);
+        }
+        budget = mBudgets.getBudget(MemoryBudgets.CLEAR_HISTORY);
+        if (budget != mDeltaBudget) {
+            mDeltaBudget = budget;
+            mDeltas.setMemoryBudget(budget);
+        }
+        budget = mBudgets.getBudget(MemoryBudgets.STROKE_BITMAPS);
+        if (budget != mStrokeCacheBudget) {
+            mStrokeCacheBudget = budget;
+            mStrokeCache.setMemoryBudget(budget);
+        }
+
+        // The front buffer holds on to the tiles drawn over since it was published
+        Map<Bitmap, Boolean> counted = TileStore.newMemoryCounter();
+        mTiles.countMemory(counted);
+        mBudgets.update(MemoryBudgets.TILES,
+                mTiles.getMemoryUsage() + mFrame.snapshot.countMemory(counted));
+        mBudgets.update(MemoryBudgets.CHECKPOINTS, mCheckpoints.getMemoryUsage());
+        mBudgets.update(MemoryBudgets.CLEAR_HISTORY, mDeltas.getMemoryUsage());
+        mBudgets.update(MemoryBudgets.STROKE_BITMAPS, mStrokeCache.getMemoryUsage());
+        mBudgets.update(MemoryBudgets.RENDER_HISTORY,
+                mStrokeLog.getMemoryUsage() + mIndex.getMemoryUsage());
+        if (mBudgets.update(MemoryBudgets.DABS, getDabMemoryUsage())) {
+            // Cheap to make again, unlike anything else here
+            mDabCache.clear();
+            if (mStampLayer != null) {
+                mStampLayer.recycle();
+                mStampLayer = null;
+            }
+            mBudgets.update(MemoryBudgets.DABS, getDabMemoryUsage());
+        }
+    }
+
+    private long getDabMemoryUsage() {
+        long bytes = mDabCache.getMemoryUsage();
+        if (mStampLayer != null) {
+            bytes += (long) mStampLayer.getRowBytes() * mStampLayer.getHeight();
+        }
+        return bytes;
+    }
+
+    private void drawStroke(int stroke) {
+        drawStroke(stroke, null);
+    }
+
+    private void drawStroke(int stroke, Rect clip) {
+        buildPath(mStrokeLog, stroke, mPath);
+        int brush = mStrokeLog.getBrush(stroke);
+        Paint paint = mBrushPaints.get(brush);
+        float padding = mBrushPaddings[brush];
+        if (mBrushTips[brush] != BrushTable.TIP_PATH) {
+            stampStroke(stroke, mBrushTips[brush], paint, padding, clip);
+            return;
+        }
+        // Mask filters run in software, so filtered strokes are only filtered once
+        if (paint.getMaskFilter() != null && padding >= 0
+                && mStrokeCache.draw(stroke, mPath, paint, padding, mTiles, clip)) {
+            return;
+        }
+        mTiles.drawPath(mPath, paint, padding, clip);
+    }
+
+    /**
+     * Stamps the dabs of {@code stroke}, whose path is in {@link #mPath}, on
+     * the coverage layer, and draws the layer on the tiles with the brush
+     * paint in one go, like the view does with the stroke in progress.
+     */
+    private void stampStroke(int stroke, int tip, Paint paint, float padding, Rect clip) {
+        float width = paint.getStrokeWidth();
+        padding = Math.max(padding, width / 2 + 1);
+        mPath.computeBounds(mStampBounds, false);
+        mStampBounds.inset(-padding, -padding);
+        mStampBounds.roundOut(mStampRect);
+        if (!mStampRect.intersect(0, 0, mTiles.getWidth(), mTiles.getHeight())
+                || (clip != null && !mStampRect.intersect(clip))) {
+            return;
+        }
+        // The layer only ever grows, and is cleared whole, which is cheap for 8 bit pixels
+        if (mStampLayer == null || mStampLayer.getWidth() < mStampRect.width()
+                || mStampLayer.getHeight() < mStampRect.height()) {
+            int layerWidth = mStampRect.width();
+            int layerHeight = mStampRect.height();
+            if (mStampLayer != null) {
+                layerWidth = Math.max(layerWidth, mStampLayer.getWidth());
+                layerHeight = Math.max(layerHeight, mStampLayer.getHeight());
+                mStampLayer.recycle();
+            }
+            mStampLayer = Bitmap.createBitmap(layerWidth, layerHeight, Bitmap.Config.ALPHA_8);
+            mStampCanvas.setBitmap(mStampLayer);
+        } else {
+            mStampLayer.eraseColor(Color.TRANSPARENT);
+        }
+
+        float[] points = mStrokeLog.getPoints();
+        int start = mStrokeLog.getStart(stroke);
+        mStampCanvas.save();
+        mStampCanvas.translate(-mStampRect.left, -mStampRect.top);
+        mStampBrush.start(mStampCanvas, tip, width, 1, mCoveragePaint, points[start], points[start + 1]);
+        mStampBrush.stamp(mStampCanvas, mPath);
+        mStampCanvas.restore();
+        mTiles.drawBitmap(mStampLayer, mStampRect.left, mStampRect.top, paint, mStampRect);
+    }
+
+    private void discardRedo() {
+        if (mStrokeLog.canRedo()) {
+            mStrokeLog.discardRedo();
+            mCheckpoints.truncate(mStrokeLog.size());
+            mIndex.truncate(mStrokeLog.size());
+            mStrokeCache.truncate(mStrokeLog.size());
+            mDeltas.truncate(mStrokeLog.size());
+        }
+    }
+
+    private void indexStroke(int stroke) {
+        float padding = mBrushPaddings[mStrokeLog.getBrush(stroke)];
+        if (padding < 0) {
+            // Its paint could reach anywhere
+            mIndex.add(0, 0, mTiles.getWidth(), mTiles.getHeight());
+            return;
+        }
+        float[] points = mStrokeLog.getPoints();
+        int start = mStrokeLog.getStart(stroke);
+        int end = mStrokeLog.getEnd(stroke);
+        float left = points[start];
+        float top = points[start + 1];
+        float right = left;
+        float bottom = top;
+        for (int i = start + 2; i < end; i += 2) {
+            left = Math.min(left, points[i]);
+            right = Math.max(right, points[i]);
+            top = Math.min(top, points[i + 1]);
+            bottom = Math.max(bottom, points[i + 1]);
+        }
+        // The curve never leaves the hull of its points
+        mIndex.add(left - padding, top - padding, right + padding, bottom + padding);
+    }
+
+    private void getStrokeBounds(int stroke, Rect bounds) {
+        bounds.set((int) Math.floor(mIndex.getLeft(stroke)), (int) Math.floor(mIndex.getTop(stroke)),
+                (int) Math.ceil(mIndex.getRight(stroke)), (int) Math.ceil(mIndex.getBottom(stroke)));
+    }
+
+    private void getDeletionBounds(int entry, Rect bounds) {
+        bounds.setEmpty();
+        for (int i = 0; i < mStrokeLog.getDeletedCount(entry); i++) {
+            getStrokeBounds(mStrokeLog.getDeletedStroke(entry, i), mTileBounds);
+            bounds.union(mTileBounds);
+        }
+    }
+
+    private void getStrokeBounds(int[] strokes, int count, Rect bounds) {
+        bounds.setEmpty();
+        for (int i = 0; i < count; i++) {
+            getStrokeBounds(strokes[i], mTileBounds);
+            bounds.union(mTileBounds);
+        }
+    }
+
+    /**
+     * Brings {@code region} of the tiles up to date after strokes drawn there
+     * were undone, deleted or brought back.
+     */
+    private void redraw(Rect region) {
+        int size = mStrokeLog.size();
+        if (!region.intersect(0, 0, mTiles.getWidth(), mTiles.getHeight())) {
+            return;
+        }
+        // Only what the strokes around it drew in the region has to be redrawn,
+        // unless a checkpoint leaves fewer entries to replay in full
+        int overlapping = mIndex.queryRect(region.left, region.top, region.right, region.bottom, size);
+        if (overlapping <= size - mCheckpoints.getRestorePoint(size)) {
+            mTiles.clearRect(region);
+            for (int i = 0; i < overlapping; i++) {
+                int stroke = mIndex.getResult(i);
+                if (mStrokeLog.isVisible(stroke)) {
+                    drawStroke(stroke, region);
+                }
+            }
+            return;
+        }
+        int first = mCheckpoints.restore(size);
+        for (int entry = first; entry < size; entry++) {
+            if (!mStrokeLog.isDeletion(entry)) {
+                drawStroke(entry);
+                continue;
+            }
+            // Take away what the deleted strokes drew, as the drawing was then
+            getDeletionBounds(entry, mRegion);
+            if (!mRegion.intersect(0, 0, mTiles.getWidth(), mTiles.getHeight())) {
+                continue;
+            }
+            mTiles.clearRect(mRegion);
+            int count = mIndex.queryRect(mRegion.left, mRegion.top, mRegion.right, mRegion.bottom, entry);
+            for (int i = 0; i < count; i++) {
+                int stroke = mIndex.getResult(i);
+                int deletedBy = mStrokeLog.getDeletedBy(stroke);
+                if (deletedBy < 0 || deletedBy > entry) {
+                    drawStroke(stroke, mRegion);
+                }
+            }
+        }
+    }
+
+    private void commitStroke(int stroke) {
+        long start = System.nanoTime();
+        drawStroke(stroke);
+        onCommitted(stroke + 1, start);
+    }
+
+    /**
+     * Reports that the first {@code count} entries of the log are drawn, the
+     * last one having started at {@code start}.
+     */
+    private void onCommitted(int count, long start) {
+        long nanos = System.nanoTime() - start;
+        mCheckpoints.onStrokeCommitted(count, nanos);
+        mCommitTimes.record(nanos);
+    }
+
+    /**
+     * Rebuilds the smoothed curve of a logged stroke the same way the view
+     * builds it while the finger moves.
+     */
+    static void buildPath(StrokeLog log, int stroke, CurvePath path) {
+        path.rewind();
+        StrokeCurve.trace(log.getPoints(), log.getStart(stroke), log.getEnd(stroke), path);
+    }
+}
@@ -0,0 +1,137 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Small thumbnails of images kept as JPEG files, so that they are read back
+ * instead of decoded from the full images again the next time.
+ * <p>
+ * A thumbnail is named after its image's path, size and modification time, so
+ * an image that changes gets a new one. Once the files exceed the disk budget
+ * the least recently used are deleted. A cache may be used by several threads.
+ */
+class ThumbnailDiskCache {
+    private static final String TAG = "ThumbnailDiskCache";
+
+    public static final long DEFAULT_DISK_BUDGET = 16 * 1024 * 1024;
+
+    private static final String EXTENSION = ".jpg";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final int QUALITY = 85;
+
+    private final File mFolder;
+    private final long mDiskBudget;
+    private long mDiskUsage;
+
+    ThumbnailDiskCache(File folder, long diskBudget) {
+        mFolder = folder;
+        mDiskBudget = diskBudget;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Could not create " + folder);
+        }
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                mDiskUsage += file.length();
+            }
+        }
+    }
+
+    /**
+     * @return the thumbnail of {@code image}, or null if there is none yet
+     */
+    public Bitmap get(File image, BitmapFactory.Options options) {
+        File file = getFile(image);
+        Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        if (thumbnail != null) {
+            // Keeps recently shown thumbnails from being trimmed first
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return thumbnail;
+    }
+
+    public void put(File image, Bitmap thumbnail) {
+        File file = getFile(image);
+        File temporary = new File(mFolder, file.getName() + TEMPORARY_EXTENSION);
+        try {
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, QUALITY, output)) {
+                    throw new IOException("Could not encode the thumbnail");
+                }
+            } finally {
+                output.close();
+            }
+            long replaced = file.length();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not rename " + temporary);
+            }
+            synchronized (this) {
+                mDiskUsage += file.length() - replaced;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not cache the thumbnail of " + image, e);
+            temporary.delete();
+            return;
+        }
+        trimToBudget();
+    }
+
+    public synchronized long getDiskUsage() {
+        return mDiskUsage;
+    }
+
+    private File getFile(File image) {
+        String key = Integer.toHexString(image.getPath().hashCode())
+                + "-" + Long.toHexString(image.length())
+                + "-" + Long.toHexString(image.lastModified());
+        return new File(mFolder, key + EXTENSION);
+    }
+
+    private synchronized void trimToBudget() {
+        if (mDiskUsage <= mDiskBudget) {
+            return;
+        }
+        File[] files = mFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Times are read once, as reading thumbnails touches them meanwhile
+        final long[] times = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            times[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return times[a] < times[b] ? -1 : times[a] > times[b] ? 1 : 0;
+            }
+        });
+        mDiskUsage = 0;
+        for (File file : files) {
+            mDiskUsage += file.length();
+        }
+        // Down to three quarters, so trimming does not happen on every put
+        for (int i = 0; i < order.length && mDiskUsage > mDiskBudget * 3 / 4; i++) {
+            File file = files[order[i]];
+            if (file.getName().endsWith(TEMPORARY_EXTENSION)) {
+                // Still being written
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskUsage -= length;
+            }
+        }
+    }
+}
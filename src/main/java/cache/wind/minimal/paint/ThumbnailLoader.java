@@ -0,0 +1,218 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads square thumbnails of images into image views, off the main thread.
+ * <p>
+ * Thumbnails come from a memory cache of the most recently used ones within a
+ * byte budget, then from a {@link ThumbnailDiskCache}, and only then from the
+ * images themselves, decoded at the smallest power of two subsampling that
+ * still covers the thumbnail. A few worker threads decode the most recently
+ * requested thumbnails first, and skip those whose view has moved on to
+ * another image by the time they get to them, so flinging through a long list
+ * only decodes what ends up on screen.
+ * <p>
+ * Apart from the worker threads, a loader is only used on the main thread.
+ */
+class ThumbnailLoader {
+    private static final int WORKERS = 2;
+
+    private final int mSize;
+    private final ThumbnailDiskCache mDiskCache;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler;
+    // The image each view is waiting for
+    private final ConcurrentMap<ImageView, File> mTargets;
+
+    private final LinkedHashMap<File, Bitmap> mThumbnails;
+    private final long mMemoryBudget;
+    private long mMemoryUsage;
+
+    /**
+     * @param size the width and height of the thumbnails, in pixels
+     */
+    ThumbnailLoader(int size, ThumbnailDiskCache diskCache, long memoryBudget) {
+        mSize = size;
+        mDiskCache = diskCache;
+        mMemoryBudget = memoryBudget;
+        mThumbnails = new LinkedHashMap<>(64, 0.75f, true);
+        mTargets = new ConcurrentHashMap<>();
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        // The latest requests are for the views on screen now
+                        return offerFirst(runnable);
+                    }
+                }, new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "ThumbnailLoader-" + ++mCount);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Shows the thumbnail of {@code image} in {@code view}, right away if it
+     * is in memory, or else once loaded, showing nothing meanwhile.
+     */
+    public void load(File image, ImageView view) {
+        Bitmap thumbnail = mThumbnails.get(image);
+        if (thumbnail != null) {
+            mTargets.remove(view);
+            view.setImageBitmap(thumbnail);
+            return;
+        }
+        if (image.equals(mTargets.get(view))) {
+            // Already on its way
+            return;
+        }
+        mTargets.put(view, image);
+        view.setImageDrawable(null);
+        mExecutor.execute(new Job(image, view));
+    }
+
+    public long getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    public int size() {
+        return mThumbnails.size();
+    }
+
+    /**
+     * Drops pending loads and stops the workers; the thumbnails in memory
+     * stay usable until the loader is garbage collected.
+     */
+    public void shutdown() {
+        mTargets.clear();
+        mExecutor.shutdownNow();
+    }
+
+    private class Job implements Runnable {
+        private final File mImage;
+        private final ImageView mView;
+
+        Job(File image, ImageView view) {
+            mImage = image;
+            mView = view;
+        }
+
+        @Override
+        public void run() {
+            if (!mImage.equals(mTargets.get(mView))) {
+                return;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            // Thumbnails of flattened drawings have nothing to gain from alpha
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap thumbnail = mDiskCache.get(mImage, options);
+            if (thumbnail == null) {
+                thumbnail = decode(mImage, mSize, options);
+                if (thumbnail != null) {
+                    mDiskCache.put(mImage, thumbnail);
+                }
+            }
+            if (thumbnail == null) {
+                mTargets.remove(mView, mImage);
+                return;
+            }
+            final Bitmap loaded = thumbnail;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    put(mImage, loaded);
+                    if (mTargets.remove(mView, mImage)) {
+                        mView.setImageBitmap(loaded);
+                    }
+                }
+            });
+        }
+    }
+
+    private void put(File image, Bitmap thumbnail) {
+        Bitmap replaced = mThumbnails.put(image, thumbnail);
+        if (replaced != null) {
+            mMemoryUsage -= getByteCount(replaced);
+        }
+        mMemoryUsage += getByteCount(thumbnail);
+        Iterator<Bitmap> eldest = mThumbnails.values().iterator();
+        while (mMemoryUsage > mMemoryBudget && eldest.hasNext()) {
+            Bitmap bitmap = eldest.next();
+            if (bitmap == thumbnail) {
+                break;
+            }
+            // Not recycled, as a view may still show it
+            mMemoryUsage -= getByteCount(bitmap);
+            eldest.remove();
+        }
+    }
+
+    private static long getByteCount(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Decodes {@code image} subsampled, reading its bounds first, and crops it
+     * to a {@code size} pixels square.
+     *
+     * @return the thumbnail, or null if the image could not be decoded
+     */
+    static Bitmap decode(File image, int size, BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, size);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled = BitmapFactory.decodeFile(image.getPath(), options);
+        if (sampled == null) {
+            return null;
+        }
+        return ThumbnailUtils.extractThumbnail(sampled, size, size,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+
+    /**
+     * @return the largest power of two an image {@code width} by
+     * {@code height} pixels can be subsampled by and still cover a square
+     * {@code size} pixels wide
+     */
+    static int getSampleSize(int width, int height, int size) {
+        int shortest = Math.min(width, height);
+        int sampleSize = 1;
+        while (shortest / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
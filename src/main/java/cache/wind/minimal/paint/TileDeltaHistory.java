@@ -0,0 +1,306 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The tiles that raster edits of the history changed, as they were before
+ * each edit, so undoing an edit restores them in one go instead of
+ * replaying the strokes drawn before it.
+ * <p>
+ * Deltas are numbered by the history entry of their edit and kept
+ * compressed. Once those in memory exceed the memory budget the oldest are
+ * written to files in the spill folder and read back when undone; without a
+ * spill folder they are dropped, and undoing their edit has to redraw.
+ */
+class TileDeltaHistory {
+    private static final String TAG = "TileDeltaHistory";
+
+    public static final long DEFAULT_MEMORY_BUDGET = 8 * 1024 * 1024;
+
+    private static final String SPILL_PREFIX = "delta-";
+    private static final String SPILL_EXTENSION = ".tiles";
+
+    private static class Delta {
+        final int entry;
+        final int[] tiles;
+        // Where the compressed pixels of each tile end; empty tiles take none
+        final int[] ends;
+        // Null once spilled to file
+        byte[] data;
+        File file;
+
+        Delta(int entry, int[] tiles, int[] ends, byte[] data) {
+            this.entry = entry;
+            this.tiles = tiles;
+            this.ends = ends;
+            this.data = data;
+        }
+    }
+
+    // In entry order
+    private final List<Delta> mDeltas;
+    private final Deflater mDeflater;
+    private final Inflater mInflater;
+    private final byte[] mPixels;
+    private final byte[] mChunk;
+    private final ByteArrayOutputStream mOutput;
+    private final Rect mTileBounds;
+    private long mMemoryBudget;
+    private long mMemoryUsage;
+    private File mSpillFolder;
+    private int mSpillCount;
+
+    TileDeltaHistory() {
+        mDeltas = new ArrayList<>();
+        // Pixels of a drawing are mostly flat, so the fastest level already does well
+        mDeflater = new Deflater(Deflater.BEST_SPEED);
+        mInflater = new Inflater();
+        mPixels = new byte[TileStore.TILE_BYTES];
+        mChunk = new byte[16 * 1024];
+        mOutput = new ByteArrayOutputStream();
+        mTileBounds = new Rect();
+        mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    }
+
+    /**
+     * Spills deltas over the memory budget to {@code folder}, deleting what
+     * an earlier process left there.
+     */
+    public void setSpillFolder(File folder) {
+        mSpillFolder = folder;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Could not create " + folder);
+            mSpillFolder = null;
+            return;
+        }
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SPILL_PREFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * @return the bytes of the compressed deltas held in memory
+     */
+    public long getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    public int size() {
+        return mDeltas.size();
+    }
+
+    public int getSpilledCount() {
+        int count = 0;
+        for (Delta delta : mDeltas) {
+            if (delta.data == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean has(int entry) {
+        return indexOf(entry) >= 0;
+    }
+
+    /**
+     * Keeps the tiles of {@code tiles} that intersect {@code area} as they are
+     * now, before entry {@code entry} of the history changes them.
+     */
+    public void record(int entry, TileStore tiles, Rect area) {
+        remove(entry);
+        int count = 0;
+        int[] indices = new int[tiles.getTileCount()];
+        int[] ends = new int[indices.length];
+        mOutput.reset();
+        ByteBuffer pixels = ByteBuffer.wrap(mPixels);
+        for (int tile = 0; tile < indices.length; tile++) {
+            tiles.getTileBounds(tile, mTileBounds);
+            if (!Rect.intersects(mTileBounds, area)) {
+                continue;
+            }
+            pixels.clear();
+            if (tiles.readTile(tile, pixels)) {
+                mDeflater.reset();
+                mDeflater.setInput(mPixels);
+                mDeflater.finish();
+                while (!mDeflater.finished()) {
+                    mOutput.write(mChunk, 0, mDeflater.deflate(mChunk));
+                }
+            }
+            indices[count] = tile;
+            ends[count++] = mOutput.size();
+        }
+        int[] shrunkIndices = new int[count];
+        int[] shrunkEnds = new int[count];
+        System.arraycopy(indices, 0, shrunkIndices, 0, count);
+        System.arraycopy(ends, 0, shrunkEnds, 0, count);
+
+        Delta delta = new Delta(entry, shrunkIndices, shrunkEnds, mOutput.toByteArray());
+        int index = mDeltas.size();
+        while (index > 0 && mDeltas.get(index - 1).entry > entry) {
+            index--;
+        }
+        mDeltas.add(index, delta);
+        mMemoryUsage += delta.data.length;
+        trimToBudget();
+    }
+
+    /**
+     * Brings the tiles back to how they were before entry {@code entry}.
+     *
+     * @return false, having maybe changed some tiles, if there is no delta for
+     * the entry or it could not be read
+     */
+    public boolean restore(int entry, TileStore tiles) {
+        int index = indexOf(entry);
+        if (index < 0) {
+            return false;
+        }
+        Delta delta = mDeltas.get(index);
+        byte[] data = delta.data;
+        try {
+            if (data == null) {
+                data = readSpilled(delta);
+            }
+            ByteBuffer pixels = ByteBuffer.wrap(mPixels);
+            int start = 0;
+            for (int i = 0; i < delta.tiles.length; i++) {
+                int end = delta.ends[i];
+                if (end == start) {
+                    tiles.writeTile(delta.tiles[i], null);
+                    continue;
+                }
+                mInflater.reset();
+                mInflater.setInput(data, start, end - start);
+                int inflated = 0;
+                while (inflated < mPixels.length && !mInflater.finished()) {
+                    inflated += mInflater.inflate(mPixels, inflated, mPixels.length - inflated);
+                    if (mInflater.needsInput()) {
+                        break;
+                    }
+                }
+                if (inflated != mPixels.length) {
+                    throw new DataFormatException("Truncated tile");
+                }
+                pixels.clear();
+                tiles.writeTile(delta.tiles[i], pixels);
+                start = end;
+            }
+            return true;
+        } catch (IOException | DataFormatException e) {
+            Log.e(TAG, "Could not restore the tiles of entry " + entry, e);
+            return false;
+        }
+    }
+
+    /**
+     * Drops the deltas of every entry from the {@code count}th on; to be
+     * called when those entries are thrown away.
+     */
+    public void truncate(int count) {
+        while (!mDeltas.isEmpty() && mDeltas.get(mDeltas.size() - 1).entry >= count) {
+            drop(mDeltas.remove(mDeltas.size() - 1));
+        }
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    private int indexOf(int entry) {
+        for (int i = mDeltas.size() - 1; i >= 0; i--) {
+            if (mDeltas.get(i).entry == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void remove(int entry) {
+        int index = indexOf(entry);
+        if (index >= 0) {
+            drop(mDeltas.remove(index));
+        }
+    }
+
+    private void drop(Delta delta) {
+        if (delta.data != null) {
+            mMemoryUsage -= delta.data.length;
+        } else {
+            delta.file.delete();
+        }
+    }
+
+    private void trimToBudget() {
+        for (int i = 0; i < mDeltas.size() && mMemoryUsage > mMemoryBudget; i++) {
+            Delta delta = mDeltas.get(i);
+            if (delta.data == null) {
+                continue;
+            }
+            if (spill(delta)) {
+                mMemoryUsage -= delta.data.length;
+                delta.data = null;
+            } else {
+                // Undoing its entry redraws instead
+                mDeltas.remove(i--);
+                drop(delta);
+            }
+        }
+    }
+
+    private boolean spill(Delta delta) {
+        if (mSpillFolder == null) {
+            return false;
+        }
+        File file = new File(mSpillFolder, SPILL_PREFIX + mSpillCount++ + SPILL_EXTENSION);
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                output.write(delta.data);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not spill the tiles of entry " + delta.entry, e);
+            file.delete();
+            return false;
+        }
+        delta.file = file;
+        return true;
+    }
+
+    private static byte[] readSpilled(Delta delta) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(delta.file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+}
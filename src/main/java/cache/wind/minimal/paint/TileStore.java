@@ -0,0 +1,560 @@
+package cache.wind.minimal.paint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The committed drawing, split into square tiles that are only allocated once
+ * something is drawn on them. Tiles never drawn on are transparent.
+ * <p>
+ * Snapshots share their tiles with the store; a shared tile is copied before
+ * it is drawn on again, so taking a snapshot costs nothing until the drawing
+ * changes, and then only the tiles that changed are duplicated.
+ * <p>
+ * For zoomed out views the snapshot on screen keeps downsampled copies of its
+ * tiles, each half the size of the previous one. They are built the first time
+ * they are drawn and handed down to the next snapshot shown, which only has to
+ * rebuild them for the tiles that changed in between.
+ */
+class TileStore {
+    public static final int TILE_SIZE = 256;
+    public static final int MIP_LEVELS = 4;
+    // Bytes of pixels in a tile
+    public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    private static class Tile {
+        Bitmap bitmap;
+        boolean shared;
+        boolean dirty;
+    }
+
+    /**
+     * An immutable copy of the drawing at some point in time.
+     */
+    public static class Snapshot {
+        private final int columns;
+        private final Bitmap[] bitmaps;
+        private final Rect bounds;
+
+        // Only used by the thread drawing the snapshot on screen.
+        // mips[i][j] holds level j + 1 of tile i; the first validMips[i] of them are current
+        private Bitmap[][] mips;
+        private int[] validMips;
+        private Canvas mipCanvas;
+        private Paint mipPaint;
+        private RectF mipBounds;
+        private Rect tileRange;
+
+        private Snapshot(int columns, Bitmap[] bitmaps, Rect bounds) {
+            this.columns = columns;
+            this.bitmaps = bitmaps;
+            this.bounds = bounds;
+        }
+
+        public int getWidth() {
+            return bounds.width();
+        }
+
+        public int getHeight() {
+            return bounds.height();
+        }
+
+        /**
+         * Draws the non-empty tiles at their place, the top left corner of the
+         * snapshot's bounds at the origin; safe on any thread.
+         */
+        public void draw(Canvas canvas, Paint paint) {
+            for (int i = 0; i < bitmaps.length; i++) {
+                if (bitmaps[i] != null) {
+                    canvas.drawBitmap(bitmaps[i], (i % columns) * TILE_SIZE - bounds.left,
+                            (i / columns) * TILE_SIZE - bounds.top, paint);
+                }
+            }
+        }
+
+        /**
+         * Draws the non-empty tiles that intersect {@code visible} at their
+         * place in the drawing, using the smallest mip level that still has at
+         * least one pixel per screen pixel.
+         *
+         * @param scale how many screen pixels one pixel of the drawing covers
+         */
+        public void draw(Canvas canvas, Rect visible, Paint paint, float scale) {
+            if (mips == null) {
+                mips = new Bitmap[bitmaps.length][];
+                validMips = new int[bitmaps.length];
+                mipCanvas = new Canvas();
+                mipPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+                mipPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+                mipBounds = new RectF();
+                tileRange = new Rect();
+            }
+            int rows = bitmaps.length / columns;
+            tileRange.set(Math.max(0, visible.left / TILE_SIZE), Math.max(0, visible.top / TILE_SIZE),
+                    Math.min(columns - 1, (visible.right - 1) / TILE_SIZE),
+                    Math.min(rows - 1, (visible.bottom - 1) / TILE_SIZE));
+            int level = 0;
+            while (level < MIP_LEVELS && scale <= 0.5f) {
+                scale *= 2;
+                level++;
+            }
+            for (int row = tileRange.top; row <= tileRange.bottom; row++) {
+                for (int column = tileRange.left; column <= tileRange.right; column++) {
+                    int i = row * columns + column;
+                    if (bitmaps[i] == null) {
+                        continue;
+                    }
+                    int left = column * TILE_SIZE;
+                    int top = row * TILE_SIZE;
+                    if (level == 0) {
+                        canvas.drawBitmap(bitmaps[i], left, top, paint);
+                    } else {
+                        mipBounds.set(left, top, left + TILE_SIZE, top + TILE_SIZE);
+                        canvas.drawBitmap(getMip(i, level), null, mipBounds, paint);
+                    }
+                }
+            }
+        }
+
+        private Bitmap getMip(int tile, int level) {
+            if (mips[tile] == null) {
+                mips[tile] = new Bitmap[MIP_LEVELS];
+            }
+            Bitmap[] tileMips = mips[tile];
+            while (validMips[tile] < level) {
+                int valid = validMips[tile];
+                Bitmap source = valid == 0 ? bitmaps[tile] : tileMips[valid - 1];
+                int size = TILE_SIZE >> (valid + 1);
+                if (tileMips[valid] == null) {
+                    tileMips[valid] = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                }
+                // Halving with bilinear filtering averages each 2x2 block
+                mipBounds.set(0, 0, size, size);
+                mipCanvas.setBitmap(tileMips[valid]);
+                mipCanvas.drawBitmap(source, null, mipBounds, mipPaint);
+                validMips[tile]++;
+            }
+            return tileMips[level - 1];
+        }
+
+        /**
+         * Takes over the mip levels of {@code previous}, which must not be
+         * drawn on screen anymore. Levels of tiles that did not change stay
+         * valid; the others are reused as buffers.
+         */
+        public void inheritMips(Snapshot previous) {
+            if (previous.mips == null || previous.bitmaps.length != bitmaps.length) {
+                return;
+            }
+            mips = previous.mips;
+            validMips = previous.validMips;
+            mipCanvas = previous.mipCanvas;
+            mipPaint = previous.mipPaint;
+            mipBounds = previous.mipBounds;
+            tileRange = previous.tileRange;
+            for (int i = 0; i < bitmaps.length; i++) {
+                if (bitmaps[i] == null) {
+                    mips[i] = null;
+                    validMips[i] = 0;
+                } else if (bitmaps[i] != previous.bitmaps[i]) {
+                    validMips[i] = 0;
+                }
+            }
+            previous.mips = null;
+            previous.validMips = null;
+        }
+
+        /**
+         * @return the bytes held by the mip levels built for this snapshot
+         */
+        public long getMipMemoryUsage() {
+            long bytes = 0;
+            if (mips != null) {
+                for (Bitmap[] tileMips : mips) {
+                    if (tileMips != null) {
+                        for (Bitmap mip : tileMips) {
+                            if (mip != null) {
+                                bytes += byteCount(mip);
+                            }
+                        }
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Adds the bytes held by this snapshot's tiles to {@code counted}, and
+         * returns how many of them were not counted yet.
+         */
+        long countMemory(Map<Bitmap, Boolean> counted) {
+            long bytes = 0;
+            for (Bitmap bitmap : bitmaps) {
+                if (bitmap != null && counted.put(bitmap, Boolean.TRUE) == null) {
+                    bytes += byteCount(bitmap);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mRows;
+    private final Tile[] mTiles;
+    private final Canvas mTileCanvas;
+    private final RectF mBounds;
+    private final Rect mTileRange;
+
+    TileStore(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        mRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        mTiles = new Tile[mColumns * mRows];
+        for (int i = 0; i < mTiles.length; i++) {
+            mTiles[i] = new Tile();
+        }
+        mTileCanvas = new Canvas();
+        mBounds = new RectF();
+        mTileRange = new Rect();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Draws {@code path} on every tile it may touch.
+     *
+     * @param padding how far outside the path's geometry the paint can reach,
+     *                or a negative value if unknown
+     */
+    public void drawPath(Path path, Paint paint, float padding) {
+        drawPath(path, paint, padding, null);
+    }
+
+    /**
+     * Draws the part of {@code path} inside {@code clip}, or all of it if
+     * {@code clip} is null, on every tile it may touch.
+     *
+     * @param padding how far outside the path's geometry the paint can reach,
+     *                or a negative value if unknown
+     */
+    public void drawPath(Path path, Paint paint, float padding, Rect clip) {
+        if (padding < 0) {
+            mBounds.set(0, 0, mWidth, mHeight);
+        } else {
+            path.computeBounds(mBounds, false);
+            mBounds.inset(-padding, -padding);
+        }
+        if (clip != null && !mBounds.intersect(clip.left, clip.top, clip.right, clip.bottom)) {
+            return;
+        }
+        if (!getTileRange(mBounds, mTileRange)) {
+            return;
+        }
+        // Clearing transparent pixels changes nothing, so don't allocate for it
+        boolean erasing = paint.getXfermode() != null;
+        for (int row = mTileRange.top; row <= mTileRange.bottom; row++) {
+            for (int column = mTileRange.left; column <= mTileRange.right; column++) {
+                Tile tile = mTiles[row * mColumns + column];
+                if (erasing && tile.bitmap == null) {
+                    continue;
+                }
+                mTileCanvas.setBitmap(getWritableBitmap(tile));
+                mTileCanvas.save();
+                mTileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                if (clip != null) {
+                    mTileCanvas.clipRect(clip);
+                }
+                mTileCanvas.drawPath(path, paint);
+                mTileCanvas.restore();
+                tile.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Draws {@code bitmap} with its top left corner at {@code left, top},
+     * within {@code clip} if not null, on every tile it touches.
+     */
+    public void drawBitmap(Bitmap bitmap, int left, int top, Paint paint, Rect clip) {
+        mBounds.set(left, top, left + bitmap.getWidth(), top + bitmap.getHeight());
+        if (clip != null && !mBounds.intersect(clip.left, clip.top, clip.right, clip.bottom)) {
+            return;
+        }
+        if (!getTileRange(mBounds, mTileRange)) {
+            return;
+        }
+        boolean erasing = paint.getXfermode() != null;
+        for (int row = mTileRange.top; row <= mTileRange.bottom; row++) {
+            for (int column = mTileRange.left; column <= mTileRange.right; column++) {
+                Tile tile = mTiles[row * mColumns + column];
+                if (erasing && tile.bitmap == null) {
+                    continue;
+                }
+                mTileCanvas.setBitmap(getWritableBitmap(tile));
+                mTileCanvas.save();
+                mTileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                if (clip != null) {
+                    mTileCanvas.clipRect(clip);
+                }
+                mTileCanvas.drawBitmap(bitmap, left, top, paint);
+                mTileCanvas.restore();
+                tile.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Makes {@code area} transparent, dropping the tiles it covers whole.
+     */
+    public void clearRect(Rect area) {
+        mBounds.set(area);
+        if (area.isEmpty() || !getTileRange(mBounds, mTileRange)) {
+            return;
+        }
+        for (int row = mTileRange.top; row <= mTileRange.bottom; row++) {
+            for (int column = mTileRange.left; column <= mTileRange.right; column++) {
+                Tile tile = mTiles[row * mColumns + column];
+                if (tile.bitmap == null) {
+                    continue;
+                }
+                int left = column * TILE_SIZE;
+                int top = row * TILE_SIZE;
+                if (area.contains(left, top, left + TILE_SIZE, top + TILE_SIZE)) {
+                    tile.bitmap = null;
+                    tile.shared = false;
+                } else {
+                    mTileCanvas.setBitmap(getWritableBitmap(tile));
+                    mTileCanvas.save();
+                    mTileCanvas.translate(-left, -top);
+                    mTileCanvas.clipRect(area);
+                    mTileCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                    mTileCanvas.restore();
+                }
+                tile.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Empties every tile.
+     */
+    public void clear() {
+        for (Tile tile : mTiles) {
+            if (tile.bitmap != null) {
+                tile.bitmap = null;
+                tile.shared = false;
+                tile.dirty = true;
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(new Rect(0, 0, mWidth, mHeight));
+    }
+
+    /**
+     * @param bounds the part of the drawing the snapshot is meant to show;
+     *               restoring it still brings back the whole drawing
+     */
+    public Snapshot snapshot(Rect bounds) {
+        Bitmap[] bitmaps = new Bitmap[mTiles.length];
+        for (int i = 0; i < mTiles.length; i++) {
+            Tile tile = mTiles[i];
+            if (tile.bitmap != null) {
+                tile.shared = true;
+                bitmaps[i] = tile.bitmap;
+            }
+        }
+        return new Snapshot(mColumns, bitmaps, bounds);
+    }
+
+    /**
+     * Brings every tile back to its state in {@code snapshot}, marking the
+     * ones that change as dirty.
+     */
+    public void restore(Snapshot snapshot) {
+        for (int i = 0; i < mTiles.length; i++) {
+            Tile tile = mTiles[i];
+            Bitmap bitmap = snapshot.bitmaps[i];
+            if (tile.bitmap != bitmap) {
+                tile.bitmap = bitmap;
+                tile.shared = bitmap != null;
+                tile.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Collects the area of the tiles changed since the last call and clears
+     * their dirty flags.
+     *
+     * @return false if no tile changed
+     */
+    public boolean popDirtyBounds(Rect bounds) {
+        bounds.setEmpty();
+        for (int i = 0; i < mTiles.length; i++) {
+            Tile tile = mTiles[i];
+            if (tile.dirty) {
+                int left = (i % mColumns) * TILE_SIZE;
+                int top = (i / mColumns) * TILE_SIZE;
+                bounds.union(left, top, left + TILE_SIZE, top + TILE_SIZE);
+                tile.dirty = false;
+            }
+        }
+        return !bounds.isEmpty();
+    }
+
+    /**
+     * Sets {@code bounds} to the area of the tiles that were drawn on, or
+     * empties it if there are none.
+     */
+    public void getContentBounds(Rect bounds) {
+        bounds.setEmpty();
+        for (int i = 0; i < mTiles.length; i++) {
+            if (mTiles[i].bitmap != null) {
+                int left = (i % mColumns) * TILE_SIZE;
+                int top = (i / mColumns) * TILE_SIZE;
+                bounds.union(left, top, Math.min(mWidth, left + TILE_SIZE),
+                        Math.min(mHeight, top + TILE_SIZE));
+            }
+        }
+    }
+
+    public int getTileCount() {
+        return mTiles.length;
+    }
+
+    /**
+     * Sets {@code bounds} to the area of {@code tile} in the drawing.
+     */
+    public void getTileBounds(int tile, Rect bounds) {
+        int left = (tile % mColumns) * TILE_SIZE;
+        int top = (tile / mColumns) * TILE_SIZE;
+        bounds.set(left, top, left + TILE_SIZE, top + TILE_SIZE);
+    }
+
+    /**
+     * Copies the pixels of {@code tile} to {@code pixels}, which must have
+     * {@link #TILE_BYTES} left.
+     *
+     * @return false, having copied nothing, if the tile is empty
+     */
+    public boolean readTile(int tile, ByteBuffer pixels) {
+        Bitmap bitmap = mTiles[tile].bitmap;
+        if (bitmap == null) {
+            return false;
+        }
+        bitmap.copyPixelsToBuffer(pixels);
+        return true;
+    }
+
+    /**
+     * Replaces the pixels of {@code tile} with those read by
+     * {@link #readTile(int, ByteBuffer)}, or empties it if {@code pixels} is
+     * null.
+     */
+    public void writeTile(int tile, ByteBuffer pixels) {
+        Tile target = mTiles[tile];
+        if (pixels == null) {
+            if (target.bitmap == null) {
+                return;
+            }
+            target.bitmap = null;
+        } else {
+            // Every pixel gets replaced, so shared tiles don't need copying first
+            if (target.bitmap == null || target.shared) {
+                target.bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            }
+            target.bitmap.copyPixelsFromBuffer(pixels);
+        }
+        target.shared = false;
+        target.dirty = true;
+    }
+
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for (Tile tile : mTiles) {
+            if (tile.bitmap != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the bytes held by the allocated tiles, whether shared with
+     * snapshots or not
+     */
+    public long getMemoryUsage() {
+        long bytes = 0;
+        for (Tile tile : mTiles) {
+            if (tile.bitmap != null) {
+                bytes += byteCount(tile.bitmap);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Records the tiles currently in use as counted, so that snapshot memory
+     * only reports what they hold in addition to the live drawing.
+     */
+    void countMemory(Map<Bitmap, Boolean> counted) {
+        for (Tile tile : mTiles) {
+            if (tile.bitmap != null) {
+                counted.put(tile.bitmap, Boolean.TRUE);
+            }
+        }
+    }
+
+    static Map<Bitmap, Boolean> newMemoryCounter() {
+        return new IdentityHashMap<>();
+    }
+
+    private Bitmap getWritableBitmap(Tile tile) {
+        if (tile.bitmap == null) {
+            tile.bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        } else if (tile.shared) {
+            tile.bitmap = tile.bitmap.copy(Bitmap.Config.ARGB_8888, true);
+        }
+        tile.shared = false;
+        return tile.bitmap;
+    }
+
+    /**
+     * @return false if {@code bounds} misses the drawing altogether
+     */
+    private boolean getTileRange(RectF bounds, Rect range) {
+        if (bounds.right <= 0 || bounds.bottom <= 0 || bounds.left >= mWidth || bounds.top >= mHeight) {
+            return false;
+        }
+        range.set(Math.max(0, (int) bounds.left / TILE_SIZE),
+                Math.max(0, (int) bounds.top / TILE_SIZE),
+                Math.min(mColumns - 1, (int) Math.ceil(bounds.right) / TILE_SIZE),
+                Math.min(mRows - 1, (int) Math.ceil(bounds.bottom) / TILE_SIZE));
+        return true;
+    }
+
+    private static long byteCount(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}